@@ -15,6 +15,8 @@ import com.github.penfeizhou.animation.io.ByteBufferWriter
 import com.github.penfeizhou.animation.io.FilterReader
 import com.github.penfeizhou.animation.io.Writer
 import com.github.penfeizhou.animation.loader.Loader
+import java.io.DataInput
+import java.io.DataOutput
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
@@ -37,6 +39,15 @@ class APNGDecoder(loader: Loader) : FrameSeqDecoder2(loader) {
 
     private val snapShot = SnapShot()
 
+    /**
+     * The chunks parsed so far and the frames of the complete ones, kept between parses of a
+     * progressive source
+     */
+    private class APNGParseState : ParseState() {
+        val result = APNGParser.ParseChunkResult()
+        val frames = mutableListOf<Frame>()
+    }
+
     private val apngWriter: Writer by lazy { ByteBufferWriter(ByteOrder.BIG_ENDIAN) }
 
     override fun release() {
@@ -46,73 +57,169 @@ class APNGDecoder(loader: Loader) : FrameSeqDecoder2(loader) {
     @Throws(IOException::class)
     override fun read(reader: FilterReader, sampleSize: Int): ImageInfo {
         val result = APNGParser.parse(reader)
+        val frames = result.frameDatas.indices.map { newFrame(reader, result, it) }
+        return imageInfoOf(reader, result, frames, sampleSize)
+    }
 
+    override fun newParseState(): ParseState = APNGParseState()
+
+    @Throws(IOException::class)
+    override fun readIncrementally(
+        reader: FilterReader,
+        sampleSize: Int,
+        state: ParseState
+    ): ImageInfo {
+        val apngState = state as APNGParseState
+        val result = apngState.result
+        if (state.offset == 0) {
+            APNGParser.parseSignature(reader)
+        } else {
+            reader.seek(state.offset)
+        }
+        state.offset = APNGParser.parseChunks(reader, result)
+        // A frame is complete once the next one starts, the last one is made again each time
+        val frames = apngState.frames
+        while (frames.size < result.frameDatas.size - 1) {
+            frames += newFrame(reader, result, frames.size)
+        }
+        val last = result.frameDatas.indices.lastOrNull()?.let { newFrame(reader, result, it) }
+        return imageInfoOf(reader, result, frames + listOfNotNull(last), sampleSize)
+    }
+
+    private fun newFrame(
+        reader: FilterReader,
+        result: APNGParser.ParseChunkResult,
+        index: Int
+    ): APNGFrame {
+        val frameData = result.frameDatas[index]
+        return APNGFrame(
+            index,
+            reader,
+            frameData.fctlChunk,
+            result.ihdrChunk.data,
+            result.prefixChunks.toList(),
+            frameData.imageChunks
+        )
+    }
+
+    private fun imageInfoOf(
+        reader: FilterReader,
+        result: APNGParser.ParseChunkResult,
+        animationFrames: List<Frame>,
+        sampleSize: Int
+    ): ImageInfo {
         val isAnimated = result.actlChunk != null
         val loopCount = result.actlChunk?.num_plays ?: 1
         val viewport = Size(result.ihdrChunk.width, result.ihdrChunk.height)
-        val frames = mutableListOf<Frame>()
-        when {
-            isAnimated ->
-                result.frameDatas.mapIndexedTo(frames) { index, frameData ->
-                    APNGFrame(
-                        index,
-                        reader,
-                        frameData.fctlChunk,
-                        result.ihdrChunk.data,
-                        result.prefixChunks,
-                        frameData.imageChunks
-                    )
-                }
-
+        val frames = when {
+            isAnimated -> animationFrames
             result.hasIDATChunk ->
                 // If it is a non-APNG image, only PNG will be decoded
-                frames += StillFrame(reader, viewport.width, viewport.height)
+                listOf(StillFrame(reader, viewport.width, viewport.height))
+            else -> emptyList()
         }
 
-        val bufferSizeBytes = (viewport.area / (sampleSize * sampleSize) + 1) * 4
-        snapShot.byteBuffer = ByteBuffer.allocate(bufferSizeBytes)
+        allocateSnapshot(viewport, sampleSize)
         return ImageInfo(loopCount, viewport, frames)
     }
 
+    override fun writeIndex(imageInfo: ImageInfo, output: DataOutput): Boolean {
+        APNGIndex.write(imageInfo, output)
+        return true
+    }
+
+    override fun readIndex(reader: FilterReader, input: DataInput, sampleSize: Int): ImageInfo {
+        val imageInfo = APNGIndex.read(reader, input)
+        allocateSnapshot(imageInfo.viewport, sampleSize)
+        return imageInfo
+    }
+
+    private fun allocateSnapshot(viewport: Size, sampleSize: Int) {
+        val bufferSizeBytes = (viewport.area / (sampleSize * sampleSize) + 1) * 4
+        // Kept when a progressive source is parsed again, the playback may still need it
+        if (snapShot.byteBuffer?.capacity() != bufferSizeBytes) {
+            snapShot.byteBuffer = ByteBuffer.allocate(bufferSizeBytes)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readViewport(reader: FilterReader): Size? = APNGParser.parseViewport(reader)
+
     override fun renderFrame(
         imageInfo: ImageInfo,
         frame: Frame,
-        frameBuffer: ByteBuffer,
+        canvasBitmap: Bitmap,
         sampleSize: Int
     ) {
         try {
-            val bitmap = obtainBitmap(
-                width = imageInfo.viewport.width / sampleSize,
-                height = imageInfo.viewport.height / sampleSize
-            ) ?: return
-            val canvas = getCanvas(bitmap)
+            val canvas = getCanvas(canvasBitmap)
 
             if (frame is APNGFrame) {
-                prepareApngBitmap(frame, bitmap, canvas, frameBuffer, sampleSize)
+                prepareApngBitmap(frame, canvasBitmap, canvas, sampleSize)
             }
             // Start actually drawing the content of the current frame
             val inBitmap = obtainBitmap(frame.width, frame.height) ?: return
             recycleBitmap(frame.draw(canvas, paint, sampleSize, inBitmap, apngWriter))
             recycleBitmap(inBitmap)
-            frameBuffer.rewind()
-            bitmap.copyPixelsToBuffer(frameBuffer)
-            recycleBitmap(bitmap)
         } catch (e: Exception) {
             e.printStackTrace()
         }
     }
 
+    override fun restoreFrame(
+        imageInfo: ImageInfo,
+        frame: Frame,
+        canvasBitmap: Bitmap,
+        sampleSize: Int,
+        pixels: ByteBuffer
+    ) {
+        // Keep the snapshot in step with the frames, as if this frame was rendered
+        if (frame is APNGFrame) {
+            prepareApngBitmap(frame, canvasBitmap, getCanvas(canvasBitmap), sampleSize)
+        }
+        super.restoreFrame(imageInfo, frame, canvasBitmap, sampleSize, pixels)
+    }
+
+    override fun isKeyFrame(imageInfo: ImageInfo, index: Int): Boolean {
+        if (index == 0) {
+            return true
+        }
+        val frame = imageInfo.frames[index] as? APNGFrame ?: return false
+        if (frame.covers(imageInfo.viewport) &&
+            frame.blendOp == FCTLChunk.APNG_BLEND_OP_SOURCE &&
+            frame.disposeOp != FCTLChunk.APNG_DISPOSE_OP_PREVIOUS
+        ) {
+            return true
+        }
+        // The canvas is fully cleared before this frame
+        val preFrame = imageInfo.frames[index - 1] as? APNGFrame ?: return false
+        return preFrame.covers(imageInfo.viewport) &&
+            preFrame.disposeOp == FCTLChunk.APNG_DISPOSE_OP_BACKGROUND
+    }
+
+    override fun canResumeAfter(imageInfo: ImageInfo, index: Int): Boolean {
+        val frame = imageInfo.frames[index] as? APNGFrame ?: return false
+        return frame.disposeOp != FCTLChunk.APNG_DISPOSE_OP_PREVIOUS
+    }
+
+    override fun prepareResume(imageInfo: ImageInfo, index: Int, sampleSize: Int) {
+        val frame = imageInfo.frames[index] as? APNGFrame ?: return
+        snapShot.disposeOp = frame.disposeOp
+        snapShot.dstRect.set(
+            frame.x / sampleSize,
+            frame.y / sampleSize,
+            (frame.x + frame.width) / sampleSize,
+            (frame.y + frame.height) / sampleSize
+        )
+    }
+
     // TODO: Not sure this is a suitable name
     private fun prepareApngBitmap(
         frame: APNGFrame,
         bitmap: Bitmap,
         canvas: Canvas,
-        frameBuffer: ByteBuffer,
         sampleSize: Int
     ) {
-        // Restore the current frame from the cache
-        frameBuffer.rewind()
-        bitmap.copyPixelsFromBuffer(frameBuffer)
         // Process the settings in the snapshot before starting to draw
         if (frame.index == 0) {
             canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
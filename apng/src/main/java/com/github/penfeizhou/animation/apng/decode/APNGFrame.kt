@@ -17,10 +17,10 @@ import kotlin.concurrent.getOrSet
 class APNGFrame internal constructor(
     val index: Int,
     private val reader: FilterReader,
-    fctlChunk: FCTLChunk,
-    private val ihdrData: ByteArray,
-    private val prefixChunks: List<FramePrefixChunk>,
-    private val imageChunks: List<DATChunk>
+    internal val fctlChunk: FCTLChunk,
+    internal val ihdrData: ByteArray,
+    internal val prefixChunks: List<FramePrefixChunk>,
+    internal val imageChunks: List<DATChunk>
 ) : Frame(
     x = fctlChunk.x_offset,
     y = fctlChunk.y_offset,
@@ -102,8 +102,7 @@ class APNGFrame internal constructor(
 
         // prefixChunks
         for (chunk in prefixChunks) {
-            reader.reset()
-            reader.skip(chunk.offset)
+            reader.seek(chunk.offset.toInt())
             reader.read(writer.toByteArray(), writer.position(), chunk.length + 12)
             writer.skip(chunk.length + 12)
         }
@@ -111,8 +110,7 @@ class APNGFrame internal constructor(
         for (chunk in imageChunks) {
             when (chunk) {
                 is IDATChunk -> {
-                    reader.reset()
-                    reader.skip(chunk.offset)
+                    reader.seek(chunk.offset.toInt())
                     reader.read(writer.toByteArray(), writer.position(), chunk.length + 12)
                     writer.skip(chunk.length + 12)
                 }
@@ -120,9 +118,8 @@ class APNGFrame internal constructor(
                     writer.writeInt(chunk.length - 4)
                     start = writer.position()
                     writer.writeFourCC(IDATChunk.ID)
-                    reader.reset()
                     // skip to fdat data position
-                    reader.skip(chunk.offset + 4L + 4L + 4L)
+                    reader.seek(chunk.offset.toInt() + 4 + 4 + 4)
                     reader.read(writer.toByteArray(), writer.position(), chunk.length - 4)
                     writer.skip(chunk.length - 4)
                     crc32.reset()
@@ -0,0 +1,136 @@
+package com.github.penfeizhou.animation.apng.decode
+
+import android.util.Size
+import com.github.penfeizhou.animation.decode.Frame
+import com.github.penfeizhou.animation.decode.ImageInfo
+import com.github.penfeizhou.animation.io.FilterReader
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.IOException
+
+/**
+ * Writes and reads the frame index of an APNG: the chunk offsets and frame control parameters
+ * needed to rebuild the frames without parsing the file.
+ */
+internal object APNGIndex {
+    private const val KIND_EMPTY = 0
+    private const val KIND_STILL = 1
+    private const val KIND_ANIMATED = 2
+
+    private const val CHUNK_IDAT = 0
+    private const val CHUNK_FDAT = 1
+
+    @Throws(IOException::class)
+    fun write(imageInfo: ImageInfo, output: DataOutput) {
+        output.writeInt(imageInfo.loopCount)
+        output.writeInt(imageInfo.viewport.width)
+        output.writeInt(imageInfo.viewport.height)
+        val frames = imageInfo.frames.filterIsInstance<APNGFrame>()
+        val first = frames.firstOrNull()
+        if (first == null) {
+            output.writeByte(if (imageInfo.frames.isEmpty()) KIND_EMPTY else KIND_STILL)
+            return
+        }
+        output.writeByte(KIND_ANIMATED)
+        // All frames share the header and the chunks before the first frame
+        output.writeInt(first.ihdrData.size)
+        output.write(first.ihdrData)
+        output.writeInt(first.prefixChunks.size)
+        for (chunk in first.prefixChunks) {
+            output.writeLong(chunk.offset)
+            output.writeInt(chunk.length)
+            output.writeInt(chunk.fourCC)
+            output.writeInt(chunk.crc)
+        }
+        output.writeInt(frames.size)
+        for (frame in frames) {
+            writeFCTL(frame.fctlChunk, output)
+            output.writeInt(frame.imageChunks.size)
+            for (chunk in frame.imageChunks) {
+                when (chunk) {
+                    is IDATChunk -> {
+                        output.writeByte(CHUNK_IDAT)
+                        output.writeLong(chunk.offset)
+                    }
+                    is FDATChunk -> {
+                        output.writeByte(CHUNK_FDAT)
+                        output.writeLong(chunk.offset)
+                    }
+                }
+                output.writeInt(chunk.length)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    fun read(reader: FilterReader, input: DataInput): ImageInfo {
+        val loopCount = input.readInt()
+        val viewport = Size(input.readInt(), input.readInt())
+        val frames = mutableListOf<Frame>()
+        when (input.readByte().toInt()) {
+            KIND_STILL -> frames += StillFrame(reader, viewport.width, viewport.height)
+            KIND_ANIMATED -> {
+                val ihdrData = ByteArray(input.readInt()).also(input::readFully)
+                val prefixChunks = List(input.readInt()) {
+                    FramePrefixChunk(
+                        offset = input.readLong(),
+                        length = input.readInt(),
+                        fourCC = input.readInt(),
+                        crc = input.readInt()
+                    )
+                }
+                repeat(input.readInt()) { index ->
+                    val fctlChunk = readFCTL(input)
+                    val imageChunks = List(input.readInt()) { readDAT(input) }
+                    frames += APNGFrame(
+                        index,
+                        reader,
+                        fctlChunk,
+                        ihdrData,
+                        prefixChunks,
+                        imageChunks
+                    )
+                }
+            }
+        }
+        return ImageInfo(loopCount, viewport, frames)
+    }
+
+    private fun writeFCTL(chunk: FCTLChunk, output: DataOutput) {
+        output.writeInt(chunk.width)
+        output.writeInt(chunk.height)
+        output.writeInt(chunk.x_offset)
+        output.writeInt(chunk.y_offset)
+        output.writeShort(chunk.delay_num.toInt())
+        output.writeShort(chunk.delay_den.toInt())
+        output.writeByte(chunk.dispose_op.toInt())
+        output.writeByte(chunk.blend_op.toInt())
+    }
+
+    private fun readFCTL(input: DataInput): FCTLChunk = FCTLChunk(
+        offset = 0,
+        length = 26,
+        fourCC = FCTLChunk.ID,
+        sequence_number = 0,
+        width = input.readInt(),
+        height = input.readInt(),
+        x_offset = input.readInt(),
+        y_offset = input.readInt(),
+        delay_num = input.readShort(),
+        delay_den = input.readShort(),
+        dispose_op = input.readByte(),
+        blend_op = input.readByte(),
+        crc = 0
+    )
+
+    private fun readDAT(input: DataInput): DATChunk {
+        val type = input.readByte().toInt()
+        val offset = input.readLong()
+        val length = input.readInt()
+        return when (type) {
+            CHUNK_IDAT -> IDATChunk(offset, length, IDATChunk.ID, crc = 0)
+            CHUNK_FDAT -> FDATChunk(offset, length, FDATChunk.ID, sequence_number = 0, crc = 0)
+            else -> throw IOException("Unknown chunk type $type")
+        }
+    }
+}
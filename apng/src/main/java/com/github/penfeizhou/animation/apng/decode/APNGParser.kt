@@ -1,10 +1,11 @@
 package com.github.penfeizhou.animation.apng.decode
 
 import android.content.Context
+import android.util.Size
 import com.github.penfeizhou.animation.apng.io.APNGReader.matchFourCC
-import com.github.penfeizhou.animation.apng.io.APNGReader.readFourCC
 import com.github.penfeizhou.animation.apng.io.APNGReader.readInt
 import com.github.penfeizhou.animation.io.FilterReader
+import com.github.penfeizhou.animation.io.IncompleteSourceException
 import com.github.penfeizhou.animation.io.Reader
 import com.github.penfeizhou.animation.io.StreamReader
 import java.io.FileInputStream
@@ -96,29 +97,63 @@ object APNGParser {
 
     @Throws(IOException::class)
     internal fun parse(reader: FilterReader): ParseChunkResult {
+        val result = ParseChunkResult()
+        parseSignature(reader)
+        parseChunks(reader, result)
+        return result
+    }
+
+    @Throws(IOException::class)
+    internal fun parseSignature(reader: FilterReader) {
         if (!reader.isValid()) {
             throw FormatException()
         }
-        val frameDatas = mutableListOf<FrameData>()
-        val prefixChunks = mutableListOf<FramePrefixChunk>()
-        var ihdrChunk = IHDRChunk.DUMMY
-        var actlChunk: ACTLChunk? = null
-        var hasIDATChunk = false
-        while (reader.available() > 0) {
-            when (val chunk = parseChunk(reader)) {
-                is FCTLChunk -> frameDatas.add(FrameData(chunk))
-                is FDATChunk -> frameDatas.lastOrNull()?.imageChunks?.add(chunk)
-                is IDATChunk -> {
-                    hasIDATChunk = true
-                    frameDatas.lastOrNull()?.imageChunks?.add(chunk)
+    }
+
+    /**
+     * Adds the chunks from the position of [reader] up to the end, or up to what arrived of a
+     * source still arriving, to [result]. Returns the position after the last chunk parsed in
+     * full, where parsing continues once more arrived.
+     */
+    @Throws(IOException::class)
+    internal fun parseChunks(reader: FilterReader, result: ParseChunkResult): Int {
+        var end = reader.position()
+        try {
+            while (reader.available() > 0) {
+                when (val chunk = parseChunk(reader)) {
+                    is FCTLChunk -> result.frameDatas.add(FrameData(chunk))
+                    is FDATChunk -> result.frameDatas.lastOrNull()?.imageChunks?.add(chunk)
+                    is IDATChunk -> {
+                        result.hasIDATChunk = true
+                        result.frameDatas.lastOrNull()?.imageChunks?.add(chunk)
+                    }
+                    is FramePrefixChunk -> result.prefixChunks.add(chunk)
+                    is IHDRChunk -> result.ihdrChunk = chunk
+                    is ACTLChunk -> result.actlChunk = chunk
+                    is IENDChunk -> Unit
                 }
-                is FramePrefixChunk -> prefixChunks.add(chunk)
-                is IHDRChunk -> ihdrChunk = chunk
-                is ACTLChunk -> actlChunk = chunk
-                is IENDChunk -> Unit
+                end = reader.position()
             }
+        } catch (e: IncompleteSourceException) {
+            // The rest has not arrived yet, keep the chunks so far
         }
-        return ParseChunkResult(frameDatas, prefixChunks, ihdrChunk, actlChunk, hasIDATChunk)
+        return end
+    }
+
+    /**
+     * Reads the image size from the IHDR chunk, which must directly follow the signature, without
+     * parsing the rest of the file.
+     */
+    @Throws(IOException::class)
+    internal fun parseViewport(reader: FilterReader): Size? {
+        if (!reader.isValid()) {
+            throw FormatException()
+        }
+        val length = reader.readInt()
+        if (reader.readFourCC() != IHDRChunk.ID || length < 8) {
+            return null
+        }
+        return Size(reader.readInt(), reader.readInt())
     }
 
     private fun FilterReader.isValid(): Boolean =
@@ -167,13 +202,13 @@ object APNGParser {
 
     internal class FormatException : IOException("APNG Format error")
 
-    internal class ParseChunkResult(
-        val frameDatas: List<FrameData>,
-        val prefixChunks: List<FramePrefixChunk>,
-        val ihdrChunk: IHDRChunk,
-        val actlChunk: ACTLChunk?,
-        val hasIDATChunk: Boolean
-    )
+    internal class ParseChunkResult {
+        val frameDatas: MutableList<FrameData> = mutableListOf()
+        val prefixChunks: MutableList<FramePrefixChunk> = mutableListOf()
+        var ihdrChunk = IHDRChunk.DUMMY
+        var actlChunk: ACTLChunk? = null
+        var hasIDATChunk = false
+    }
 
     internal class FrameData(val fctlChunk: FCTLChunk) {
         val imageChunks: MutableList<DATChunk> = mutableListOf()
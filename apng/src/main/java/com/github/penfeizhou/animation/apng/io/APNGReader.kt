@@ -6,24 +6,10 @@ import java.io.IOException
 
 object APNGReader {
     @Throws(IOException::class)
-    fun FilterReader.readInt(): Int {
-        val buf = ensureBytes()
-        read(buf, 0, 4)
-        return (buf[3].toInt() and 0xFF) or
-            (buf[2].toInt() and 0xFF shl 8) or
-            (buf[1].toInt() and 0xFF shl 16) or
-            (buf[0].toInt() and 0xFF shl 24)
-    }
+    fun FilterReader.readInt(): Int = readU32BE()
 
     @Throws(IOException::class)
-    fun FilterReader.readShort(): Short {
-        val buf = ensureBytes()
-        read(buf, 0, 2)
-        return (
-            buf[1].toInt() and 0xFF or
-                (buf[0].toInt() and 0xFF shl 8)
-            ).toShort()
-    }
+    fun FilterReader.readShort(): Short = readU16BE().toShort()
 
     /**
      * @return read FourCC and match chars
@@ -41,25 +27,4 @@ object APNGReader {
         }
         return true
     }
-
-    @Throws(IOException::class)
-    fun FilterReader.readFourCC(): Int {
-        val buf = ensureBytes()
-        read(buf, 0, 4)
-        return (buf[0].toInt() and 0xff) or
-            (buf[1].toInt() and 0xff shl 8) or
-            (buf[2].toInt() and 0xff shl 16) or
-            (buf[3].toInt() and 0xff shl 24)
-    }
-
-    private val THREAD_LOCAL_BYTE_BUFFERS = ThreadLocal<ByteArray>()
-
-    private fun ensureBytes(): ByteArray {
-        var bytes = THREAD_LOCAL_BYTE_BUFFERS.get()
-        if (bytes == null) {
-            bytes = ByteArray(4)
-            THREAD_LOCAL_BYTE_BUFFERS.set(bytes)
-        }
-        return bytes
-    }
 }
@@ -16,18 +16,32 @@ import com.github.penfeizhou.animation.webp.io.WebPWriter.putUInt24
 import com.github.penfeizhou.animation.webp.io.WebPWriter.putUInt32
 import java.io.IOException
 
-class AnimationFrame(private val reader: FilterReader, anmfChunk: ANMFChunk) : Frame(
-    x = anmfChunk.frameX,
-    y = anmfChunk.frameY,
-    width = anmfChunk.frameWidth,
-    height = anmfChunk.frameHeight,
-    duration = if (anmfChunk.frameDuration == 0) 100 else anmfChunk.frameDuration
-) {
-    private val imagePayloadOffset: Int = anmfChunk.offset + BaseChunk.CHUNCK_HEADER_OFFSET + 16
-    private val imagePayloadSize: Int = anmfChunk.payloadSize - 16 + (anmfChunk.payloadSize and 1)
-    private val blendingMethod: Boolean = anmfChunk.blendingMethod()
-    val disposalMethod: Boolean = anmfChunk.disposalMethod()
-    private val useAlpha: Boolean = anmfChunk.alphChunk != null
+class AnimationFrame internal constructor(
+    private val reader: FilterReader,
+    x: Int,
+    y: Int,
+    width: Int,
+    height: Int,
+    duration: Int,
+    internal val imagePayloadOffset: Int,
+    internal val imagePayloadSize: Int,
+    val blendingMethod: Boolean,
+    val disposalMethod: Boolean,
+    internal val useAlpha: Boolean
+) : Frame(x = x, y = y, width = width, height = height, duration = duration) {
+    constructor(reader: FilterReader, anmfChunk: ANMFChunk) : this(
+        reader = reader,
+        x = anmfChunk.frameX,
+        y = anmfChunk.frameY,
+        width = anmfChunk.frameWidth,
+        height = anmfChunk.frameHeight,
+        duration = if (anmfChunk.frameDuration == 0) 100 else anmfChunk.frameDuration,
+        imagePayloadOffset = anmfChunk.offset + BaseChunk.CHUNCK_HEADER_OFFSET + 16,
+        imagePayloadSize = anmfChunk.payloadSize - 16 + (anmfChunk.payloadSize and 1),
+        blendingMethod = anmfChunk.blendingMethod(),
+        disposalMethod = anmfChunk.disposalMethod(),
+        useAlpha = anmfChunk.alphChunk != null
+    )
 
     private val srcRect = Rect()
     private val dstRect = Rect()
@@ -51,8 +65,7 @@ class AnimationFrame(private val reader: FilterReader, anmfChunk: ANMFChunk) : F
 
         // ImageData
         try {
-            reader.reset()
-            reader.skip(imagePayloadOffset.toLong())
+            reader.seek(imagePayloadOffset)
             reader.read(writer.toByteArray(), writer.position(), imagePayloadSize)
         } catch (e: IOException) {
             e.printStackTrace()
@@ -106,6 +119,16 @@ class AnimationFrame(private val reader: FilterReader, anmfChunk: ANMFChunk) : F
         return bitmap
     }
 
+    // Frame offsets are stored halved, see draw
+    override fun getBounds(sampleSize: Int, out: Rect) {
+        out.set(
+            x * 2 / sampleSize,
+            y * 2 / sampleSize,
+            (x * 2 + width + sampleSize - 1) / sampleSize,
+            (y * 2 + height + sampleSize - 1) / sampleSize
+        )
+    }
+
     companion object {
         private val PORTERDUFF_XFERMODE_SRC_OVER = PorterDuffXfermode(PorterDuff.Mode.SRC_OVER)
         private val PORTERDUFF_XFERMODE_SRC = PorterDuffXfermode(PorterDuff.Mode.SRC)
@@ -14,8 +14,9 @@ import com.github.penfeizhou.animation.io.ByteBufferWriter
 import com.github.penfeizhou.animation.io.FilterReader
 import com.github.penfeizhou.animation.io.Writer
 import com.github.penfeizhou.animation.loader.Loader
+import java.io.DataInput
+import java.io.DataOutput
 import java.io.IOException
-import java.nio.ByteBuffer
 
 /**
  * @param loader         webp stream loader
@@ -37,66 +38,117 @@ class WebPDecoder(loader: Loader) : FrameSeqDecoder2(loader) {
     private var backgroundColor = 0
     private val writer: Writer by lazy { ByteBufferWriter() }
 
-    override fun release() {}
-
-    @Throws(IOException::class)
-    override fun read(reader: FilterReader, sampleSize: Int): ImageInfo {
-        val chunks = WebPParser.parse(reader)
+    /**
+     * The chunks parsed so far, kept between parses of a progressive source
+     */
+    private class WebPParseState : ParseState() {
         var anim = false
         var vp8x = false
         var loopCount = 0
         val frames = mutableListOf<Frame>()
+    }
+
+    override fun release() {}
+
+    @Throws(IOException::class)
+    override fun read(reader: FilterReader, sampleSize: Int): ImageInfo {
+        val state = WebPParseState()
+        collect(reader, WebPParser.parse(reader), state)
+        if (!state.anim) {
+            // 静态图
+            if (!state.vp8x) {
+                val options = BitmapFactory.Options()
+                options.inJustDecodeBounds = true
+                BitmapFactory.decodeStream(reader.toInputStream(), null, options)
+                canvasWidth = options.outWidth
+                canvasHeight = options.outHeight
+            }
+            state.frames.add(StillFrame(reader, canvasWidth, canvasHeight))
+            state.loopCount = 1
+        }
+        return imageInfoOf(state)
+    }
+
+    override fun newParseState(): ParseState = WebPParseState()
+
+    // A still image gets its frame once it arrived in full, through read
+    @Throws(IOException::class)
+    override fun readIncrementally(
+        reader: FilterReader,
+        sampleSize: Int,
+        state: ParseState
+    ): ImageInfo {
+        val webpState = state as WebPParseState
+        val chunks = mutableListOf<BaseChunk>()
+        if (state.offset == 0) {
+            WebPParser.parseHeader(reader)
+        } else {
+            reader.seek(state.offset)
+        }
+        state.offset = WebPParser.parseChunks(reader, chunks)
+        collect(reader, chunks, webpState)
+        return imageInfoOf(webpState)
+    }
+
+    /**
+     * Adds [chunks], in the order they were parsed, to what [state] collected so far
+     */
+    private fun collect(reader: FilterReader, chunks: List<BaseChunk>, state: WebPParseState) {
         for (chunk in chunks) {
             when (chunk) {
                 is VP8XChunk -> {
                     canvasWidth = chunk.canvasWidth
                     canvasHeight = chunk.canvasHeight
                     alpha = chunk.alpha()
-                    vp8x = true
+                    state.vp8x = true
                 }
                 is ANIMChunk -> {
-                    anim = true
+                    state.anim = true
                     backgroundColor = chunk.backgroundColor
-                    loopCount = chunk.loopCount
+                    state.loopCount = chunk.loopCount
                 }
-                is ANMFChunk -> frames.add(AnimationFrame(reader, chunk))
+                is ANMFChunk -> state.frames.add(AnimationFrame(reader, chunk))
             }
         }
-        if (!anim) {
-            // 静态图
-            if (!vp8x) {
-                val options = BitmapFactory.Options()
-                options.inJustDecodeBounds = true
-                BitmapFactory.decodeStream(reader.toInputStream(), null, options)
-                canvasWidth = options.outWidth
-                canvasHeight = options.outHeight
-            }
-            frames.add(StillFrame(reader, canvasWidth, canvasHeight))
-            loopCount = 1
+    }
+
+    private fun imageInfoOf(state: WebPParseState): ImageInfo {
+        if (!alpha) {
+            mTransparentFillPaint.color = backgroundColor
         }
+        return ImageInfo(state.loopCount, Size(canvasWidth, canvasHeight), state.frames.toList())
+    }
+
+    override fun writeIndex(imageInfo: ImageInfo, output: DataOutput): Boolean {
+        WebPIndex.write(imageInfo, alpha, backgroundColor, output)
+        return true
+    }
+
+    override fun readIndex(reader: FilterReader, input: DataInput, sampleSize: Int): ImageInfo {
+        val result = WebPIndex.read(reader, input)
+        canvasWidth = result.imageInfo.viewport.width
+        canvasHeight = result.imageInfo.viewport.height
+        alpha = result.alpha
+        backgroundColor = result.backgroundColor
         if (!alpha) {
             mTransparentFillPaint.color = backgroundColor
         }
-        return ImageInfo(loopCount, Size(canvasWidth, canvasHeight), frames)
+        return result.imageInfo
     }
 
+    @Throws(IOException::class)
+    override fun readViewport(reader: FilterReader): Size? = WebPParser.parseViewport(reader)
+
     override fun renderFrame(
         imageInfo: ImageInfo,
         frame: Frame,
-        frameBuffer: ByteBuffer,
+        canvasBitmap: Bitmap,
         sampleSize: Int
     ) {
         if (imageInfo.viewport.width <= 0 || imageInfo.viewport.height <= 0) {
             return
         }
-        val bitmap = obtainBitmap(
-            imageInfo.viewport.width / sampleSize,
-            imageInfo.viewport.height / sampleSize
-        ) ?: return
-        val canvas = getCanvas(bitmap)
-        // 从缓存中恢复当前帧
-        frameBuffer.rewind()
-        bitmap.copyPixelsFromBuffer(frameBuffer)
+        val canvas = getCanvas(canvasBitmap)
         if (frameIndex == 0) {
             if (alpha) {
                 canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.SRC)
@@ -127,8 +179,20 @@ class WebPDecoder(loader: Loader) : FrameSeqDecoder2(loader) {
         }
         recycleBitmap(frame.draw(canvas, paint, sampleSize, inBitmap, writer))
         recycleBitmap(inBitmap)
-        frameBuffer.rewind()
-        bitmap.copyPixelsToBuffer(frameBuffer)
-        recycleBitmap(bitmap)
     }
+
+    override fun isKeyFrame(imageInfo: ImageInfo, index: Int): Boolean {
+        if (index == 0) {
+            return true
+        }
+        val frame = imageInfo.frames[index] as? AnimationFrame ?: return false
+        if (frame.covers(imageInfo.viewport) && frame.blendingMethod) {
+            return true
+        }
+        // The canvas is fully cleared before this frame
+        val preFrame = imageInfo.frames[index - 1] as? AnimationFrame ?: return false
+        return alpha && preFrame.covers(imageInfo.viewport) && preFrame.disposalMethod
+    }
+
+    override fun canResumeAfter(imageInfo: ImageInfo, index: Int): Boolean = true
 }
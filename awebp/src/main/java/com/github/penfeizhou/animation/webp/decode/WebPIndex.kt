@@ -0,0 +1,80 @@
+package com.github.penfeizhou.animation.webp.decode
+
+import android.util.Size
+import com.github.penfeizhou.animation.decode.Frame
+import com.github.penfeizhou.animation.decode.ImageInfo
+import com.github.penfeizhou.animation.io.FilterReader
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.IOException
+
+/**
+ * Writes and reads the frame index of a WebP: the canvas parameters and the ANMF payload offsets
+ * needed to rebuild the frames without parsing the file.
+ */
+internal object WebPIndex {
+    private const val FRAME_STILL = 0
+    private const val FRAME_ANIMATION = 1
+
+    class Result(val imageInfo: ImageInfo, val alpha: Boolean, val backgroundColor: Int)
+
+    @Throws(IOException::class)
+    fun write(imageInfo: ImageInfo, alpha: Boolean, backgroundColor: Int, output: DataOutput) {
+        output.writeInt(imageInfo.loopCount)
+        output.writeInt(imageInfo.viewport.width)
+        output.writeInt(imageInfo.viewport.height)
+        output.writeBoolean(alpha)
+        output.writeInt(backgroundColor)
+        output.writeInt(imageInfo.frames.size)
+        for (frame in imageInfo.frames) {
+            when (frame) {
+                is AnimationFrame -> {
+                    output.writeByte(FRAME_ANIMATION)
+                    output.writeInt(frame.x)
+                    output.writeInt(frame.y)
+                    output.writeInt(frame.width)
+                    output.writeInt(frame.height)
+                    output.writeInt(frame.duration)
+                    output.writeInt(frame.imagePayloadOffset)
+                    output.writeInt(frame.imagePayloadSize)
+                    output.writeBoolean(frame.blendingMethod)
+                    output.writeBoolean(frame.disposalMethod)
+                    output.writeBoolean(frame.useAlpha)
+                }
+                else -> {
+                    output.writeByte(FRAME_STILL)
+                    output.writeInt(frame.width)
+                    output.writeInt(frame.height)
+                }
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    fun read(reader: FilterReader, input: DataInput): Result {
+        val loopCount = input.readInt()
+        val viewport = Size(input.readInt(), input.readInt())
+        val alpha = input.readBoolean()
+        val backgroundColor = input.readInt()
+        val frames = List<Frame>(input.readInt()) {
+            when (val type = input.readByte().toInt()) {
+                FRAME_ANIMATION -> AnimationFrame(
+                    reader = reader,
+                    x = input.readInt(),
+                    y = input.readInt(),
+                    width = input.readInt(),
+                    height = input.readInt(),
+                    duration = input.readInt(),
+                    imagePayloadOffset = input.readInt(),
+                    imagePayloadSize = input.readInt(),
+                    blendingMethod = input.readBoolean(),
+                    disposalMethod = input.readBoolean(),
+                    useAlpha = input.readBoolean()
+                )
+                FRAME_STILL -> StillFrame(reader, input.readInt(), input.readInt())
+                else -> throw IOException("Unknown frame type $type")
+            }
+        }
+        return Result(ImageInfo(loopCount, viewport, frames), alpha, backgroundColor)
+    }
+}
@@ -1,11 +1,12 @@
 package com.github.penfeizhou.animation.webp.decode
 
 import android.content.Context
+import android.util.Size
 import com.github.penfeizhou.animation.io.FilterReader
+import com.github.penfeizhou.animation.io.IncompleteSourceException
 import com.github.penfeizhou.animation.io.Reader
 import com.github.penfeizhou.animation.io.StreamReader
 import com.github.penfeizhou.animation.webp.io.WebPReader.matchFourCC
-import com.github.penfeizhou.animation.webp.io.WebPReader.readFourCC
 import com.github.penfeizhou.animation.webp.io.WebPReader.readUInt32
 import java.io.FileInputStream
 import java.io.IOException
@@ -98,6 +99,14 @@ object WebPParser {
 
     @Throws(IOException::class)
     fun parse(reader: FilterReader): List<BaseChunk> {
+        parseHeader(reader)
+        val chunks: MutableList<BaseChunk> = ArrayList()
+        parseChunks(reader, chunks)
+        return chunks
+    }
+
+    @Throws(IOException::class)
+    internal fun parseHeader(reader: FilterReader) {
         // @link {https://developers.google.com/speed/webp/docs/riff_container#webp_file_header}
         if (!reader.matchFourCC("RIFF")) {
             throw FormatException()
@@ -106,11 +115,48 @@ object WebPParser {
         if (!reader.matchFourCC("WEBP")) {
             throw FormatException()
         }
-        val chunks: MutableList<BaseChunk> = ArrayList()
-        while (reader.available() > 0) {
-            chunks.add(parseChunk(reader))
+    }
+
+    /**
+     * Adds the chunks from the position of [reader] up to the end, or up to what arrived of a
+     * source still arriving, to [chunks]. Returns the position after the last chunk parsed in
+     * full, where parsing continues once more arrived.
+     */
+    @Throws(IOException::class)
+    internal fun parseChunks(reader: FilterReader, chunks: MutableList<BaseChunk>): Int {
+        var end = reader.position()
+        try {
+            while (reader.available() > 0) {
+                chunks.add(parseChunk(reader))
+                end = reader.position()
+            }
+        } catch (e: IncompleteSourceException) {
+            // The rest has not arrived yet, keep the chunks so far
         }
-        return chunks
+        return end
+    }
+
+    /**
+     * Reads the canvas size from the VP8X chunk, which directly follows the file header of
+     * extended files, without parsing the rest of the file. Returns null for simple files, whose
+     * size is only known by decoding the bitstream header.
+     */
+    @Throws(IOException::class)
+    internal fun parseViewport(reader: FilterReader): Size? {
+        if (!reader.matchFourCC("RIFF")) {
+            throw FormatException()
+        }
+        reader.skip(4)
+        if (!reader.matchFourCC("WEBP")) {
+            throw FormatException()
+        }
+        if (reader.readFourCC() != VP8XChunk.ID) {
+            return null
+        }
+        reader.skip(4)
+        val chunk = VP8XChunk()
+        chunk.innerParse(reader)
+        return Size(chunk.canvasWidth, chunk.canvasHeight)
     }
 
     @Throws(IOException::class)
@@ -271,8 +271,7 @@ class WebPEncoder {
     private fun writeChunk(writer: Writer, reader: FilterReader, chunk: BaseChunk) {
         writer.putUInt32(chunk.chunkFourCC)
         writer.putUInt32(chunk.payloadSize)
-        reader.reset()
-        reader.skip((chunk.offset + 8).toLong())
+        reader.seek(chunk.offset + 8)
         reader.read(writer.toByteArray(), writer.position(), chunk.payloadSize)
         writer.skip(chunk.payloadSize)
         if (chunk.payloadSize and 1 == 1) {
@@ -0,0 +1,29 @@
+package com.github.penfeizhou.animation.benchmark
+
+import com.github.penfeizhou.animation.io.Reader
+import java.io.EOFException
+
+/**
+ * Reads the way parsers did before bulk reads: every typed read and every array is filled a
+ * byte at a time through [peek], as the defaults of [Reader] and the old parsers do.
+ */
+internal class ByteAtATimeReader(private val reader: Reader) : Reader by reader {
+    override fun readFully(buffer: ByteArray, start: Int, byteCount: Int) {
+        for (i in start until start + byteCount) {
+            if (reader.available() <= 0) {
+                throw EOFException()
+            }
+            buffer[i] = reader.peek()
+        }
+    }
+
+    override fun readU16LE(): Int = (peek().toInt() and 0xff) or (peek().toInt() and 0xff shl 8)
+
+    override fun readU16BE(): Int = (peek().toInt() and 0xff shl 8) or (peek().toInt() and 0xff)
+
+    override fun readU32LE(): Int = readU16LE() or (readU16LE() shl 16)
+
+    override fun readU32BE(): Int = (readU16BE() shl 16) or readU16BE()
+
+    override fun readFourCC(): Int = readU32LE()
+}
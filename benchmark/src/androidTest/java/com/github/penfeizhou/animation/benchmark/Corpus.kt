@@ -0,0 +1,17 @@
+package com.github.penfeizhou.animation.benchmark
+
+import androidx.test.platform.app.InstrumentationRegistry
+
+/**
+ * The demo files of the app, packaged as assets of the benchmarks
+ */
+internal object Corpus {
+    private val assets = InstrumentationRegistry.getInstrumentation().context.assets
+
+    fun names(vararg extensions: String): List<String> =
+        assets.list("").orEmpty()
+            .filter { name -> extensions.any { name.endsWith(".$it") } }
+            .sorted()
+
+    fun read(name: String): ByteArray = assets.open(name).use { it.readBytes() }
+}
@@ -0,0 +1,114 @@
+package com.github.penfeizhou.animation.benchmark
+
+import android.graphics.Rect
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.github.penfeizhou.animation.apng.decode.APNGDecoder
+import com.github.penfeizhou.animation.apng.decode.APNGParser
+import com.github.penfeizhou.animation.decode.BaseFrameSeqDecoder
+import com.github.penfeizhou.animation.decode.RenderListener
+import com.github.penfeizhou.animation.gif.decode.GifDecoder
+import com.github.penfeizhou.animation.gif.decode.GifParser
+import com.github.penfeizhou.animation.io.ByteBufferReader
+import com.github.penfeizhou.animation.loader.ByteBufferLoader
+import com.github.penfeizhou.animation.loader.Loader
+import com.github.penfeizhou.animation.webp.decode.WebPDecoder
+import com.github.penfeizhou.animation.webp.decode.WebPParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Plays every animation of the corpus once with damage tracking on and once with it off, and
+ * reports the pixel bytes the decoder copied from its canvas into the frame buffer per frame, see
+ * [BaseFrameSeqDecoder.copiedBytes], and the bytes damaged per frame, which a listener uploads.
+ *
+ * Playback runs in real time, so bytes are counted rather than time measured. The results are
+ * logged under the tag DirtyRectBenchmark.
+ */
+@RunWith(AndroidJUnit4::class)
+class DirtyRectBenchmark {
+    private class Playback(val frames: Int, val copiedBytes: Long, val damagedBytes: Long)
+
+    @Test
+    fun copiedBytesPerFrame() {
+        var frames = 0
+        var tracked = 0L
+        var untracked = 0L
+        for (name in Corpus.names("gif", "png", "webp")) {
+            val data = Corpus.read(name)
+            val on = play(data, damageTracking = true) ?: continue
+            val off = play(data, damageTracking = false) ?: continue
+            assertEquals(name, off.frames, on.frames)
+            assertTrue(name, on.copiedBytes <= off.copiedBytes)
+            Log.i(
+                TAG,
+                "$name: ${on.frames} frames, copied ${on.copiedBytes / on.frames} bytes per " +
+                    "frame with damage tracking, ${off.copiedBytes / off.frames} without, " +
+                    "damaged ${on.damagedBytes / on.frames} and ${off.damagedBytes / off.frames}"
+            )
+            frames += on.frames
+            tracked += on.copiedBytes
+            untracked += off.copiedBytes
+        }
+        assertTrue(frames > 0)
+        Log.i(
+            TAG,
+            "Corpus: $frames frames, copied ${tracked / frames} bytes per frame with damage " +
+                "tracking, ${untracked / frames} without"
+        )
+    }
+
+    /**
+     * Plays [data] once in [BaseFrameSeqDecoder.RenderMode.BYTE_BUFFER], null if it is not an
+     * animation
+     */
+    private fun play(data: ByteArray, damageTracking: Boolean): Playback? {
+        val loader = object : ByteBufferLoader() {
+            override fun getByteBuffer(): ByteBuffer = ByteBuffer.wrap(data)
+        }
+        val decoder = decoder(data, loader) ?: return null
+        decoder.damageTracking = damageTracking
+        decoder.setLoopLimit(1)
+        val ended = CountDownLatch(1)
+        var frames = 0
+        var damagedBytes = 0L
+        decoder.addRenderListener(object : RenderListener {
+            override fun onStart() = Unit
+
+            override fun onRender(byteBuffer: ByteBuffer) {
+                frames++
+                damagedBytes += byteBuffer.capacity()
+            }
+
+            override fun onRender(byteBuffer: ByteBuffer, damage: Rect) {
+                frames++
+                damagedBytes += 4L * damage.width() * damage.height()
+            }
+
+            override fun onEnd() = ended.countDown()
+        })
+        decoder.start()
+        assertTrue(ended.await(PLAYBACK_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        return Playback(frames, decoder.copiedBytes, damagedBytes).takeIf { frames > 0 }
+    }
+
+    private fun decoder(data: ByteArray, loader: Loader): BaseFrameSeqDecoder? {
+        val reader = { ByteBufferReader(ByteBuffer.wrap(data)) }
+        return when {
+            GifParser.isGif(reader()) -> GifDecoder(loader)
+            APNGParser.isAPNG(reader()) -> APNGDecoder(loader)
+            WebPParser.isAWebP(reader()) -> WebPDecoder(loader)
+            else -> null
+        }
+    }
+
+    companion object {
+        private const val TAG = "DirtyRectBenchmark"
+        private const val PLAYBACK_TIMEOUT_SECONDS = 60L
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.penfeizhou.animation.benchmark
+
+import android.graphics.Bitmap
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.github.penfeizhou.animation.gif.decode.ColorTable
+import com.github.penfeizhou.animation.gif.decode.GifCanvas
+import com.github.penfeizhou.animation.gif.decode.GifFrame
+import com.github.penfeizhou.animation.gif.decode.GifParser
+import com.github.penfeizhou.animation.gif.decode.GraphicControlExtension
+import com.github.penfeizhou.animation.gif.decode.ImageDescriptor
+import com.github.penfeizhou.animation.gif.decode.LogicalScreenDescriptor
+import com.github.penfeizhou.animation.io.ByteBufferReader
+import com.github.penfeizhou.animation.io.FilterReader
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.nio.ByteBuffer
+import java.nio.IntBuffer
+
+/**
+ * Renders every frame of the GIFs in the corpus with each engine of GifDecoder, in the order
+ * GifDecoder.renderFrame uses: natively onto the canvas bitmap, on the JVM onto a [GifCanvas]
+ * alone, and on the JVM with the copies from and back to the canvas bitmap GifDecoder makes.
+ */
+@RunWith(AndroidJUnit4::class)
+class GifEngineBenchmark {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private class Gif(
+        val width: Int,
+        val height: Int,
+        /**
+         * The background color as a pixel, 0 if there is none
+         */
+        val background: Int,
+        val frames: List<GifFrame>
+    )
+
+    @Test
+    fun native() = renderAll { gif ->
+        val canvas = Bitmap.createBitmap(gif.width, gif.height, Bitmap.Config.ARGB_8888)
+        val snapshot = ByteArray(gif.width * gif.height * 4)
+        render(gif, { canvas.eraseColor(it.toColor()) }) { index, preFrame, frame, background ->
+            if (index > 0) {
+                if (frame.disposalMethod == 3 && preFrame.disposalMethod != 3) {
+                    canvas.copyPixelsToBuffer(ByteBuffer.wrap(snapshot))
+                }
+                when (preFrame.disposalMethod) {
+                    2 -> preFrame.dispose(canvas, 1, null)
+                    3 -> preFrame.dispose(canvas, 1, snapshot)
+                }
+            }
+            frame.composite(canvas, 1, background)
+        }
+    }
+
+    @Test
+    fun jvm() = renderAll { gif ->
+        val canvas = GifCanvas(gif.width, gif.height)
+        var snapshot = IntArray(canvas.pixels.size)
+        render(gif, canvas::erase) { index, preFrame, frame, background ->
+            if (index > 0) {
+                if (frame.disposalMethod == 3 && preFrame.disposalMethod != 3) {
+                    snapshot = canvas.pixels.copyOf()
+                }
+                when (preFrame.disposalMethod) {
+                    2 -> preFrame.dispose(canvas, 1, null)
+                    3 -> preFrame.dispose(canvas, 1, snapshot)
+                }
+            }
+            frame.composite(canvas, 1, background)
+        }
+    }
+
+    @Test
+    fun jvmOnBitmap() = renderAll { gif ->
+        val bitmap = Bitmap.createBitmap(gif.width, gif.height, Bitmap.Config.ARGB_8888)
+        val canvas = GifCanvas(gif.width, gif.height)
+        var snapshot = IntArray(canvas.pixels.size)
+        render(gif, canvas::erase) { index, preFrame, frame, background ->
+            if (index > 0) {
+                bitmap.copyPixelsToBuffer(IntBuffer.wrap(canvas.pixels))
+                if (frame.disposalMethod == 3 && preFrame.disposalMethod != 3) {
+                    snapshot = canvas.pixels.copyOf()
+                }
+                when (preFrame.disposalMethod) {
+                    2 -> preFrame.dispose(canvas, 1, null)
+                    3 -> preFrame.dispose(canvas, 1, snapshot)
+                }
+            }
+            frame.composite(canvas, 1, background)
+            bitmap.copyPixelsFromBuffer(IntBuffer.wrap(canvas.pixels))
+        }
+    }
+
+    /**
+     * Measures rendering all GIFs of the corpus, with the renderer [prepare] returns for each
+     */
+    private fun renderAll(prepare: (Gif) -> () -> Unit) {
+        val renderers = Corpus.names("gif").map { prepare(parse(Corpus.read(it))) }
+        assertTrue(renderers.isNotEmpty())
+        benchmarkRule.measureRepeated {
+            for (render in renderers) {
+                render()
+            }
+        }
+    }
+
+    /**
+     * Returns a renderer of all frames of [gif], erasing the canvas with [erase] before the first
+     * one and drawing each with [draw], given its index, the previous frame and its background
+     */
+    private fun render(
+        gif: Gif,
+        erase: (Int) -> Unit,
+        draw: (Int, GifFrame, GifFrame, Int) -> Unit
+    ): () -> Unit = {
+        gif.frames.forEachIndexed { index, frame ->
+            val background = if (frame.transparencyFlag()) 0 else gif.background
+            if (index == 0) {
+                erase(background)
+            }
+            draw(index, gif.frames[maxOf(0, index - 1)], frame, background)
+        }
+    }
+
+    /**
+     * Collects the frames of a GIF held in memory as GifDecoder.read does
+     */
+    private fun parse(data: ByteArray): Gif {
+        val reader = FilterReader(ByteBufferReader(ByteBuffer.wrap(data)))
+        var screen: LogicalScreenDescriptor? = null
+        var globalColorTable: ColorTable? = null
+        var graphicControlExtension: GraphicControlExtension? = null
+        val frames = mutableListOf<GifFrame>()
+        for (block in GifParser.parse(reader)) {
+            when (block) {
+                is LogicalScreenDescriptor -> screen = block
+                is ColorTable -> globalColorTable = block
+                is GraphicControlExtension -> graphicControlExtension = block
+                is ImageDescriptor ->
+                    frames += GifFrame(reader, globalColorTable, graphicControlExtension, block)
+            }
+        }
+        val logicalScreen = screen!!
+        val background = globalColorTable?.colorTable
+            ?.getOrNull(logicalScreen.bgColorIndex.toInt() and 0xff)
+            ?.takeIf { logicalScreen.gColorTableFlag() } ?: 0
+        return Gif(logicalScreen.screenWidth, logicalScreen.screenHeight, background, frames)
+    }
+
+    /**
+     * Returns a pixel, laid out like the colors of [ColorTable], as a color
+     */
+    private fun Int.toColor(): Int =
+        (this and 0xff00ff00.toInt()) or (this shr 16 and 0xff) or (this and 0xff shl 16)
+}
@@ -0,0 +1,58 @@
+package com.github.penfeizhou.animation.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.github.penfeizhou.animation.apng.decode.APNGParser
+import com.github.penfeizhou.animation.gif.decode.GifParser
+import com.github.penfeizhou.animation.io.ByteBufferReader
+import com.github.penfeizhou.animation.io.FilterReader
+import com.github.penfeizhou.animation.io.Reader
+import com.github.penfeizhou.animation.webp.decode.WebPParser
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.nio.ByteBuffer
+
+/**
+ * Parses every file of a format in the corpus, through the bulk reads of the readers and through
+ * [ByteAtATimeReader], which reads like the parsers did before.
+ */
+@RunWith(AndroidJUnit4::class)
+class ParserBenchmark {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun gifBulk() = parseAll("gif", bulk = true) { GifParser.parse(it).size }
+
+    @Test
+    fun gifByteAtATime() = parseAll("gif", bulk = false) { GifParser.parse(it).size }
+
+    @Test
+    fun webpBulk() = parseAll("webp", bulk = true) { WebPParser.parse(it).size }
+
+    @Test
+    fun webpByteAtATime() = parseAll("webp", bulk = false) { WebPParser.parse(it).size }
+
+    // isAPNG walks the chunks with the parser of parse(), through every chunk of a static PNG
+    @Test
+    fun pngBulk() = parseAll("png", bulk = true) { if (APNGParser.isAPNG(it)) 1 else 0 }
+
+    @Test
+    fun pngByteAtATime() = parseAll("png", bulk = false) { if (APNGParser.isAPNG(it)) 1 else 0 }
+
+    private fun parseAll(extension: String, bulk: Boolean, parse: (FilterReader) -> Int) {
+        val files = Corpus.names(extension).map { ByteBuffer.wrap(Corpus.read(it)) }
+        assertTrue(files.isNotEmpty())
+        var parsed = 0
+        benchmarkRule.measureRepeated {
+            for (file in files) {
+                val reader: Reader = ByteBufferReader(file)
+                parsed += parse(FilterReader(if (bulk) reader else ByteAtATimeReader(reader)))
+            }
+        }
+        assertTrue(parsed > 0)
+    }
+}
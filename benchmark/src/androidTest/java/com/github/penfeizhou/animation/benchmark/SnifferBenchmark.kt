@@ -0,0 +1,87 @@
+package com.github.penfeizhou.animation.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.bumptech.glide.load.Options
+import com.bumptech.glide.load.engine.bitmap_recycle.LruArrayPool
+import com.github.penfeizhou.animation.apng.decode.APNGParser
+import com.github.penfeizhou.animation.gif.decode.GifParser
+import com.github.penfeizhou.animation.glide.ByteBufferAnimationDecoder
+import com.github.penfeizhou.animation.glide.StreamAnimationDecoder
+import com.github.penfeizhou.animation.io.ByteBufferReader
+import com.github.penfeizhou.animation.webp.decode.WebPParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
+import java.nio.ByteBuffer
+
+/**
+ * Asks the Glide decoders whether they handle each file of the corpus, animated or not, and
+ * compares with the checks handles() ran before the sniffer.
+ */
+@RunWith(AndroidJUnit4::class)
+class SnifferBenchmark {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val files = Corpus.names("gif", "png", "webp").map(Corpus::read)
+    private val options = Options()
+
+    @Test
+    fun byteBufferHandles() {
+        val decoder = ByteBufferAnimationDecoder()
+        val expected = files.count { legacyHandles(ByteBuffer.wrap(it)) }
+        var handled = 0
+        benchmarkRule.measureRepeated {
+            handled = 0
+            for (file in files) {
+                // A new buffer each time, so that nothing sniffed before is recalled
+                if (decoder.handles(ByteBuffer.wrap(file), options)) {
+                    handled++
+                }
+            }
+        }
+        assertEquals(expected, handled)
+    }
+
+    @Test
+    fun streamHandles() {
+        val decoder = StreamAnimationDecoder(ByteBufferAnimationDecoder(), LruArrayPool())
+        var handled = 0
+        benchmarkRule.measureRepeated {
+            handled = 0
+            for (file in files) {
+                if (decoder.handles(ByteArrayInputStream(file), options)) {
+                    handled++
+                }
+            }
+        }
+        assertEquals(files.count { legacyHandles(ByteBuffer.wrap(it)) }, handled)
+    }
+
+    /**
+     * What handles() ran before the sniffer, and decode() ran again
+     */
+    @Test
+    fun legacyHandles() {
+        var handled = 0
+        benchmarkRule.measureRepeated {
+            handled = 0
+            for (file in files) {
+                if (legacyHandles(ByteBuffer.wrap(file))) {
+                    handled++
+                }
+            }
+        }
+        assertTrue(handled > 0)
+    }
+
+    private fun legacyHandles(source: ByteBuffer): Boolean =
+        WebPParser.isAWebP(ByteBufferReader(source)) ||
+            APNGParser.isAPNG(ByteBufferReader(source)) ||
+            GifParser.isGif(ByteBufferReader(source))
+}
@@ -9,13 +9,16 @@ import android.graphics.Matrix
 import android.graphics.Paint
 import android.graphics.PaintFlagsDrawFilter
 import android.graphics.PixelFormat
+import android.graphics.Rect
 import android.graphics.drawable.Drawable
 import android.os.Handler
 import android.os.Looper
 import android.util.Log
 import androidx.vectordrawable.graphics.drawable.Animatable2Compat
+import com.github.penfeizhou.animation.decode.AnimationClock
 import com.github.penfeizhou.animation.decode.BaseFrameSeqDecoder
 import com.github.penfeizhou.animation.decode.FrameSeqDecoder2
+import com.github.penfeizhou.animation.decode.RegionCopier
 import com.github.penfeizhou.animation.decode.RenderListener
 import java.lang.ref.WeakReference
 import java.nio.ByteBuffer
@@ -31,10 +34,35 @@ abstract class FrameAnimationDrawable(
     private val matrix = Matrix()
     private val animationCallbacks = mutableSetOf<Animatable2Compat.AnimationCallback>()
 
+    /**
+     * The frame the decoder renders into in [BaseFrameSeqDecoder.RenderMode.BYTE_BUFFER]. Created
+     * on the worker thread when null, cleared on the main thread when the sample size changed.
+     */
+    @Volatile
     private var bitmap: Bitmap? = null
     private val unrecycledBitmap: Bitmap?
         get() = bitmap?.takeUnless { it.isRecycled }
 
+    /**
+     * The frame of the previous sample size, drawn until [bitmap] holds a frame of the new one
+     */
+    private var staleBitmap: Bitmap? = null
+    private var matrixWidth = 0
+    private var matrixHeight = 0
+
+    /**
+     * The latest frame published by the decoder in [BaseFrameSeqDecoder.RenderMode.BITMAP]
+     */
+    @Volatile
+    private var publishedBitmap: Bitmap? = null
+
+    /**
+     * False when [bitmap] missed a frame and the next one must be copied in full
+     */
+    @Volatile
+    private var bitmapInSync = false
+    private val regionCopier = RegionCopier()
+
     private val invalidateRunnable = Runnable { invalidateSelf() }
     private var autoPlay = true
     private val obtainedCallbacks: MutableSet<WeakReference<Callback?>> = HashSet()
@@ -69,8 +97,14 @@ abstract class FrameAnimationDrawable(
             if (!isRunning) {
                 return
             }
-            val bitmap = unrecycledBitmap ?: frameSeqDecoder.createBitmap()
-            this@FrameAnimationDrawable.bitmap = bitmap
+            val bitmap = unrecycledBitmap ?: frameSeqDecoder.createBitmap().also {
+                this@FrameAnimationDrawable.bitmap = it
+            }
+            if (!frameSeqDecoder.fits(bitmap)) {
+                // Still on screen, until the main thread replaces it in onSampleSizeChanged
+                bitmapInSync = false
+                return
+            }
 
             byteBuffer.rewind()
             if (byteBuffer.remaining() < bitmap.byteCount) {
@@ -78,7 +112,50 @@ abstract class FrameAnimationDrawable(
                 return
             }
             bitmap.copyPixelsFromBuffer(byteBuffer)
-            uiHandler.post(invalidateRunnable)
+            bitmapInSync = true
+            AnimationClock.invalidate(invalidateRunnable)
+        }
+
+        override fun onRender(byteBuffer: ByteBuffer, damage: Rect) {
+            if (!isRunning) {
+                bitmapInSync = false
+                return
+            }
+            val bitmap = unrecycledBitmap
+            if (bitmap == null || !bitmapInSync || !frameSeqDecoder.fits(bitmap)) {
+                onRender(byteBuffer)
+                return
+            }
+            byteBuffer.rewind()
+            if (byteBuffer.remaining() < bitmap.byteCount) {
+                Log.e(TAG, "onRender:Buffer not large enough for pixels")
+                return
+            }
+            // Only the damaged region is uploaded; the drawable is still invalidated as a whole
+            regionCopier.copyFromBuffer(byteBuffer, bitmap, damage)
+            AnimationClock.invalidate(invalidateRunnable)
+        }
+
+        override fun onRender(bitmap: Bitmap) {
+            if (!isRunning) {
+                return
+            }
+            publishedBitmap = bitmap
+            AnimationClock.invalidate(invalidateRunnable)
+        }
+
+        override fun onSampleSizeChanged(sampleSize: Int) {
+            uiHandler.post {
+                val bitmap = bitmap ?: return@post
+                if (frameSeqDecoder.fits(bitmap, sampleSize)) {
+                    return@post
+                }
+                // Drawn until a frame of the new size arrives, see draw
+                bitmapInSync = false
+                staleBitmap?.recycle()
+                staleBitmap = bitmap
+                this@FrameAnimationDrawable.bitmap = null
+            }
         }
     }
 
@@ -101,6 +178,8 @@ abstract class FrameAnimationDrawable(
 
     fun reset() {
         unrecycledBitmap?.eraseColor(Color.TRANSPARENT)
+        bitmapInSync = false
+        publishedBitmap = null
         frameSeqDecoder.reset()
     }
 
@@ -133,6 +212,8 @@ abstract class FrameAnimationDrawable(
             Log.d(TAG, "$this,stop")
         }
         frameSeqDecoder.removeRenderListener(renderListener)
+        // Frames published while detached are missed
+        bitmapInSync = false
         if (autoPlay) {
             frameSeqDecoder.stop()
         } else {
@@ -143,7 +224,10 @@ abstract class FrameAnimationDrawable(
     override fun isRunning(): Boolean = frameSeqDecoder.isRunning
 
     override fun draw(canvas: Canvas) {
-        val bitmap = unrecycledBitmap ?: return
+        val bitmap = publishedBitmap?.takeUnless { it.isRecycled } ?: renderedBitmap() ?: return
+        if (bitmap.width != matrixWidth || bitmap.height != matrixHeight) {
+            updateMatrix(bitmap.width, bitmap.height)
+        }
         canvas.drawFilter = drawFilter
         canvas.drawBitmap(bitmap, matrix, paint)
     }
@@ -151,17 +235,33 @@ abstract class FrameAnimationDrawable(
     override fun setBounds(left: Int, top: Int, right: Int, bottom: Int) {
         super.setBounds(left, top, right, bottom)
 
-        val isSampleSizeChanged = frameSeqDecoder.setDesiredSize(bounds.width(), bounds.height())
-        val sampleSize = frameSeqDecoder.sampleSize
-        val viewport = frameSeqDecoder.getViewport()
-        matrix.setScale(
-            1.0f * bounds.width() * sampleSize / viewport.width,
-            1.0f * bounds.height() * sampleSize / viewport.height
-        )
-        if (isSampleSizeChanged) {
-            bitmap?.recycle()
-            bitmap = frameSeqDecoder.createBitmap()
+        // A changed sample size reaches the frames through onSampleSizeChanged
+        frameSeqDecoder.setDesiredSize(bounds.width(), bounds.height())
+        matrixWidth = 0
+        matrixHeight = 0
+    }
+
+    /**
+     * The frame rendered into [bitmap], or the one of the previous sample size until then
+     */
+    private fun renderedBitmap(): Bitmap? {
+        val bitmap = unrecycledBitmap
+        val staleBitmap = staleBitmap ?: return bitmap
+        if (bitmap == null || !bitmapInSync) {
+            return staleBitmap.takeUnless { it.isRecycled } ?: bitmap
         }
+        staleBitmap.recycle()
+        this.staleBitmap = null
+        return bitmap
+    }
+
+    /**
+     * Scales frames of [width] x [height] to the bounds, frames of any sample size included
+     */
+    private fun updateMatrix(width: Int, height: Int) {
+        matrix.setScale(1.0f * bounds.width() / width, 1.0f * bounds.height() / height)
+        matrixWidth = width
+        matrixHeight = height
     }
 
     override fun setAlpha(alpha: Int) {
@@ -232,6 +332,10 @@ abstract class FrameAnimationDrawable(
     companion object {
         private val TAG = FrameAnimationDrawable::class.java.simpleName
 
+        private fun FrameSeqDecoder2.fits(bitmap: Bitmap, sampleSize: Int = this.sampleSize) =
+            bitmap.width == getViewport().width / sampleSize &&
+                bitmap.height == getViewport().height / sampleSize
+
         private fun FrameSeqDecoder2.createBitmap(): Bitmap {
             val viewport = getViewport()
             return Bitmap.createBitmap(
@@ -0,0 +1,128 @@
+package com.github.penfeizhou.animation.decode
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.view.Choreographer
+
+/**
+ * The clock shared by all decoders, driven by [Choreographer] frame callbacks on the main thread.
+ *
+ * On each vsync, the [FrameLooper]s whose next frame is due are dispatched to their workers in
+ * one batch, and the invalidations requested since the previous vsync are run together, within
+ * the same frame. The clock only asks for frame callbacks while something is pending.
+ *
+ * Decoding is therefore paced by the main thread: while it is blocked, no frame is dispatched,
+ * and animations resume from the next vsync with late frames restarting the timing, see
+ * [FrameLooper].
+ */
+internal object AnimationClock : Choreographer.FrameCallback {
+    /**
+     * A frame is dispatched on the vsync closest to its deadline
+     */
+    const val DISPATCH_AHEAD_MS = 8L
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    // All fields are guarded by this
+    private val loopers = mutableSetOf<FrameLooper>()
+    private val invalidations = LinkedHashSet<Runnable>()
+    private var requestedFrameTime = Long.MAX_VALUE
+
+    private val dueLoopers = ArrayList<FrameLooper>()
+    private val dueInvalidations = ArrayList<Runnable>()
+
+    /**
+     * Posts the frame callback requested off the main thread. It reads [requestedFrameTime] when
+     * it runs rather than when it was posted: a [doFrame] in between may have requested an earlier
+     * frame, or already served the request.
+     */
+    private val postRequestedFrame = Runnable {
+        synchronized(this) {
+            if (requestedFrameTime != Long.MAX_VALUE) {
+                postFrameCallback(requestedFrameTime)
+            }
+        }
+    }
+
+    /**
+     * Dispatches [looper] on the vsync closest to [FrameLooper.deadline].
+     */
+    fun schedule(looper: FrameLooper) = synchronized(this) {
+        loopers.add(looper)
+        requestFrame(looper.deadline - DISPATCH_AHEAD_MS)
+    }
+
+    fun cancel(looper: FrameLooper) = synchronized(this) {
+        loopers.remove(looper)
+    }
+
+    /**
+     * Runs [task] on the main thread in the next frame. Pending requests of the same task are
+     * coalesced.
+     */
+    fun invalidate(task: Runnable) = synchronized(this) {
+        invalidations.add(task)
+        requestFrame(0)
+    }
+
+    /**
+     * Makes sure a frame callback runs no later than [frameTime], in
+     * [SystemClock.uptimeMillis].
+     */
+    private fun requestFrame(frameTime: Long) {
+        if (frameTime >= requestedFrameTime) {
+            return
+        }
+        requestedFrameTime = frameTime
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback(frameTime)
+        } else {
+            mainHandler.post(postRequestedFrame)
+        }
+    }
+
+    private fun postFrameCallback(frameTime: Long) {
+        val choreographer = Choreographer.getInstance()
+        choreographer.removeFrameCallback(this)
+        val delay = frameTime - SystemClock.uptimeMillis()
+        if (delay > 0) {
+            choreographer.postFrameCallbackDelayed(this, delay)
+        } else {
+            choreographer.postFrameCallback(this)
+        }
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        // Frame times are in the System.nanoTime() time base, as SystemClock.uptimeMillis()
+        val frameTime = frameTimeNanos / 1_000_000
+        synchronized(this) {
+            requestedFrameTime = Long.MAX_VALUE
+            var nextDeadline = Long.MAX_VALUE
+            val iterator = loopers.iterator()
+            while (iterator.hasNext()) {
+                val looper = iterator.next()
+                if (looper.deadline - DISPATCH_AHEAD_MS <= frameTime) {
+                    iterator.remove()
+                    dueLoopers.add(looper)
+                } else {
+                    nextDeadline = minOf(nextDeadline, looper.deadline)
+                }
+            }
+            dueInvalidations.addAll(invalidations)
+            invalidations.clear()
+            if (nextDeadline != Long.MAX_VALUE) {
+                requestFrame(nextDeadline - DISPATCH_AHEAD_MS)
+            }
+        }
+
+        for (looper in dueLoopers) {
+            looper.dispatch()
+        }
+        dueLoopers.clear()
+        for (task in dueInvalidations) {
+            task.run()
+        }
+        dueInvalidations.clear()
+    }
+}
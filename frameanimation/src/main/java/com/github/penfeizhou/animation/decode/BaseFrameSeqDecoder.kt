@@ -2,11 +2,21 @@ package com.github.penfeizhou.animation.decode
 
 import android.graphics.Bitmap
 import android.graphics.Canvas
+import android.graphics.Rect
+import android.os.SystemClock
 import android.util.Log
 import android.util.Size
+import androidx.annotation.IntRange
 import androidx.annotation.WorkerThread
 import com.github.penfeizhou.animation.io.FilterReader
+import com.github.penfeizhou.animation.io.IncompleteSourceException
 import com.github.penfeizhou.animation.loader.Loader
+import com.github.penfeizhou.animation.loader.ProgressiveLoader
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.util.WeakHashMap
@@ -17,8 +27,109 @@ abstract class BaseFrameSeqDecoder(
     protected val loader: Loader,
     private val currentTimeProvider: () -> Long = System::currentTimeMillis
 ) {
+    /**
+     * A copy of [canvasBitmap] handed to listeners in [RenderMode.BYTE_BUFFER]
+     */
     private var frameBuffer: ByteBuffer? = null
 
+    /**
+     * The persistent composited canvas. Frames are drawn onto it in every render mode.
+     */
+    private var canvasBitmap: Bitmap? = null
+    private var bitmapRing: BitmapRing? = null
+
+    /**
+     * Keeps [frameBuffer] in sync with [canvasBitmap] by copying only damaged regions
+     */
+    private val regionCopier = RegionCopier()
+
+    /**
+     * The canvas area changed since a frame was last handed out, in canvas coordinates
+     */
+    private val damage = Rect()
+
+    /**
+     * The canvas area changed by the last step, and scratch bounds to compute it
+     */
+    private val stepDamage = Rect()
+    private val frameBounds = Rect()
+
+    /**
+     * When false, every frame damages the whole canvas, as if the area it changes were unknown.
+     * Only meant for measuring what damage tracking saves, see [copiedBytes].
+     */
+    @Volatile
+    var damageTracking = true
+
+    /**
+     * How composited frames are kept and handed to [RenderListener]s.
+     * A change takes effect the next time the decoder is initialized, e.g. on the next start after
+     * a stop.
+     */
+    @Volatile
+    var renderMode: RenderMode = RenderMode.BYTE_BUFFER
+
+    /**
+     * Frames composited ahead of their presentation time, null if lookahead is disabled
+     */
+    private var frameQueue: FrameQueue? = null
+    private val fillQueueTask = Runnable { fillQueue() }
+
+    /**
+     * How frames are timed when decoding cannot keep up, see [Pacing]
+     */
+    @Volatile
+    var pacing: Pacing = Pacing.SEQUENTIAL
+
+    /**
+     * When the next frame is due, in [SystemClock.uptimeMillis], 0 until the playback starts
+     */
+    private var timelineTime = 0L
+
+    /**
+     * The number of frames skipped by [Pacing.WALL_CLOCK] since the decoder was created
+     */
+    @Volatile
+    var droppedFrames: Int = 0
+        private set
+
+    /**
+     * The number of frames presented later than [LATE_THRESHOLD_MS] after they were due since the
+     * decoder was created
+     */
+    @Volatile
+    var lateFrames: Int = 0
+        private set
+
+    /**
+     * Receives the measurements of this decoder, [DecoderRegistry.metrics] when null
+     */
+    @Volatile
+    var metrics: DecoderMetrics? = null
+
+    private val stats = StatsRecorder()
+
+    /**
+     * Render time of the frame being composited, 0 if it was restored from [FrameCache]
+     */
+    private var lastRenderNanos = 0L
+
+    @Volatile
+    private var lookaheadFrames = 0
+
+    @Volatile
+    private var lookaheadBytes = DEFAULT_LOOKAHEAD_BYTES
+
+    /**
+     * Restore points for seeking. It outlives a stop so that repeated
+     * [FrameSeqDecoder2.getFrameBitmap] calls reuse it, and is rebuilt when the sample size
+     * changes.
+     */
+    private var seekIndex: SeekIndex? = null
+
+    @Volatile
+    private var seekIndexBytes = DEFAULT_SEEK_INDEX_BYTES
+
     // TODO: Remove this
     val currentFrameBuffer: ByteBuffer?
         get() = frameBuffer
@@ -31,7 +142,14 @@ abstract class BaseFrameSeqDecoder(
 
     internal val frameLooper = FrameLooper(::onFrame)
 
-    private val bitmapPool = BitmapPool()
+    @Volatile
+    private var bitmapPool = BitmapPool()
+
+    /**
+     * False when [bitmapPool] is shared with other decoders and must outlive this one
+     */
+    private var ownsBitmapPool = true
+
     private val bitmapReaderManager = BitmapReaderManager(loader)
 
     private val cachedCanvas: MutableMap<Bitmap, Canvas> = WeakHashMap()
@@ -60,11 +178,77 @@ abstract class BaseFrameSeqDecoder(
     @Volatile
     private var imageInfo: ImageInfo? = null
 
+    /**
+     * The canvas size read from the header by [probeViewport], until [imageInfo] is parsed
+     */
+    @Volatile
+    private var probedViewport: Size? = null
+
     val frameCount: Int
         get() = imageInfo?.frames?.size ?: 0
 
     internal var sampleSize = 1
 
+    /**
+     * The smallest sample size allowed by [MemoryGovernor], 1 unless memory was released by
+     * raising the sample size. It is reset by [stop] and once the memory pressure ends.
+     */
+    @Volatile
+    internal var sampleSizeFloor = 1
+
+    /**
+     * The sample size last asked for by the drawable, regardless of [sampleSizeFloor]
+     */
+    @Volatile
+    internal var desiredSampleSize = 1
+
+    /**
+     * When a frame of this decoder was last published, in [SystemClock.uptimeMillis]
+     */
+    @Volatile
+    internal var lastVisibleTime = 0L
+
+    /**
+     * How long the frame last published is shown
+     */
+    @Volatile
+    private var lastFrameDuration = 0L
+
+    /**
+     * Identity of the source for sharing frames through [FrameCache], null if it is unknown
+     */
+    private var sourceId: String? = null
+
+    /**
+     * Key of the source in [FrameIndexCache], null until it is known
+     */
+    private var indexKey: String? = null
+
+    /**
+     * True while the source of a [ProgressiveLoader] is still arriving, so that the frames parsed
+     * so far are not all of them
+     */
+    @Volatile
+    private var awaitingData = false
+
+    /**
+     * True while the playback waits at the last arrived frame
+     */
+    private var holding = false
+
+    /**
+     * Bytes of a progressive source arrived at the last parse
+     */
+    private var parsedSize = 0
+
+    /**
+     * Where parsing a progressive source stopped, null if the decoder parses it from the start
+     * each time or nothing was parsed yet
+     */
+    private var parseState: ParseState? = null
+    private val dataArrivedTask = Runnable { onDataArrived() }
+    private val dataListener = Runnable { frameLooper.post(dataArrivedTask) }
+
     val isRunning: Boolean
         get() = state == State.RUNNING || state == State.INITIALIZING
 
@@ -75,7 +259,33 @@ abstract class BaseFrameSeqDecoder(
             ""
         }
 
+    init {
+        DecoderRegistry.register(this)
+    }
+
+    /**
+     * Returns the canvas size. If the source is not parsed yet, the size is read from the header
+     * only and the source is parsed on the worker thread in the background. The caller only waits
+     * for the whole parse when the header cannot be probed.
+     */
     fun getViewport(): Size {
+        imageInfo?.let { return it.viewport }
+        probedViewport?.let { return it }
+        val probed = probeViewport()
+        if (probed != null) {
+            probedViewport = probed
+            frameLooper.ensureWorkerExecute {
+                try {
+                    if (imageInfo == null) {
+                        initCanvasBounds()
+                    }
+                } catch (e: IOException) {
+                    e.printStackTrace()
+                    imageInfo = ImageInfo.EMPTY
+                }
+            }
+            return probed
+        }
         if (imageInfo == null) {
             if (state == State.FINISHING) {
                 Log.e(TAG, "$debugInfo in finishing. Do not interrupt")
@@ -102,8 +312,8 @@ abstract class BaseFrameSeqDecoder(
     /**
      * Obtains a bitmap with size [width] x [height] with [Bitmap.Config.ARGB_8888] config.
      *
-     * First, try to reuse a bitmap from the pool. If there is no bitmap in the pool which has size
-     * equal or larger than [width]x[height], create a new bitmap.
+     * First, try to reuse the smallest bitmap from the pool which fits [width]x[height]. If there
+     * is none, create a new bitmap.
      * Return null if either [width] or [height] is invalid (<= 0)
      */
     protected fun obtainBitmap(width: Int, height: Int): Bitmap? = bitmapPool.obtain(width, height)
@@ -115,7 +325,6 @@ abstract class BaseFrameSeqDecoder(
 
     @WorkerThread
     private fun onFrame() {
-        println("Frame ${Thread.currentThread().name}")
         if (DEBUG) {
             Log.d(TAG, "$this#run")
         }
@@ -124,21 +333,199 @@ abstract class BaseFrameSeqDecoder(
             return
         }
 
-        if (!canStep()) {
-            stop()
+        val now = SystemClock.uptimeMillis()
+        if (timelineTime == 0L) {
+            timelineTime = now
+        }
+        if (pacing == Pacing.WALL_CLOCK) {
+            dropLateFrames(now)
+        }
+
+        val frameQueue = frameQueue
+        // Prefer a frame decoded ahead, fall back to decoding on time when the queue runs dry
+        val queuedFrame = frameQueue?.poll()
+        if (queuedFrame == null && !canStep()) {
+            if (awaitingData) {
+                // Continued by onDataArrived
+                holding = true
+            } else {
+                stop()
+            }
             return
         }
+        val lateMillis = now - timelineTime
+        if (lateMillis >= LATE_THRESHOLD_MS) {
+            lateFrames++
+            val index = queuedFrame?.index ?: (frameIndex + 1) % frameCount
+            (metrics ?: DecoderRegistry.metrics)?.onFrameLate(this, index, lateMillis)
+        }
 
         val start = currentTimeProvider.invoke()
-        val delay = step()
+        val delay = queuedFrame?.duration ?: step()
         val cost = currentTimeProvider.invoke() - start
 
         // Schedule next frame
-        frameLooper.schedule(delay - cost)
+        if (pacing == Pacing.WALL_CLOCK) {
+            timelineTime += delay
+            frameLooper.scheduleAt(timelineTime)
+        } else {
+            timelineTime = maxOf(timelineTime, now) + delay
+            frameLooper.schedule(delay - cost)
+        }
+
+        lastVisibleTime = SystemClock.uptimeMillis()
+        lastFrameDuration = delay
+        if (queuedFrame != null) {
+            publish(queuedFrame.buffer, queuedFrame.damage)
+            frameQueue?.recycle(queuedFrame)
+        } else {
+            publishCanvas()
+        }
+
+        if (frameQueue != null) {
+            frameLooper.post(fillQueueTask)
+        }
+    }
+
+    /**
+     * Skips the frames whose whole presentation time has already passed, so that the next frame
+     * presented is the one due [now]. Queued frames are simply discarded. Beyond the queue, the
+     * canvas seeks ahead, which only composites frames after the nearest restore point.
+     */
+    @WorkerThread
+    private fun dropLateFrames(now: Long) {
+        val frames = imageInfo?.frames ?: return
+        // Frames still arriving cannot be skipped to
+        if (frames.isEmpty() || awaitingData) {
+            return
+        }
+        val frameQueue = frameQueue
+        var next = frameQueue?.peek()?.index ?: (frameIndex + 1)
+        var skip = 0
+        val droppedBefore = droppedFrames
+        while (skip < frames.size) {
+            if (next >= frames.size) {
+                next = 0
+            }
+            val duration = frames[next].duration
+            if (now < timelineTime + duration) {
+                break
+            }
+            timelineTime += duration
+            skip++
+            next++
+        }
+        if (skip >= frames.size) {
+            // More than a whole loop behind, e.g. after a stall: start over from now
+            timelineTime = now
+        }
+
+        while (skip > 0 && frameQueue != null) {
+            val dropped = frameQueue.poll() ?: break
+            // Whatever presents next must also cover what the dropped frame changed
+            (frameQueue.peek()?.damage ?: damage).union(dropped.damage)
+            frameQueue.recycle(dropped)
+            droppedFrames++
+            skip--
+        }
+        if (skip > 0) {
+            seekAhead(frames.size, skip)
+        }
+        if (droppedFrames > droppedBefore) {
+            (metrics ?: DecoderRegistry.metrics)
+                ?.onFramesDropped(this, droppedFrames - droppedBefore)
+        }
+    }
+
+    /**
+     * Seeks the canvas [count] frames ahead, except past the last frame of the last loop.
+     */
+    @WorkerThread
+    private fun seekAhead(frameCount: Int, count: Int) {
+        var skip = count
+        // Keep the last frame of the last loop for presenting
+        val numPlays = numPlays
+        if (numPlays > 0) {
+            val remaining =
+                (numPlays - 1 - playCount) * frameCount + (frameCount - 1 - frameIndex)
+            skip = minOf(skip, remaining - 1)
+        }
+        if (skip <= 0) {
+            return
+        }
+        var target = frameIndex + skip
+        while (target >= frameCount) {
+            target -= frameCount
+            playCount++
+        }
+        seekFrame(target, recordCursor = false)
+        droppedFrames += skip
+    }
+
+    @WorkerThread
+    private fun publishCanvas() {
+        val canvasBitmap = canvasBitmap ?: return
+        val bitmapRing = bitmapRing
+        if (bitmapRing != null) {
+            val start = System.nanoTime()
+            val published = bitmapRing.publish(canvasBitmap, damage)
+            stats.copyNanos += System.nanoTime() - start
+            for (listener in renderListeners) {
+                listener.onRender(published, damage)
+            }
+        } else {
+            val frameBuffer = frameBuffer ?: return
+            publish(frameBuffer, damage)
+        }
+        damage.setEmpty()
+    }
+
+    /**
+     * Publishes [buffer], a composited canvas where only [damage] changed since the previous
+     * publish.
+     */
+    @WorkerThread
+    private fun publish(buffer: ByteBuffer, damage: Rect) {
+        val bitmapRing = bitmapRing
+        if (bitmapRing != null) {
+            val start = System.nanoTime()
+            val published = bitmapRing.publish(buffer, damage)
+            stats.copyNanos += System.nanoTime() - start
+            for (listener in renderListeners) {
+                listener.onRender(published, damage)
+            }
+            return
+        }
 
-        val frameBuffer = frameBuffer ?: return
         for (listener in renderListeners) {
-            listener.onRender(frameBuffer)
+            listener.onRender(buffer, damage)
+        }
+    }
+
+    /**
+     * Composites the next frame into the lookahead queue. Only one frame is decoded per call so
+     * that presenting a frame on time is never blocked by more than one decode.
+     */
+    @WorkerThread
+    private fun fillQueue() {
+        val frameQueue = frameQueue ?: return
+        if (paused.get() || frameQueue.isFull || !canStep()) {
+            return
+        }
+        val duration = step()
+        val entry = frameQueue.obtain()
+        entry.index = frameIndex
+        entry.duration = duration
+        entry.damage.set(damage)
+        damage.setEmpty()
+        val start = System.nanoTime()
+        entry.buffer.rewind()
+        canvasBitmap?.copyPixelsToBuffer(entry.buffer)
+        stats.copyNanos += System.nanoTime() - start
+        frameQueue.offer(entry)
+
+        if (!frameQueue.isFull) {
+            frameLooper.post(fillQueueTask)
         }
     }
 
@@ -146,6 +533,10 @@ abstract class BaseFrameSeqDecoder(
         if (!isRunning || frameCount == 0) {
             return false
         }
+        if (awaitingData && frameIndex >= frameCount - 1) {
+            // The next frame has not arrived yet
+            return false
+        }
         val numPlays = numPlays
         if (numPlays <= 0) {
             return true
@@ -173,12 +564,70 @@ abstract class BaseFrameSeqDecoder(
         }
 
         val frame = getFrame(frameIndex) ?: return 0
-        val frameBuffer = frameBuffer ?: return 0
         val imageInfo = imageInfo ?: return 0
-        renderFrame(imageInfo, frame, frameBuffer, sampleSize)
+        composite(imageInfo, frame)
         return frame.duration.toLong()
     }
 
+    /**
+     * Composites [frame] onto [canvasBitmap] and copies the changed area into [frameBuffer] in
+     * [RenderMode.BYTE_BUFFER].
+     */
+    @WorkerThread
+    private fun composite(imageInfo: ImageInfo, frame: Frame) {
+        val canvasBitmap = canvasBitmap ?: return
+        val start = System.nanoTime()
+        computeStepDamage(imageInfo, frame, canvasBitmap)
+        lastRenderNanos = 0
+        if (renderOrRestoreFrame(imageInfo, frame, canvasBitmap)) {
+            stepDamage.set(0, 0, canvasBitmap.width, canvasBitmap.height)
+        }
+        damage.union(stepDamage)
+        val copyStart = System.nanoTime()
+        frameBuffer?.let { regionCopier.copyToBuffer(canvasBitmap, it, stepDamage) }
+        val end = System.nanoTime()
+        stats.recordComposite(end - start, end - copyStart)
+        (metrics ?: DecoderRegistry.metrics)?.onFrameComposited(
+            this,
+            frameIndex,
+            lastRenderNanos,
+            end - start,
+            end - copyStart
+        )
+    }
+
+    /**
+     * Sets [stepDamage] to the area [frame] may change: its own bounds and the bounds of the
+     * previous frame, which it disposes.
+     */
+    private fun computeStepDamage(imageInfo: ImageInfo, frame: Frame, canvasBitmap: Bitmap) {
+        val preFrame = imageInfo.frames.getOrNull(frameIndex - 1)
+        if (preFrame == null || !damageTracking || isFullRedraw(imageInfo, frameIndex)) {
+            stepDamage.set(0, 0, canvasBitmap.width, canvasBitmap.height)
+            return
+        }
+        frame.getBounds(sampleSize, stepDamage)
+        preFrame.getBounds(sampleSize, frameBounds)
+        stepDamage.union(frameBounds)
+        if (!stepDamage.intersect(0, 0, canvasBitmap.width, canvasBitmap.height)) {
+            stepDamage.setEmpty()
+        }
+    }
+
+    /**
+     * Returns true if rendering frame [index] may change pixels outside its own bounds and the
+     * bounds of the previous frame. Frame 0 is always fully redrawn.
+     */
+    protected open fun isFullRedraw(imageInfo: ImageInfo, index: Int): Boolean = index == 0
+
+    /**
+     * Marks the whole canvas as changed since a frame was last handed out.
+     */
+    private fun damageAll() {
+        val canvasBitmap = canvasBitmap ?: return
+        damage.set(0, 0, canvasBitmap.width, canvasBitmap.height)
+    }
+
     fun start() {
         if (imageInfo == ImageInfo.EMPTY) {
             return
@@ -208,6 +657,10 @@ abstract class BaseFrameSeqDecoder(
             } catch (e: IOException) {
                 e.printStackTrace()
             }
+        } else if (awaitingData) {
+            // Parsed before starting, catch up with what arrived since
+            (loader as? ProgressiveLoader)?.addListener(dataListener)
+            frameLooper.post(dataArrivedTask)
         }
         Log.i(
             TAG,
@@ -217,9 +670,12 @@ abstract class BaseFrameSeqDecoder(
             """.trimMargin()
         )
         state = State.RUNNING
+        lastVisibleTime = SystemClock.uptimeMillis()
+        MemoryGovernor.onAllocated(this)
 
         if (numPlays == 0 || !finished) {
             frameIndex = -1
+            timelineTime = 0
             frameLooper.schedule()
 
             for (listener in renderListeners) {
@@ -240,6 +696,7 @@ abstract class BaseFrameSeqDecoder(
         if (imageInfo == ImageInfo.EMPTY) {
             return
         }
+        sampleSizeFloor = 1
 
         if (state == State.FINISHING || state == State.IDLE) {
             Log.i(TAG, "$debugInfo no need to stop")
@@ -257,11 +714,26 @@ abstract class BaseFrameSeqDecoder(
     @WorkerThread
     internal fun innerStop() {
         frameLooper.stop()
+        frameLooper.cancel(fillQueueTask)
+        frameQueue = null
         imageInfo = null
-        bitmapPool.clear()
+        if (ownsBitmapPool) {
+            bitmapPool.clear()
+        }
         frameBuffer = null
+        canvasBitmap?.recycle()
+        canvasBitmap = null
+        bitmapRing?.clear()
+        bitmapRing = null
+        regionCopier.clear()
+        damage.setEmpty()
         cachedCanvas.clear()
         bitmapReaderManager.closeReader()
+        (loader as? ProgressiveLoader)?.removeListener(dataListener)
+        frameLooper.cancel(dataArrivedTask)
+        awaitingData = false
+        holding = false
+        parseState = null
         release()
 
         if (DEBUG) {
@@ -279,12 +751,14 @@ abstract class BaseFrameSeqDecoder(
 
     fun resume() {
         paused.set(false)
+        frameLooper.ensureWorkerExecute { timelineTime = 0 }
         frameLooper.stop()
         frameLooper.schedule()
     }
 
     fun pause() {
         frameLooper.stop()
+        frameLooper.cancel(fillQueueTask)
         paused.set(true)
     }
 
@@ -292,6 +766,36 @@ abstract class BaseFrameSeqDecoder(
         playCount = 0
         frameIndex = -1
         finished = false
+        timelineTime = 0
+        // Frames already handed out may be ahead of the canvas
+        frameQueue?.clear()
+        damageAll()
+    }
+
+    /**
+     * Decodes up to [frames] frames ahead of their presentation time, so that a slow frame does
+     * not delay the playback. The queue is further limited to [maxBytes] bytes of composited
+     * frames, which caps the lookahead of large canvases. 0 disables lookahead.
+     *
+     * A change takes effect the next time the decoder is initialized, e.g. on the next start after
+     * a stop.
+     */
+    fun setLookahead(frames: Int, maxBytes: Int = DEFAULT_LOOKAHEAD_BYTES) {
+        lookaheadFrames = frames.coerceAtLeast(0)
+        lookaheadBytes = maxBytes.coerceAtLeast(0)
+    }
+
+    /**
+     * Makes this decoder obtain and recycle bitmaps through [pool], which may be shared with other
+     * decoders. A shared pool is not cleared when the decoder stops. Null goes back to a private
+     * pool.
+     */
+    fun setBitmapPool(pool: BitmapPool?) = frameLooper.ensureWorkerExecute {
+        if (ownsBitmapPool) {
+            bitmapPool.clear()
+        }
+        bitmapPool = pool ?: BitmapPool()
+        ownsBitmapPool = pool == null
     }
 
     fun isPaused(): Boolean = paused.get()
@@ -302,11 +806,191 @@ abstract class BaseFrameSeqDecoder(
     fun removeRenderListener(listener: RenderListener) =
         frameLooper.ensureWorkerExecute { renderListeners.remove(listener) }
 
+    /**
+     * Sets the byte budget of the periodic snapshots recorded while seeking.
+     * A change takes effect the next time the seek index is built.
+     */
+    fun setSeekIndexBudget(maxBytes: Int) {
+        seekIndexBytes = maxBytes.coerceAtLeast(0)
+    }
+
+    /**
+     * Jumps to frame [index], publishes it and continues the playback from there.
+     */
+    fun seekTo(@IntRange(from = 0) index: Int) = frameLooper.ensureWorkerExecute {
+        if (imageInfo == null || index !in 0 until frameCount) {
+            return@ensureWorkerExecute
+        }
+        seekFrame(index)
+        publishCanvas()
+        if (state == State.RUNNING && !paused.get()) {
+            timelineTime = SystemClock.uptimeMillis() + (getFrame(index)?.duration ?: 0)
+            frameLooper.stop()
+            frameLooper.schedule(getFrame(index)?.duration?.toLong() ?: 0)
+        }
+    }
+
+    /**
+     * Composites frame [index] starting from the nearest restore point: the current frame, a
+     * recorded snapshot or a key frame, whichever is the latest at or before [index].
+     */
+    @WorkerThread
+    internal fun seekFrame(index: Int, recordCursor: Boolean = true) {
+        val imageInfo = imageInfo ?: return
+        val seekIndex = seekIndex ?: return
+        frameQueue?.clear()
+        damageAll()
+
+        val keyFrame = seekIndex.floorKeyFrame(index)
+        val snapshot = seekIndex.floorSnapshot(index)
+        val current = frameIndex
+        if (current !in 0..index || current < keyFrame || current < snapshot) {
+            if (snapshot >= keyFrame) {
+                val pixels = seekIndex.snapshotAt(snapshot) ?: return
+                writeCanvas(pixels)
+                prepareResume(imageInfo, snapshot, sampleSize)
+                frameIndex = snapshot
+            } else {
+                clearCanvas()
+                if (keyFrame > 0) {
+                    prepareResume(imageInfo, keyFrame - 1, sampleSize)
+                }
+                frameIndex = keyFrame - 1
+            }
+        }
+
+        while (frameIndex < index) {
+            step()
+            if (canResumeAfter(imageInfo, frameIndex)) {
+                seekIndex.bufferForRecord(frameIndex)?.let(::readCanvas)
+            }
+        }
+        if (recordCursor && canResumeAfter(imageInfo, index)) {
+            readCanvas(seekIndex.cursorBuffer(index))
+        }
+    }
+
+    /**
+     * Returns true if frame [index] renders the same onto a cleared canvas as onto the composited
+     * previous frames, once [prepareResume] has been called for the frame before it.
+     * Frame 0 is always a key frame.
+     */
+    protected open fun isKeyFrame(imageInfo: ImageInfo, index: Int): Boolean = index == 0
+
+    /**
+     * Returns true if the composited canvas after frame [index] is enough to continue rendering
+     * from the next frame, once [prepareResume] has been called.
+     */
+    protected open fun canResumeAfter(imageInfo: ImageInfo, index: Int): Boolean = false
+
+    /**
+     * Sets up the state kept between frames to continue rendering after frame [index], as if all
+     * frames up to [index] had been rendered.
+     */
+    @WorkerThread
+    protected open fun prepareResume(imageInfo: ImageInfo, index: Int, sampleSize: Int) = Unit
+
+    private fun createSeekIndex(imageInfo: ImageInfo): SeekIndex {
+        val keyFrames = (0 until imageInfo.frames.size)
+            .filter { isKeyFrame(imageInfo, it) }
+            .toIntArray()
+        return SeekIndex(
+            sampleSize = sampleSize,
+            frameCount = imageInfo.frames.size,
+            keyFrames = if (keyFrames.firstOrNull() == 0) keyFrames else intArrayOf(0) + keyFrames,
+            frameSizeBytes = frameSizeBytes(imageInfo),
+            maxBytes = seekIndexBytes
+        )
+    }
+
+    @WorkerThread
+    private fun writeCanvas(pixels: ByteBuffer) {
+        val canvasBitmap = canvasBitmap ?: return
+        pixels.rewind()
+        canvasBitmap.copyPixelsFromBuffer(pixels)
+        frameBuffer?.let {
+            pixels.rewind()
+            it.rewind()
+            it.put(pixels)
+        }
+        damageAll()
+    }
+
+    @WorkerThread
+    private fun readCanvas(pixels: ByteBuffer) {
+        pixels.rewind()
+        canvasBitmap?.copyPixelsToBuffer(pixels)
+    }
+
+    @WorkerThread
+    private fun clearCanvas() {
+        canvasBitmap?.eraseColor(0)
+        frameBuffer?.array()?.fill(0)
+        damageAll()
+    }
+
+    /**
+     * Takes the current frame from [FrameCache] if another decoder of the same source already
+     * composited it, otherwise renders it and shares the result.
+     * Returns true if the frame was restored, replacing the whole canvas.
+     */
+    @WorkerThread
+    private fun renderOrRestoreFrame(
+        imageInfo: ImageInfo,
+        frame: Frame,
+        canvasBitmap: Bitmap
+    ): Boolean {
+        val sourceId = sourceId
+        if (sourceId == null) {
+            measureRenderFrame(imageInfo, frame, canvasBitmap)
+            return false
+        }
+        val key = FrameCache.Key(sourceId, sampleSize, frameIndex)
+        val pixels = FrameCache.get(key)
+        if (pixels != null) {
+            restoreFrame(imageInfo, frame, canvasBitmap, sampleSize, pixels)
+            return true
+        }
+        measureRenderFrame(imageInfo, frame, canvasBitmap)
+        FrameCache.put(key, canvasBitmap)
+        return false
+    }
+
+    @WorkerThread
+    private fun measureRenderFrame(imageInfo: ImageInfo, frame: Frame, canvasBitmap: Bitmap) {
+        val start = System.nanoTime()
+        renderFrame(imageInfo, frame, canvasBitmap, sampleSize)
+        lastRenderNanos = System.nanoTime() - start
+        stats.recordRender(lastRenderNanos)
+    }
+
+    /**
+     * Replaces the content of [canvasBitmap] with the composited [pixels] of [frame] taken from
+     * [FrameCache], instead of rendering it.
+     *
+     * Decoders which keep state between frames, such as a snapshot for disposing to the previous
+     * frame, must update it here as [renderFrame] would, before calling super.
+     */
+    @WorkerThread
+    protected open fun restoreFrame(
+        imageInfo: ImageInfo,
+        frame: Frame,
+        canvasBitmap: Bitmap,
+        sampleSize: Int,
+        pixels: ByteBuffer
+    ) {
+        pixels.rewind()
+        canvasBitmap.copyPixelsFromBuffer(pixels)
+    }
+
+    /**
+     * Draws [frame] onto [canvasBitmap], which holds the composited result of the previous frames.
+     */
     @WorkerThread
     protected abstract fun renderFrame(
         imageInfo: ImageInfo,
         frame: Frame,
-        frameBuffer: ByteBuffer,
+        canvasBitmap: Bitmap,
         sampleSize: Int
     )
 
@@ -316,31 +1000,487 @@ abstract class BaseFrameSeqDecoder(
     @WorkerThread
     @Throws(IOException::class)
     internal fun initCanvasBounds() {
-        val imageInfo = read(bitmapReaderManager.getReader(), sampleSize)
+        sourceId = loader.sourceId
+        val start = System.nanoTime()
+        val reader = bitmapReaderManager.getReader()
+        val imageInfo = if (loader is ProgressiveLoader) {
+            readProgressive(loader, reader) ?: return
+        } else {
+            readIndexed(reader)
+        }
+        stats.parseNanos = System.nanoTime() - start
         this.imageInfo = imageInfo
-        val capacityBytes = (imageInfo.area / (sampleSize * sampleSize) + 1) * 4
-        frameBuffer = ByteBuffer.allocate(capacityBytes)
+        (metrics ?: DecoderRegistry.metrics)
+            ?.onParsed(this, imageInfo.frames.size, stats.parseNanos)
+        val width = imageInfo.viewport.width / sampleSize
+        val height = imageInfo.viewport.height / sampleSize
+        if (width > 0 && height > 0) {
+            canvasBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+            when (renderMode) {
+                RenderMode.BYTE_BUFFER ->
+                    frameBuffer = ByteBuffer.allocate(frameSizeBytes(imageInfo))
+                RenderMode.BITMAP -> bitmapRing = BitmapRing(width, height)
+            }
+            damageAll()
+        }
+        val frameSizeBytes = frameSizeBytes(imageInfo)
+        val capacity = FrameQueue.capacityOf(lookaheadFrames, lookaheadBytes, frameSizeBytes)
+        frameQueue = if (capacity > 0) FrameQueue(capacity, frameSizeBytes) else null
+        val seekIndex = seekIndex
+        if (seekIndex == null ||
+            seekIndex.sampleSize != sampleSize ||
+            seekIndex.frameCount != imageInfo.frames.size
+        ) {
+            this.seekIndex = createSeekIndex(imageInfo)
+        }
     }
 
+    private fun frameSizeBytes(imageInfo: ImageInfo): Int =
+        (imageInfo.area / (sampleSize * sampleSize) + 1) * 4
+
+    /**
+     * Returns a copy of the currently composited frame, or null if nothing is composited yet.
+     */
+    @WorkerThread
+    internal fun copyCurrentFrame(): Bitmap? =
+        canvasBitmap?.copy(Bitmap.Config.ARGB_8888, false)
+
     @Throws(IOException::class)
     protected abstract fun read(reader: FilterReader, sampleSize: Int): ImageInfo
 
+    /**
+     * Returns a new state for parsing a progressive source with [readIncrementally], or null if the
+     * decoder parses it from the start with [read] each time more arrives.
+     */
+    protected open fun newParseState(): ParseState? = null
+
+    /**
+     * Parses what arrived of a progressive source since the previous call with [state], from
+     * [ParseState.offset], and returns all frames parsed so far, setting up the decoder as [read]
+     * would. The frames of the previous calls are kept, the last one may still miss data.
+     */
+    @Throws(IOException::class)
+    protected open fun readIncrementally(
+        reader: FilterReader,
+        sampleSize: Int,
+        state: ParseState
+    ): ImageInfo = read(reader, sampleSize)
+
+    /**
+     * Reads the canvas size from the header at the start of [reader], without parsing the frames.
+     * Returns null if the size cannot be told from the header alone.
+     */
+    @Throws(IOException::class)
+    protected open fun readViewport(reader: FilterReader): Size? = null
+
+    /**
+     * Parses what arrived so far of a source which is still arriving, continuing where the previous
+     * parse stopped when the decoder supports [readIncrementally]. The last frame parsed may still
+     * miss data, so it is left out until the source is complete. Returns null until a frame is
+     * complete.
+     */
+    @WorkerThread
+    @Throws(IOException::class)
+    private fun readProgressive(loader: ProgressiveLoader, reader: FilterReader): ImageInfo? {
+        val complete = loader.isComplete
+        parsedSize = loader.availableSize
+        awaitingData = !complete
+        if (complete) {
+            loader.removeListener(dataListener)
+            // Parsed once more in full, so that its index is cached
+            parseState = null
+            return readIndexed(reader)
+        }
+        loader.addListener(dataListener)
+        val state = parseState ?: newParseState()?.also { parseState = it }
+        val imageInfo = try {
+            if (state != null) {
+                readIncrementally(reader, sampleSize, state)
+            } else {
+                read(reader, sampleSize)
+            }
+        } catch (e: IncompleteSourceException) {
+            // Not even the header arrived
+            return null
+        }
+        if (imageInfo.frames.size < 2) {
+            return null
+        }
+        return ImageInfo(imageInfo.loopCount, imageInfo.viewport, imageInfo.frames.dropLast(1))
+    }
+
+    /**
+     * Parses a progressive source again once enough more of it arrived, and continues a playback
+     * waiting for the next frame.
+     */
+    @WorkerThread
+    private fun onDataArrived() {
+        val loader = loader as? ProgressiveLoader ?: return
+        if (state == State.IDLE || state == State.FINISHING) {
+            // Listened again by innerStart
+            loader.removeListener(dataListener)
+            return
+        }
+        if (!awaitingData) {
+            return
+        }
+        val current = imageInfo
+        // A playback waiting for the next frame only skips the throttle when parsing continues
+        // where it stopped, rather than going over the whole source again
+        if (current != null && (!holding || parseState == null) && !loader.isComplete &&
+            loader.availableSize - parsedSize < REPARSE_BYTES
+        ) {
+            return
+        }
+        try {
+            if (current == null) {
+                initCanvasBounds()
+                if (imageInfo != null) {
+                    MemoryGovernor.onAllocated(this)
+                }
+            } else {
+                val parsed = readProgressive(loader, bitmapReaderManager.getReader()) ?: return
+                if (parsed.frames.size > current.frames.size || !awaitingData) {
+                    // Frames already parsed are kept, the playback may still refer to them
+                    val imageInfo = ImageInfo(
+                        parsed.loopCount,
+                        current.viewport,
+                        current.frames + parsed.frames.drop(current.frames.size)
+                    )
+                    this.imageInfo = imageInfo
+                    seekIndex = createSeekIndex(imageInfo)
+                }
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            return
+        }
+        if (holding && (canStep() || !awaitingData)) {
+            holding = false
+            timelineTime = 0
+            frameLooper.schedule()
+        }
+    }
+
+    /**
+     * Rebuilds the frames from [FrameIndexCache] when the source was parsed before, otherwise
+     * parses it with [read] and caches its index.
+     */
+    @WorkerThread
+    @Throws(IOException::class)
+    private fun readIndexed(reader: FilterReader): ImageInfo {
+        val key = indexKey ?: FrameIndexCache.keyOf(this, sourceId, reader)?.also { indexKey = it }
+            ?: return read(reader, sampleSize)
+        FrameIndexCache.get(key)?.let { index ->
+            try {
+                val imageInfo = readIndex(reader, DataInputStream(index.inputStream()), sampleSize)
+                if (imageInfo != null) {
+                    return imageInfo
+                }
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+            reader.reset()
+        }
+        val imageInfo = read(reader, sampleSize)
+        val output = ByteArrayOutputStream()
+        try {
+            if (writeIndex(imageInfo, DataOutputStream(output))) {
+                FrameIndexCache.put(key, output.toByteArray())
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+        return imageInfo
+    }
+
+    /**
+     * Writes a compact index of [imageInfo], from which [readIndex] can rebuild it without
+     * parsing the source. Returns false if the decoder does not support indexes.
+     */
+    @Throws(IOException::class)
+    protected open fun writeIndex(imageInfo: ImageInfo, output: DataOutput): Boolean = false
+
+    /**
+     * Rebuilds the frames of the source read by [reader] from an index written by [writeIndex],
+     * setting up the decoder as [read] would. Returns null if the index cannot be used.
+     */
+    @Throws(IOException::class)
+    protected open fun readIndex(
+        reader: FilterReader,
+        input: DataInput,
+        sampleSize: Int
+    ): ImageInfo? = null
+
+    /**
+     * Reads the canvas size with [readViewport] through a reader of its own, so that it does not
+     * interfere with the worker thread.
+     */
+    private fun probeViewport(): Size? {
+        var reader: FilterReader? = null
+        return try {
+            reader = FilterReader(loader.obtain())
+            readViewport(reader)?.takeIf { it.width > 0 && it.height > 0 }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            null
+        } finally {
+            try {
+                reader?.close()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    /**
+     * Pixel bytes copied from the canvas into the frame buffer in [RenderMode.BYTE_BUFFER] so far.
+     * Only regions changed by each frame are copied when that is cheaper than the whole canvas.
+     */
+    val copiedBytes: Long
+        get() = regionCopier.copiedBytes
+
+    /**
+     * Returns a snapshot of the measurements of this decoder. It can be called from any thread.
+     */
+    fun getStats(): DecoderStats {
+        val bitmapPool = bitmapPool
+        return DecoderStats(
+            decoder = javaClass.simpleName,
+            sourceId = sourceId,
+            frameCount = frameCount,
+            sampleSize = sampleSize,
+            parseNanos = stats.parseNanos,
+            renderedFrames = stats.renderedFrames,
+            renderNanos = stats.renderNanos,
+            maxRenderNanos = stats.maxRenderNanos,
+            compositedFrames = stats.compositedFrames,
+            compositeNanos = stats.compositeNanos,
+            copyNanos = stats.copyNanos,
+            copiedBytes = copiedBytes,
+            reReadBytes = bitmapReaderManager.reReadBytes,
+            poolHits = bitmapPool.hitCount(),
+            poolMisses = bitmapPool.missCount(),
+            droppedFrames = droppedFrames,
+            lateFrames = lateFrames,
+            memoryBytes = getMemorySize()
+        )
+    }
+
     fun getMemorySize(): Int {
         val frameBufferSizeBytes = frameBuffer?.capacity() ?: 0
-        return bitmapPool.getMemorySize() + frameBufferSizeBytes
+        val canvasBitmapSizeBytes =
+            canvasBitmap?.takeUnless { it.isRecycled }?.allocationByteCount ?: 0
+        val ringSizeBytes = bitmapRing?.getMemorySize() ?: 0
+        val frameQueueSizeBytes = frameQueue?.getMemorySize() ?: 0
+        val seekIndexSizeBytes = seekIndex?.getMemorySize() ?: 0
+        // A shared pool is accounted by its owner
+        val bitmapPoolSizeBytes = if (ownsBitmapPool) bitmapPool.getMemorySize() else 0
+        return bitmapPoolSizeBytes +
+            frameBufferSizeBytes +
+            canvasBitmapSizeBytes +
+            ringSizeBytes +
+            frameQueueSizeBytes +
+            seekIndexSizeBytes +
+            bitmapReaderManager.memorySize
+    }
+
+    /**
+     * Reinitializes the decoder with [sample] as sample size, resuming the playback if it was
+     * running.
+     */
+    internal fun changeSampleSize(sample: Int) {
+        val isCurrentlyRunning = isRunning
+
+        frameLooper.ensureWorkerExecute {
+            innerStop()
+            sampleSize = sample
+            try {
+                initCanvasBounds()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+            if (isCurrentlyRunning) {
+                innerStart()
+            }
+            for (listener in renderListeners) {
+                listener.onSampleSizeChanged(sample)
+            }
+        }
+    }
+
+    /**
+     * Releases memory for [MemoryGovernor] at [level] and returns the number of bytes expected to
+     * be freed. Releasing happens on the worker thread, possibly after this returns.
+     */
+    internal fun trimMemory(level: MemoryGovernor.TrimLevel): Int = when (level) {
+        MemoryGovernor.TrimLevel.BITMAP_POOL -> {
+            if (ownsBitmapPool) {
+                val bitmapPool = bitmapPool
+                val bytes = bitmapPool.getMemorySize()
+                bitmapPool.clear()
+                bytes
+            } else {
+                0
+            }
+        }
+
+        MemoryGovernor.TrimLevel.BUFFERS -> {
+            val bytes = (frameQueue?.getMemorySize() ?: 0) + (seekIndex?.getMemorySize() ?: 0)
+            if (bytes > 0) {
+                frameLooper.ensureWorkerExecute {
+                    frameLooper.cancel(fillQueueTask)
+                    frameQueue = null
+                    seekIndex?.dropSnapshots()
+                    damageAll()
+                }
+            }
+            bytes
+        }
+
+        MemoryGovernor.TrimLevel.SAMPLE_SIZE -> raiseSampleSize()
+    }
+
+    private fun raiseSampleSize(): Int {
+        val imageInfo = imageInfo
+        // Skip idle and visible decoders, and decoders already raised in this episode of pressure
+        if (imageInfo == null || state != State.RUNNING || isVisible() || sampleSizeFloor > 1) {
+            return 0
+        }
+        val sample = sampleSize * 2
+        if (imageInfo.viewport.width / sample == 0 || imageInfo.viewport.height / sample == 0) {
+            return 0
+        }
+        sampleSizeFloor = sample
+        val bytes = getMemorySize()
+        // Always post, so that a decoder trimming itself does not reinitialize within innerStart
+        frameLooper.post(
+            Runnable {
+                if (sampleSizeFloor == sample && state == State.RUNNING) {
+                    changeSampleSize(sample)
+                }
+            }
+        )
+        return bytes - bytes / (2 * 2)
+    }
+
+    /**
+     * Whether a frame was published within the last [VISIBLE_FRAMES] frame durations
+     */
+    private fun isVisible(): Boolean = SystemClock.uptimeMillis() - lastVisibleTime <=
+        VISIBLE_FRAMES * maxOf(lastFrameDuration, MIN_FRAME_DURATION_MS)
+
+    /**
+     * Returns the number of bytes [restoreSampleSize] is expected to allocate
+     */
+    internal fun restoreSampleSizeCost(): Long {
+        val sample = maxOf(desiredSampleSize, 1)
+        if (state != State.RUNNING || sampleSize <= sample) {
+            return 0
+        }
+        val bytes = getMemorySize().toLong()
+        val ratio = sampleSize / sample
+        return bytes * ratio * ratio - bytes
+    }
+
+    /**
+     * Lifts [sampleSizeFloor] and goes back to [desiredSampleSize] when memory pressure has ended
+     */
+    internal fun restoreSampleSize() {
+        sampleSizeFloor = 1
+        frameLooper.post(
+            Runnable {
+                val sample = maxOf(desiredSampleSize, 1)
+                if (sampleSizeFloor == 1 && state == State.RUNNING && sampleSize > sample) {
+                    changeSampleSize(sample)
+                }
+            }
+        )
     }
 
     fun setLoopLimit(limit: Int) {
         loopLimit = limit
     }
 
+    /**
+     * What a decoder keeps between parses of a progressive source, to continue where the previous
+     * parse stopped, see [readIncrementally]
+     */
+    protected open class ParseState {
+        /**
+         * Where the next parse continues, after the last block parsed in full. 0 until the header
+         * is parsed.
+         */
+        var offset = 0
+    }
+
     internal enum class State {
         IDLE, RUNNING, INITIALIZING, FINISHING
     }
 
+    enum class Pacing {
+        /**
+         * Every frame is shown for its duration after the previous one. When decoding is slower
+         * than the frame durations, the playback slows down.
+         */
+        SEQUENTIAL,
+
+        /**
+         * Frames follow the wall clock from the start of the playback. Frames whose presentation
+         * time has passed entirely are dropped, so the playback keeps its real-time speed.
+         */
+        WALL_CLOCK
+    }
+
+    enum class RenderMode {
+        /**
+         * Composited frames are copied into a [ByteBuffer] and delivered by
+         * [RenderListener.onRender] with a [ByteBuffer].
+         */
+        BYTE_BUFFER,
+
+        /**
+         * Composited frames are published through a small ring of bitmaps by
+         * [RenderListener.onRender] with a [Bitmap], without round trips through a [ByteBuffer].
+         */
+        BITMAP
+    }
+
     companion object {
         const val DEBUG = false
 
         const val TAG = "FrameDecoder"
+
+        /**
+         * The default byte budget of the lookahead queue of a decoder
+         */
+        const val DEFAULT_LOOKAHEAD_BYTES = 8 * 1024 * 1024
+
+        /**
+         * The default byte budget of the periodic snapshots of a decoder's seek index
+         */
+        const val DEFAULT_SEEK_INDEX_BYTES = 4 * 1024 * 1024
+
+        /**
+         * A frame presented this long after it was due counts as late
+         */
+        const val LATE_THRESHOLD_MS = 17L
+
+        /**
+         * How much more of a progressive source must arrive before it is parsed again, unless the
+         * playback waits for it and the decoder parses incrementally
+         */
+        private const val REPARSE_BYTES = 64 * 1024
+
+        /**
+         * A decoder which published no frame for this many frame durations counts as not visible
+         * to [MemoryGovernor]
+         */
+        private const val VISIBLE_FRAMES = 3
+
+        /**
+         * The frame duration assumed for [VISIBLE_FRAMES] when frames are shorter
+         */
+        private const val MIN_FRAME_DURATION_MS = 16L
     }
 }
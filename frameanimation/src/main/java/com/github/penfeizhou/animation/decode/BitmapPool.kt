@@ -1,56 +1,190 @@
 package com.github.penfeizhou.animation.decode
 
 import android.graphics.Bitmap
+import java.util.TreeMap
 
-internal class BitmapPool {
-    private val pool: MutableSet<Bitmap> = mutableSetOf()
+/**
+ * A pool of reusable [Bitmap.Config.ARGB_8888] bitmaps bounded by a byte budget.
+ *
+ * Bitmaps are bucketed by allocation size and [obtain] picks the smallest bitmap which can be
+ * reconfigured to the requested size. When the pool grows over [maxSize] bytes, the bitmaps which
+ * were returned least recently are evicted and recycled.
+ *
+ * Each decoder owns a private pool by default. A pool can be shared by several decoders with
+ * [BaseFrameSeqDecoder.setBitmapPool]; all methods are thread safe.
+ */
+class BitmapPool(maxSizeBytes: Int = DEFAULT_MAX_SIZE_BYTES) {
+    /**
+     * Pooled bitmaps by allocation size, most recently returned last
+     */
+    private val buckets = TreeMap<Int, ArrayDeque<Bitmap>>()
 
-    fun obtain(width: Int, height: Int): Bitmap? = synchronized(this) {
-        val reuseSize = width * height
-        val bitmap = pool.firstOrNull { it.allocationByteCount >= reuseSize }
-        if (bitmap != null) {
-            pool.remove(bitmap)
-            bitmap.eraseColor(0)
-            bitmap.reconfigureBitmapIfNeed(width, height)
+    /**
+     * Allocation size of every pooled bitmap, least recently returned first
+     */
+    private val lru = LinkedHashMap<Bitmap, Int>()
 
-            return@synchronized bitmap
+    private var size = 0
+    private var maxSize = maxSizeBytes.coerceAtLeast(0)
+
+    private var hitCount = 0
+    private var missCount = 0
+    private var evictionCount = 0
+
+    /**
+     * Obtains a bitmap with size [width] x [height], reusing the smallest pooled bitmap large
+     * enough or creating a new one. Returns null if either [width] or [height] is invalid (<= 0).
+     */
+    fun obtain(width: Int, height: Int): Bitmap? {
+        if (width <= 0 || height <= 0) {
+            return null
+        }
+        synchronized(this) {
+            val bitmap = take(width * height * BYTES_PER_PIXEL)
+            if (bitmap != null) {
+                hitCount++
+                bitmap.eraseColor(0)
+                bitmap.reconfigureBitmapIfNeed(width, height)
+                return bitmap
+            }
+            missCount++
         }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+    }
 
-        if (width > 0 && height > 0) {
-            Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        } else {
-            null
+    /**
+     * Removes the best fit for [requiredBytes] from the pool. Bitmaps more than
+     * [MAX_SIZE_MULTIPLE] times larger are left for requests they fit better.
+     */
+    private fun take(requiredBytes: Int): Bitmap? {
+        val limit = requiredBytes.toLong() * MAX_SIZE_MULTIPLE
+        while (true) {
+            val entry = buckets.ceilingEntry(requiredBytes) ?: return null
+            if (entry.key > limit) {
+                return null
+            }
+            val bucket = entry.value
+            val bitmap = bucket.removeLast()
+            if (bucket.isEmpty()) {
+                buckets.remove(entry.key)
+            }
+            lru.remove(bitmap)
+            size -= entry.key
+            if (!bitmap.isRecycled) {
+                return bitmap
+            }
         }
     }
 
     private fun Bitmap.reconfigureBitmapIfNeed(width: Int, height: Int) {
         if (this.width != width || this.height != height) {
-            if (width > 0 && height > 0) {
-                reconfigure(width, height, Bitmap.Config.ARGB_8888)
-            }
+            reconfigure(width, height, Bitmap.Config.ARGB_8888)
         }
     }
 
+    /**
+     * Returns [bitmap] to the pool. The caller must not use it afterwards.
+     */
     fun recycle(bitmap: Bitmap?) {
+        if (bitmap == null || bitmap.isRecycled || !bitmap.isMutable) {
+            return
+        }
+        synchronized(this) {
+            if (lru.containsKey(bitmap)) {
+                return
+            }
+            val bytes = bitmap.allocationByteCount
+            if (bytes > maxSize) {
+                bitmap.recycle()
+                return
+            }
+            lru[bitmap] = bytes
+            buckets.getOrPut(bytes) { ArrayDeque() }.addLast(bitmap)
+            size += bytes
+            trimToSize(maxSize)
+        }
+    }
+
+    /**
+     * Evicts the least recently returned bitmaps until the pool holds at most [maxSizeBytes].
+     */
+    fun trimToSize(maxSizeBytes: Int) {
         synchronized(this) {
-            if (bitmap != null && !bitmap.isRecycled) {
-                pool.add(bitmap)
+            val iterator = lru.entries.iterator()
+            while (size > maxSizeBytes && iterator.hasNext()) {
+                val (bitmap, bytes) = iterator.next()
+                iterator.remove()
+                val bucket = buckets[bytes]
+                if (bucket != null) {
+                    bucket.remove(bitmap)
+                    if (bucket.isEmpty()) {
+                        buckets.remove(bytes)
+                    }
+                }
+                size -= bytes
+                evictionCount++
+                if (!bitmap.isRecycled) {
+                    bitmap.recycle()
+                }
             }
         }
     }
 
+    /**
+     * Sets the byte budget of the pool, evicting bitmaps if it is now over budget.
+     */
+    fun resize(maxSizeBytes: Int) {
+        synchronized(this) {
+            maxSize = maxSizeBytes.coerceAtLeast(0)
+            trimToSize(maxSize)
+        }
+    }
+
     fun clear() {
         synchronized(this) {
-            for (bitmap in pool) {
+            for (bitmap in lru.keys) {
                 if (!bitmap.isRecycled) {
                     bitmap.recycle()
                 }
             }
-            pool.clear()
+            lru.clear()
+            buckets.clear()
+            size = 0
         }
     }
 
-    fun getMemorySize(): Int = synchronized(this) {
-        pool.sumOf { if (it.isRecycled) 0 else it.allocationByteCount }
+    fun getMemorySize(): Int = synchronized(this) { size }
+
+    fun maxSize(): Int = synchronized(this) { maxSize }
+
+    /**
+     * Returns the number of times [obtain] reused a pooled bitmap
+     */
+    fun hitCount(): Int = synchronized(this) { hitCount }
+
+    /**
+     * Returns the number of times [obtain] had to create a bitmap
+     */
+    fun missCount(): Int = synchronized(this) { missCount }
+
+    /**
+     * Returns the number of bitmaps evicted to stay within the budget
+     */
+    fun evictionCount(): Int = synchronized(this) { evictionCount }
+
+    override fun toString(): String = synchronized(this) {
+        "BitmapPool[size=$size, maxSize=$maxSize, hits=$hitCount, misses=$missCount, " +
+            "evictions=$evictionCount]"
+    }
+
+    companion object {
+        /**
+         * The default byte budget of a pool
+         */
+        const val DEFAULT_MAX_SIZE_BYTES = 16 * 1024 * 1024
+
+        private const val BYTES_PER_PIXEL = 4
+
+        private const val MAX_SIZE_MULTIPLE = 4
     }
 }
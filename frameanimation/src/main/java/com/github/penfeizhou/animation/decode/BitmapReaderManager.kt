@@ -1,5 +1,6 @@
 package com.github.penfeizhou.animation.decode
 
+import com.github.penfeizhou.animation.io.BufferedStreamReader
 import com.github.penfeizhou.animation.io.FilterReader
 import com.github.penfeizhou.animation.loader.Loader
 import java.io.IOException
@@ -7,6 +8,24 @@ import java.io.IOException
 internal class BitmapReaderManager(private val loader: Loader) {
     private var reader: FilterReader? = null
 
+    @Volatile
+    private var source: BufferedStreamReader? = null
+    private var closedReReadBytes = 0L
+
+    /**
+     * Bytes read again from the kept copy of a stream source, see
+     * [BufferedStreamReader.reReadBytes]
+     */
+    val reReadBytes: Long
+        get() = closedReReadBytes + (source?.reReadBytes ?: 0)
+
+    /**
+     * Heap memory held by the kept copy of a stream source, see
+     * [BufferedStreamReader.memorySize]
+     */
+    val memorySize: Int
+        get() = source?.memorySize ?: 0
+
     @Throws(IOException::class)
     fun getReader(): FilterReader {
         val localReader = reader
@@ -14,7 +33,9 @@ internal class BitmapReaderManager(private val loader: Loader) {
             localReader.reset()
             return localReader
         }
-        reader = FilterReader(loader.obtain())
+        val source = loader.obtain()
+        this.source = source as? BufferedStreamReader
+        reader = FilterReader(source)
         return getReader()
     }
 
@@ -25,5 +46,7 @@ internal class BitmapReaderManager(private val loader: Loader) {
             e.printStackTrace()
         }
         reader = null
+        closedReReadBytes += source?.reReadBytes ?: 0
+        source = null
     }
 }
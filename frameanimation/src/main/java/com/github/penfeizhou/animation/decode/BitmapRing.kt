@@ -0,0 +1,98 @@
+package com.github.penfeizhou.animation.decode
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.Rect
+import java.nio.ByteBuffer
+
+/**
+ * A small ring of [Bitmap]s used to publish composited frames in
+ * [BaseFrameSeqDecoder.RenderMode.BITMAP].
+ *
+ * Each published frame goes into the next slot, so the bitmap handed out last time is not touched
+ * while a reader may still be drawing it. Slots are allocated lazily, and only the area changed
+ * since a slot was last written is copied into it.
+ */
+internal class BitmapRing(
+    private val width: Int,
+    private val height: Int,
+    size: Int = DEFAULT_SIZE
+) {
+    private val bitmaps = arrayOfNulls<Bitmap>(size)
+    private val canvases = arrayOfNulls<Canvas>(size)
+    private var cursor = -1
+
+    private val paint = Paint().apply { xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC) }
+
+    /**
+     * The area of each slot which is stale, accumulated from the damage of frames published
+     * since the slot was last written
+     */
+    private val staleRects = Array(size) { Rect() }
+    private val regionCopier = RegionCopier()
+
+    /**
+     * Copies the stale area of the next slot from [source], after adding [damage], the area
+     * changed since the previous publish, to every slot. Returns that slot.
+     */
+    fun publish(source: Bitmap, damage: Rect): Bitmap {
+        val target = next(damage)
+        val stale = staleRects[cursor]
+        if (!stale.isEmpty) {
+            canvases[cursor]?.drawBitmap(source, stale, stale, paint)
+            stale.setEmpty()
+        }
+        return target
+    }
+
+    /**
+     * Copies the stale area of the next slot from the pixels in [source], after adding [damage],
+     * the area changed since the previous publish, to every slot. Returns that slot.
+     */
+    fun publish(source: ByteBuffer, damage: Rect): Bitmap {
+        val target = next(damage)
+        val stale = staleRects[cursor]
+        if (!stale.isEmpty) {
+            regionCopier.copyFromBuffer(source, target, stale, canvases[cursor])
+            stale.setEmpty()
+        }
+        return target
+    }
+
+    private fun next(damage: Rect): Bitmap {
+        for (stale in staleRects) {
+            stale.union(damage)
+        }
+        cursor = (cursor + 1) % bitmaps.size
+        return bitmaps[cursor]?.takeUnless { it.isRecycled }
+            ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also {
+                bitmaps[cursor] = it
+                canvases[cursor] = Canvas(it)
+                staleRects[cursor].set(0, 0, width, height)
+            }
+    }
+
+    /**
+     * Drops every slot. Bitmaps are not recycled because readers may still hold the last published
+     * one; they are left to the garbage collector.
+     */
+    fun clear() {
+        bitmaps.fill(null)
+        canvases.fill(null)
+        for (stale in staleRects) {
+            stale.setEmpty()
+        }
+        regionCopier.clear()
+        cursor = -1
+    }
+
+    fun getMemorySize(): Int =
+        bitmaps.sumOf { if (it == null || it.isRecycled) 0 else it.allocationByteCount }
+
+    companion object {
+        const val DEFAULT_SIZE = 3
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.penfeizhou.animation.decode
+
+/**
+ * Receives measurements of a decoder as they are taken, on the decoder's worker thread.
+ * Implementations shared between decoders, e.g. through [DecoderRegistry.metrics], must be thread
+ * safe. All callbacks should return quickly.
+ */
+interface DecoderMetrics {
+    /**
+     * The source was parsed into [frameCount] frames in [nanos] nanoseconds
+     */
+    fun onParsed(decoder: BaseFrameSeqDecoder, frameCount: Int, nanos: Long) = Unit
+
+    /**
+     * Frame [index] was composited in [compositeNanos] nanoseconds. Of that, decoding and drawing
+     * the frame took [renderNanos], 0 if it was restored from [FrameCache], and copying the
+     * canvas into the frame buffer took [copyNanos].
+     */
+    fun onFrameComposited(
+        decoder: BaseFrameSeqDecoder,
+        index: Int,
+        renderNanos: Long,
+        compositeNanos: Long,
+        copyNanos: Long
+    ) = Unit
+
+    /**
+     * [count] frames were skipped to keep up with the wall clock, see
+     * [BaseFrameSeqDecoder.Pacing.WALL_CLOCK]
+     */
+    fun onFramesDropped(decoder: BaseFrameSeqDecoder, count: Int) = Unit
+
+    /**
+     * Frame [index] was presented [lateMillis] milliseconds after it was due
+     */
+    fun onFrameLate(decoder: BaseFrameSeqDecoder, index: Int, lateMillis: Long) = Unit
+}
@@ -0,0 +1,40 @@
+package com.github.penfeizhou.animation.decode
+
+import java.util.WeakHashMap
+
+/**
+ * All live decoders of the process. Every decoder registers itself on creation and is forgotten
+ * once it is garbage collected.
+ */
+object DecoderRegistry {
+    private val decoders = WeakHashMap<BaseFrameSeqDecoder, Boolean>()
+
+    /**
+     * Receives the measurements of every decoder which has no [BaseFrameSeqDecoder.metrics] of its
+     * own
+     */
+    @Volatile
+    var metrics: DecoderMetrics? = null
+
+    internal fun register(decoder: BaseFrameSeqDecoder) {
+        synchronized(decoders) {
+            decoders[decoder] = true
+        }
+    }
+
+    fun liveDecoders(): List<BaseFrameSeqDecoder> = synchronized(decoders) {
+        decoders.keys.toList()
+    }
+
+    /**
+     * Returns a stats snapshot of every live decoder
+     */
+    fun getStats(): List<DecoderStats> = liveDecoders().map { it.getStats() }
+
+    /**
+     * Returns the stats of every live decoder, one per line, slowest average render first
+     */
+    fun dump(): String = getStats()
+        .sortedByDescending { it.averageRenderNanos }
+        .joinToString(separator = "\n")
+}
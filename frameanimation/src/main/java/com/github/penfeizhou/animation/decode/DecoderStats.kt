@@ -0,0 +1,54 @@
+package com.github.penfeizhou.animation.decode
+
+/**
+ * A snapshot of the measurements of a decoder, see [BaseFrameSeqDecoder.getStats].
+ * Counts and times are cumulative since the decoder was created. Times are in nanoseconds.
+ */
+data class DecoderStats(
+    val decoder: String,
+    val sourceId: String?,
+    val frameCount: Int,
+    val sampleSize: Int,
+    /**
+     * Time of the last parse of the source
+     */
+    val parseNanos: Long,
+    /**
+     * Frames decoded and drawn, as opposed to restored from [FrameCache]
+     */
+    val renderedFrames: Long,
+    val renderNanos: Long,
+    val maxRenderNanos: Long,
+    val compositedFrames: Long,
+    val compositeNanos: Long,
+    /**
+     * Time spent copying pixels between the canvas, the frame buffer, the lookahead queue and
+     * published bitmaps
+     */
+    val copyNanos: Long,
+    val copiedBytes: Long,
+    /**
+     * Bytes of a stream source read more than once, served from the reader's copy of the stream
+     */
+    val reReadBytes: Long,
+    /**
+     * Hits and misses of the decoder's bitmap pool, which may be shared with other decoders
+     */
+    val poolHits: Int,
+    val poolMisses: Int,
+    val droppedFrames: Int,
+    val lateFrames: Int,
+    /**
+     * Memory currently held, see [BaseFrameSeqDecoder.getMemorySize]
+     */
+    val memoryBytes: Int
+) {
+    val averageRenderNanos: Long
+        get() = if (renderedFrames > 0) renderNanos / renderedFrames else 0
+
+    val averageCompositeNanos: Long
+        get() = if (compositedFrames > 0) compositeNanos / compositedFrames else 0
+
+    val poolHitRate: Float
+        get() = if (poolHits + poolMisses > 0) poolHits.toFloat() / (poolHits + poolMisses) else 0f
+}
@@ -3,6 +3,8 @@ package com.github.penfeizhou.animation.decode
 import android.graphics.Bitmap
 import android.graphics.Canvas
 import android.graphics.Paint
+import android.graphics.Rect
+import android.util.Size
 import com.github.penfeizhou.animation.io.Writer
 
 abstract class Frame(
@@ -19,4 +21,23 @@ abstract class Frame(
         reusedBitmap: Bitmap,
         writer: Writer
     ): Bitmap?
+
+    /**
+     * Returns true if the frame area covers the whole [viewport]
+     */
+    fun covers(viewport: Size): Boolean =
+        x == 0 && y == 0 && width >= viewport.width && height >= viewport.height
+
+    /**
+     * Sets [out] to the area of the canvas this frame draws on, scaled down by [sampleSize] and
+     * rounded outwards.
+     */
+    open fun getBounds(sampleSize: Int, out: Rect) {
+        out.set(
+            x / sampleSize,
+            y / sampleSize,
+            (x + width + sampleSize - 1) / sampleSize,
+            (y + height + sampleSize - 1) / sampleSize
+        )
+    }
 }
@@ -0,0 +1,80 @@
+package com.github.penfeizhou.animation.decode
+
+import android.content.ComponentCallbacks2
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.util.LruCache
+import java.nio.ByteBuffer
+
+/**
+ * A process-wide cache of composited frames shared by all decoders.
+ *
+ * Frames are keyed by [com.github.penfeizhou.animation.loader.Loader.getSourceId], sample size and
+ * frame index, so decoders showing the same animation reuse each other's work. The cache is
+ * disabled until [setMaxSize] is called with a positive size.
+ *
+ * Register it with [android.content.Context.registerComponentCallbacks] to release frames when
+ * the system is low on memory.
+ */
+object FrameCache : ComponentCallbacks2 {
+    internal data class Key(val sourceId: String, val sampleSize: Int, val index: Int)
+
+    private val cache = object : LruCache<Key, ByteBuffer>(1) {
+        override fun sizeOf(key: Key, value: ByteBuffer): Int = value.capacity()
+    }
+
+    @Volatile
+    private var enabled = false
+
+    /**
+     * Sets the byte budget of the cache. 0 disables the cache and drops all cached frames.
+     */
+    fun setMaxSize(maxSizeBytes: Int) {
+        if (maxSizeBytes > 0) {
+            cache.resize(maxSizeBytes)
+            enabled = true
+        } else {
+            enabled = false
+            cache.evictAll()
+        }
+    }
+
+    fun size(): Int = cache.size()
+
+    fun clear() = cache.evictAll()
+
+    /**
+     * Returns the pixels of a cached frame. The returned buffer has its own position and must not
+     * be written.
+     */
+    internal fun get(key: Key): ByteBuffer? =
+        if (enabled) cache.get(key)?.duplicate() else null
+
+    /**
+     * Caches a copy of the pixels in [bitmap] unless the frame is already cached.
+     */
+    internal fun put(key: Key, bitmap: Bitmap) {
+        if (!enabled || bitmap.byteCount > cache.maxSize() || cache.get(key) != null) {
+            return
+        }
+        val buffer = ByteBuffer.allocate(bitmap.byteCount)
+        bitmap.copyPixelsToBuffer(buffer)
+        cache.put(key, buffer)
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        ) {
+            cache.evictAll()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+        ) {
+            cache.trimToSize(cache.maxSize() / 2)
+        }
+    }
+
+    override fun onLowMemory() = cache.evictAll()
+
+    override fun onConfigurationChanged(newConfig: Configuration) = Unit
+}
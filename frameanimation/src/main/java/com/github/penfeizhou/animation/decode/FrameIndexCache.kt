@@ -0,0 +1,114 @@
+package com.github.penfeizhou.animation.decode
+
+import android.util.LruCache
+import com.github.penfeizhou.animation.io.Reader
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * A process-wide cache of parsed frame indexes, so that decoding a source again rebuilds its
+ * frames from a compact index instead of parsing the whole stream.
+ *
+ * Indexes are kept in memory, keyed by [com.github.penfeizhou.animation.loader.Loader.getSourceId]
+ * and the decoder which wrote them. Once [setDirectory] is called, they are also kept on disk
+ * across processes, keyed by a hash of the source content instead, since a source id may refer to
+ * different content after an app update. Hashing a source reads it once; the hash is remembered
+ * per source id for the lifetime of the process. Sources without an id are not cached, as their
+ * hash could not be remembered and hashing them on every start costs about as much as parsing.
+ */
+object FrameIndexCache {
+    /**
+     * Bumped whenever the serialized layout of an index changes
+     */
+    private const val VERSION = 1
+
+    private const val DEFAULT_MAX_SIZE = 1024 * 1024
+
+    private val cache = object : LruCache<String, ByteArray>(DEFAULT_MAX_SIZE) {
+        override fun sizeOf(key: String, value: ByteArray): Int = value.size
+    }
+
+    private val contentHashes = LruCache<String, String>(256)
+
+    @Volatile
+    private var directory: File? = null
+
+    /**
+     * Sets the byte budget of the indexes kept in memory.
+     */
+    fun setMaxSize(maxSizeBytes: Int) = cache.resize(maxSizeBytes.coerceAtLeast(1))
+
+    /**
+     * Also keeps indexes as files in [directory], usually a folder under the app cache
+     * directory. Null keeps indexes in memory only.
+     */
+    fun setDirectory(directory: File?) {
+        directory?.mkdirs()
+        this.directory = directory
+    }
+
+    fun clear() {
+        cache.evictAll()
+        directory?.listFiles()?.forEach { it.delete() }
+    }
+
+    /**
+     * Returns the key of the index of the source read by [reader], as written by [decoder], or
+     * null if the source has no [sourceId].
+     */
+    @Throws(IOException::class)
+    internal fun keyOf(decoder: BaseFrameSeqDecoder, sourceId: String?, reader: Reader): String? {
+        sourceId ?: return null
+        val id = if (directory != null) {
+            contentHashes.get(sourceId) ?: hash(reader).also { contentHashes.put(sourceId, it) }
+        } else {
+            sourceId
+        }
+        return "${decoder.javaClass.simpleName}-$VERSION-$id"
+    }
+
+    internal fun get(key: String): ByteArray? {
+        cache.get(key)?.let { return it }
+        val file = directory?.let { File(it, key) } ?: return null
+        return try {
+            if (file.isFile) file.readBytes().also { cache.put(key, it) } else null
+        } catch (e: IOException) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    internal fun put(key: String, index: ByteArray) {
+        cache.put(key, index)
+        val directory = directory ?: return
+        val file = File(directory, key)
+        val tmpFile = File(directory, "$key.tmp")
+        try {
+            // Written aside and renamed, so that other processes never read a partial index
+            tmpFile.writeBytes(index)
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete()
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            tmpFile.delete()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun hash(reader: Reader): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        val buffer = ByteArray(16 * 1024)
+        reader.reset()
+        while (reader.available() > 0) {
+            val count = reader.read(buffer, 0, minOf(buffer.size, reader.available()))
+            if (count <= 0) {
+                break
+            }
+            digest.update(buffer, 0, count)
+        }
+        reader.reset()
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+}
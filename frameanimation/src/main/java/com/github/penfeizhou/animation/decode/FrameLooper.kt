@@ -2,36 +2,207 @@ package com.github.penfeizhou.animation.decode
 
 import android.os.Handler
 import android.os.Looper
+import android.os.SystemClock
 import com.github.penfeizhou.animation.executor.FrameDecoderExecutor
 
 internal class FrameLooper(private val renderTask: Runnable) {
 
-    private val workerHandler = Handler(
-        FrameDecoderExecutor.instance
-            .getLooper(FrameDecoderExecutor.instance.generateTaskId())
-    )
+    private val executor = FrameDecoderExecutor.instance
 
+    /**
+     * Guards switching workers against posting, so that nothing is posted to the previous worker
+     * once the decoder has moved
+     */
+    private val lock = Any()
+
+    private var worker = executor.acquireWorker()
+
+    @Volatile
+    private var workerHandler = Handler(worker.looper)
+
+    /**
+     * Tasks posted by [post] and not run yet, mapped to the measuring wrapper actually posted
+     */
+    private val pendingTasks = mutableMapOf<Runnable, Runnable>()
+
+    // Decode time of this decoder since the last migration check, only touched on the worker
+    private var busyNanos = 0L
+    private var loadWindowStart = SystemClock.uptimeMillis()
+
+    /**
+     * When the next frame is due, in [SystemClock.uptimeMillis]
+     */
+    @Volatile
+    var deadline = 0L
+        private set
+
+    /**
+     * Whether a frame is scheduled and not dispatched yet, guarded by [lock]. Dispatches taken by
+     * [AnimationClock] before [stop] run outside its lock, and must not post once stopped.
+     */
+    private var scheduled = false
+
+    /**
+     * Whether this decoder is counted on [worker], from scheduling until [stop], guarded by
+     * [lock]
+     */
+    private var attached = false
+
+    /**
+     * How late the running frame was dispatched, negative if it was early
+     */
+    private var lateness = 0L
+
+    private val dispatchTask = Runnable {
+        lateness = (SystemClock.uptimeMillis() - deadline).takeIf { it <= MAX_LATENESS_MS } ?: 0
+        measure(renderTask::run)
+        lateness = 0
+        migrateIfNeeded()
+    }
+
+    /**
+     * Schedules the next frame [delay] milliseconds from now, on the vsync closest to it.
+     * Scheduled from a running frame, the delay counts from that frame's deadline, so dispatching
+     * on vsyncs does not drift from the frame durations.
+     */
     fun schedule(delay: Long = 0) {
-        if (delay > 0) {
-            workerHandler.postDelayed(renderTask, delay)
-        } else {
-            workerHandler.post(renderTask)
+        synchronized(lock) {
+            deadline = SystemClock.uptimeMillis() + delay - lateness
+            scheduled = true
+            attachLocked()
+        }
+        AnimationClock.schedule(this)
+    }
+
+    /**
+     * Schedules the next frame at [uptimeMillis], on the vsync closest to it.
+     */
+    fun scheduleAt(uptimeMillis: Long) {
+        synchronized(lock) {
+            deadline = uptimeMillis
+            scheduled = true
+            attachLocked()
         }
+        AnimationClock.schedule(this)
+    }
+
+    /**
+     * Runs the frame on the worker. Called by [AnimationClock] once the frame is due, does nothing
+     * if the looper was stopped since, or scheduled again for later.
+     */
+    fun dispatch() = synchronized(lock) {
+        if (!scheduled ||
+            deadline - AnimationClock.DISPATCH_AHEAD_MS > SystemClock.uptimeMillis()
+        ) {
+            return
+        }
+        scheduled = false
+        workerHandler.removeCallbacks(dispatchTask)
+        postLocked(dispatchTask)
     }
 
     fun stop() {
-        workerHandler.removeCallbacks(renderTask)
+        AnimationClock.cancel(this)
+        synchronized(lock) {
+            scheduled = false
+            workerHandler.removeCallbacks(dispatchTask)
+            if (attached) {
+                attached = false
+                executor.detach(worker)
+            }
+        }
+    }
+
+    private fun attachLocked() {
+        if (!attached) {
+            attached = true
+            executor.attach(worker)
+        }
+    }
+
+    /**
+     * Posts [task] to the worker, replacing a pending post of the same task.
+     */
+    fun post(task: Runnable) = synchronized(lock) {
+        cancelLocked(task)
+        val wrapper = object : Runnable {
+            override fun run() {
+                synchronized(lock) {
+                    if (pendingTasks[task] === this) {
+                        pendingTasks.remove(task)
+                    }
+                }
+                measure(task::run)
+            }
+        }
+        pendingTasks[task] = wrapper
+        postLocked(wrapper)
+    }
+
+    fun cancel(task: Runnable) = synchronized(lock) {
+        cancelLocked(task)
+    }
+
+    private fun cancelLocked(task: Runnable) {
+        pendingTasks.remove(task)?.let(workerHandler::removeCallbacks)
+    }
+
+    /**
+     * Posts [task] tagged with this looper, so that pending work can be detected before moving to
+     * another worker.
+     */
+    private fun postLocked(task: Runnable) {
+        workerHandler.postAtTime(task, this, SystemClock.uptimeMillis())
+    }
+
+    private fun measure(block: () -> Unit) {
+        val start = System.nanoTime()
+        block()
+        val nanos = System.nanoTime() - start
+        busyNanos += nanos
+        worker.recordBusy(nanos)
+    }
+
+    /**
+     * Moves this decoder to a less utilized worker if its current worker is overloaded. Only
+     * called at the end of a frame on the current worker.
+     */
+    private fun migrateIfNeeded() {
+        val now = SystemClock.uptimeMillis()
+        val elapsedMillis = now - loadWindowStart
+        if (elapsedMillis < FrameDecoderExecutor.WINDOW_MS) {
+            return
+        }
+        val load = busyNanos / 1_000_000f / elapsedMillis
+        busyNanos = 0
+        loadWindowStart = now
+
+        synchronized(lock) {
+            // Anything still queued must run first, or the decoder would run on two threads
+            if (workerHandler.hasMessages(0, this)) {
+                return
+            }
+            val target = executor.migrate(worker, load, attached) ?: return
+            worker = target
+            workerHandler = Handler(target.looper)
+        }
     }
 
     internal fun ensureWorkerExecute(block: () -> Unit) {
         if (Looper.myLooper() == workerHandler.looper) {
-            println("#1: Thread ${Thread.currentThread().name}")
             block()
         } else {
-            workerHandler.post {
-                println("#2: Thread ${Thread.currentThread().name}")
-                block()
+            synchronized(lock) {
+                postLocked(Runnable { measure(block) })
             }
         }
     }
+
+    companion object {
+        /**
+         * A frame dispatched later than this, e.g. after a stall, restarts the timing from now
+         * rather than catching up
+         */
+        private const val MAX_LATENESS_MS = 250L
+    }
 }
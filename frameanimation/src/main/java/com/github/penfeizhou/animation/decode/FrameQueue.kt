@@ -0,0 +1,69 @@
+package com.github.penfeizhou.animation.decode
+
+import android.graphics.Rect
+import java.nio.ByteBuffer
+
+/**
+ * A bounded queue of frames which are composited ahead of their presentation time.
+ *
+ * Buffers of presented frames are kept for reuse, so a steady playback does not allocate.
+ */
+internal class FrameQueue(
+    val capacity: Int,
+    private val bufferSizeBytes: Int
+) {
+    class Entry(val buffer: ByteBuffer) {
+        var index: Int = -1
+        var duration: Long = 0
+
+        /**
+         * The area changed since the previous queued frame
+         */
+        val damage = Rect()
+    }
+
+    private val queued = ArrayDeque<Entry>(capacity)
+    private val free = ArrayDeque<Entry>(capacity)
+
+    val size: Int
+        get() = queued.size
+
+    val isFull: Boolean
+        get() = queued.size >= capacity
+
+    /**
+     * Returns an entry to fill, reusing the buffer of a presented frame when possible.
+     */
+    fun obtain(): Entry = free.removeFirstOrNull() ?: Entry(ByteBuffer.allocate(bufferSizeBytes))
+
+    fun offer(entry: Entry) = queued.addLast(entry)
+
+    fun peek(): Entry? = queued.firstOrNull()
+
+    fun poll(): Entry? = queued.removeFirstOrNull()
+
+    fun recycle(entry: Entry) = free.addLast(entry)
+
+    /**
+     * Drops all queued frames and keeps their buffers for reuse.
+     */
+    fun clear() {
+        free.addAll(queued)
+        queued.clear()
+    }
+
+    fun getMemorySize(): Int = (queued.size + free.size) * bufferSizeBytes
+
+    companion object {
+        /**
+         * Returns the number of frames which can be queued for frames of [frameSizeBytes] bytes,
+         * limited by both [maxFrames] and [maxBytes].
+         */
+        fun capacityOf(maxFrames: Int, maxBytes: Int, frameSizeBytes: Int): Int {
+            if (frameSizeBytes <= 0) {
+                return 0
+            }
+            return minOf(maxFrames, maxBytes / frameSizeBytes).coerceAtLeast(0)
+        }
+    }
+}
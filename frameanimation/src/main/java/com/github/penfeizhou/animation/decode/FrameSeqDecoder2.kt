@@ -13,25 +13,12 @@ abstract class FrameSeqDecoder2(loader: Loader) : BaseFrameSeqDecoder(loader) {
      * Returns true when the sample size is changed.
      */
     fun setDesiredSize(width: Int, height: Int): Boolean {
-        val sample = getDesiredSample(width, height)
+        desiredSampleSize = getDesiredSample(width, height)
+        val sample = maxOf(desiredSampleSize, sampleSizeFloor)
         if (sample == sampleSize) {
             return false
         }
-        val isCurrentlyRunning = isRunning
-
-        frameLooper.ensureWorkerExecute {
-            innerStop()
-            sampleSize = sample
-            try {
-                initCanvasBounds()
-            } catch (e: IOException) {
-                e.printStackTrace()
-            }
-            if (isCurrentlyRunning) {
-                innerStart()
-            }
-        }
-
+        changeSampleSize(sample)
         return true
     }
 
@@ -61,22 +48,13 @@ abstract class FrameSeqDecoder2(loader: Loader) : BaseFrameSeqDecoder(loader) {
             initCanvasBounds()
         }
 
-        frameIndex = -1
-        while (frameIndex < index) {
-            if (canStep()) {
-                step()
-            } else {
-                break
-            }
+        if (frameCount == 0) {
+            innerStop()
+            return null
         }
-        val nonNullFrameBuffer = currentFrameBuffer ?: return null
-        val bounds = getViewport()
-        val bitmap = Bitmap.createBitmap(
-            bounds.width / sampleSize,
-            bounds.height / sampleSize,
-            Bitmap.Config.ARGB_8888
-        )
-        bitmap.copyPixelsFromBuffer(nonNullFrameBuffer)
+        frameIndex = -1
+        seekFrame(index.coerceAtMost(frameCount - 1))
+        val bitmap = copyCurrentFrame() ?: return null
         innerStop()
         return bitmap
     }
@@ -0,0 +1,136 @@
+package com.github.penfeizhou.animation.decode
+
+import android.content.ComponentCallbacks2
+import android.content.res.Configuration
+import android.os.Handler
+import android.os.Looper
+
+/**
+ * A process-wide budget for the memory held by all live decoders.
+ *
+ * The budget covers every decoder in [DecoderRegistry]. When the decoders hold more than the
+ * budget, memory is released from the least recently visible decoders first, in escalating steps:
+ * their bitmap pools are emptied, then their lookahead queues and seek snapshots are dropped, and
+ * finally the sample size of the decoders not visible for a few frames is doubled. The budget is
+ * not enforced until [setMaxSize] is called with a positive size.
+ *
+ * A sample size is raised at most once per episode of memory pressure, which ends once no sample
+ * size had to be raised for [PRESSURE_TIMEOUT_MS]. The decoders then get their desired sample size
+ * back, as far as the budget allows.
+ *
+ * Register it with [android.content.Context.registerComponentCallbacks] to release memory when
+ * the system is low on memory.
+ */
+object MemoryGovernor : ComponentCallbacks2 {
+    /**
+     * Steps of releasing memory from a decoder, from the cheapest to the most visible
+     */
+    internal enum class TrimLevel {
+        BITMAP_POOL, BUFFERS, SAMPLE_SIZE
+    }
+
+    /**
+     * How long after the last raise of a sample size an episode of memory pressure ends
+     */
+    private const val PRESSURE_TIMEOUT_MS = 10_000L
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val endPressureTask = Runnable { endPressure() }
+
+    @Volatile
+    private var maxSize = 0
+
+    /**
+     * Sets the total byte budget of all decoders and enforces it right away. 0 disables the
+     * budget.
+     */
+    fun setMaxSize(maxSizeBytes: Int) {
+        maxSize = maxSizeBytes.coerceAtLeast(0)
+        if (maxSize > 0) {
+            trim(maxSize, TrimLevel.SAMPLE_SIZE)
+        }
+    }
+
+    fun maxSize(): Int = maxSize
+
+    /**
+     * Returns the memory held by all live decoders
+     */
+    fun getMemorySize(): Long = DecoderRegistry.liveDecoders().sumOf { it.getMemorySize().toLong() }
+
+    /**
+     * Releases memory from the least recently visible decoders until all decoders hold at most
+     * [maxSizeBytes].
+     */
+    fun trimToSize(maxSizeBytes: Int) = trim(maxSizeBytes, TrimLevel.SAMPLE_SIZE)
+
+    /**
+     * Enforces the budget after [decoder] has allocated its buffers.
+     */
+    internal fun onAllocated(decoder: BaseFrameSeqDecoder) {
+        val maxSize = maxSize
+        if (maxSize > 0 && decoder.getMemorySize() > 0) {
+            trim(maxSize, TrimLevel.SAMPLE_SIZE)
+        }
+    }
+
+    private fun trim(maxSizeBytes: Int, deepest: TrimLevel) = synchronized(this) {
+        val decoders = DecoderRegistry.liveDecoders().sortedBy { it.lastVisibleTime }
+        var size = decoders.sumOf { it.getMemorySize().toLong() }
+        for (level in TrimLevel.values()) {
+            if (level > deepest) {
+                return@synchronized
+            }
+            for (decoder in decoders) {
+                if (size <= maxSizeBytes) {
+                    return@synchronized
+                }
+                val bytes = decoder.trimMemory(level)
+                if (level == TrimLevel.SAMPLE_SIZE && bytes > 0) {
+                    mainHandler.removeCallbacks(endPressureTask)
+                    mainHandler.postDelayed(endPressureTask, PRESSURE_TIMEOUT_MS)
+                }
+                size -= bytes
+            }
+        }
+    }
+
+    /**
+     * Gives the decoders whose sample size was raised their desired sample size back, the most
+     * recently visible first, as long as the budget is kept
+     */
+    private fun endPressure() = synchronized(this) {
+        val decoders = DecoderRegistry.liveDecoders()
+        val maxSize = maxSize
+        var size = decoders.sumOf { it.getMemorySize().toLong() }
+        for (decoder in decoders.sortedByDescending { it.lastVisibleTime }) {
+            if (decoder.sampleSizeFloor == 1) {
+                continue
+            }
+            val bytes = decoder.restoreSampleSizeCost()
+            if (maxSize > 0 && size + bytes > maxSize) {
+                continue
+            }
+            decoder.restoreSampleSize()
+            size += bytes
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        ) {
+            trim(0, TrimLevel.SAMPLE_SIZE)
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+        ) {
+            trim(0, TrimLevel.BUFFERS)
+        } else {
+            trim(0, TrimLevel.BITMAP_POOL)
+        }
+    }
+
+    override fun onLowMemory() = trim(0, TrimLevel.SAMPLE_SIZE)
+
+    override fun onConfigurationChanged(newConfig: Configuration) = Unit
+}
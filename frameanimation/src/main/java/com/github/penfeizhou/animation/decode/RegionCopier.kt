@@ -0,0 +1,162 @@
+package com.github.penfeizhou.animation.decode
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.Rect
+import java.nio.ByteBuffer
+
+/**
+ * Copies a damaged region between a canvas [Bitmap] and a [ByteBuffer] holding the raw pixels of
+ * a canvas of the same size.
+ *
+ * [Bitmap.copyPixelsToBuffer] and [Bitmap.copyPixelsFromBuffer] only copy whole bitmaps, so a
+ * region goes through a scratch bitmap and buffer, touching its pixels three times. That is only
+ * done when it copies fewer bytes than a whole canvas copy. [copiedBytes] counts the bytes copied
+ * either way.
+ */
+internal class RegionCopier {
+    private var scratchBitmap: Bitmap? = null
+    private var scratchCanvas: Canvas? = null
+    private var scratchBuffer: ByteBuffer? = null
+
+    private var targetBitmap: Bitmap? = null
+    private var targetCanvas: Canvas? = null
+
+    private val paint = Paint().apply { xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC) }
+    private val scratchRect = Rect()
+
+    /**
+     * Pixel bytes copied so far
+     */
+    var copiedBytes: Long = 0
+        private set
+
+    /**
+     * Copies [region] of [source] into [target] at the same position.
+     */
+    fun copyToBuffer(source: Bitmap, target: ByteBuffer, region: Rect) {
+        if (!isRegionCheaper(source, target, region)) {
+            target.rewind()
+            source.copyPixelsToBuffer(target)
+            copiedBytes += source.byteCount
+            return
+        }
+        val scratch = obtainScratch(region.width(), region.height())
+        scratchRect.set(0, 0, region.width(), region.height())
+        scratchCanvas?.drawBitmap(source, region, scratchRect, paint)
+        val buffer = obtainScratchBuffer(region)
+        scratch.copyPixelsToBuffer(buffer)
+
+        val rowBytes = region.width() * BYTES_PER_PIXEL
+        val canvasRowBytes = source.width * BYTES_PER_PIXEL
+        for (row in 0 until region.height()) {
+            System.arraycopy(
+                buffer.array(),
+                buffer.arrayOffset() + row * rowBytes,
+                target.array(),
+                target.arrayOffset() + (region.top + row) * canvasRowBytes +
+                    region.left * BYTES_PER_PIXEL,
+                rowBytes
+            )
+        }
+        copiedBytes += 3L * region.height() * rowBytes
+    }
+
+    /**
+     * Copies [region] of [source] into [target] at the same position, drawing with [canvas] if
+     * the caller already has one for [target].
+     */
+    fun copyFromBuffer(source: ByteBuffer, target: Bitmap, region: Rect, canvas: Canvas? = null) {
+        if (!isRegionCheaper(target, source, region)) {
+            source.rewind()
+            target.copyPixelsFromBuffer(source)
+            copiedBytes += target.byteCount
+            return
+        }
+        val buffer = obtainScratchBuffer(region)
+        val rowBytes = region.width() * BYTES_PER_PIXEL
+        val canvasRowBytes = target.width * BYTES_PER_PIXEL
+        for (row in 0 until region.height()) {
+            System.arraycopy(
+                source.array(),
+                source.arrayOffset() + (region.top + row) * canvasRowBytes +
+                    region.left * BYTES_PER_PIXEL,
+                buffer.array(),
+                buffer.arrayOffset() + row * rowBytes,
+                rowBytes
+            )
+        }
+        val scratch = obtainScratch(region.width(), region.height())
+        scratch.copyPixelsFromBuffer(buffer)
+        (canvas ?: canvasOf(target)).drawBitmap(scratch, null, region, paint)
+        copiedBytes += 3L * region.height() * rowBytes
+    }
+
+    private fun isRegionCheaper(bitmap: Bitmap, buffer: ByteBuffer, region: Rect): Boolean {
+        if (!buffer.hasArray() || region.isEmpty) {
+            return false
+        }
+        if (region.left < 0 || region.top < 0 ||
+            region.right > bitmap.width || region.bottom > bitmap.height
+        ) {
+            return false
+        }
+        return 3L * region.width() * region.height() < bitmap.width.toLong() * bitmap.height
+    }
+
+    private fun obtainScratch(width: Int, height: Int): Bitmap {
+        val scratch = scratchBitmap
+        if (scratch != null && !scratch.isRecycled) {
+            if (scratch.width == width && scratch.height == height) {
+                return scratch
+            }
+            if (scratch.allocationByteCount >= width * height * BYTES_PER_PIXEL) {
+                scratch.reconfigure(width, height, Bitmap.Config.ARGB_8888)
+                scratchCanvas = Canvas(scratch)
+                return scratch
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also {
+            scratchBitmap = it
+            scratchCanvas = Canvas(it)
+        }
+    }
+
+    private fun obtainScratchBuffer(region: Rect): ByteBuffer {
+        val bytes = region.width() * region.height() * BYTES_PER_PIXEL
+        val buffer = scratchBuffer?.takeIf { it.capacity() >= bytes }
+            ?: ByteBuffer.allocate(bytes).also { scratchBuffer = it }
+        buffer.clear()
+        buffer.limit(bytes)
+        return buffer
+    }
+
+    private fun canvasOf(bitmap: Bitmap): Canvas {
+        val canvas = targetCanvas
+        if (canvas != null && targetBitmap === bitmap) {
+            return canvas
+        }
+        return Canvas(bitmap).also {
+            targetBitmap = bitmap
+            targetCanvas = it
+        }
+    }
+
+    /**
+     * Drops the scratch bitmap and buffer. The copier can still be used afterwards.
+     */
+    fun clear() {
+        scratchBitmap = null
+        scratchCanvas = null
+        scratchBuffer = null
+        targetBitmap = null
+        targetCanvas = null
+    }
+
+    companion object {
+        private const val BYTES_PER_PIXEL = 4
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.penfeizhou.animation.decode
 
+import android.graphics.Bitmap
+import android.graphics.Rect
 import java.nio.ByteBuffer
 
 /**
@@ -12,10 +14,37 @@ interface RenderListener {
     fun onStart()
 
     /**
-     * Frame Playback
+     * Frame Playback in [BaseFrameSeqDecoder.RenderMode.BYTE_BUFFER]
      */
     fun onRender(byteBuffer: ByteBuffer)
 
+    /**
+     * Frame Playback in [BaseFrameSeqDecoder.RenderMode.BITMAP].
+     * [bitmap] is owned by the decoder and must not be modified or recycled. It can be drawn
+     * directly until a later frame is published.
+     */
+    fun onRender(bitmap: Bitmap) = Unit
+
+    /**
+     * Frame Playback in [BaseFrameSeqDecoder.RenderMode.BYTE_BUFFER], where only [damage], in
+     * canvas coordinates, changed since the previous frame delivered to any listener.
+     * Defaults to [onRender] without the damage.
+     */
+    fun onRender(byteBuffer: ByteBuffer, damage: Rect) = onRender(byteBuffer)
+
+    /**
+     * Frame Playback in [BaseFrameSeqDecoder.RenderMode.BITMAP], where only [damage], in canvas
+     * coordinates, changed since the previous frame delivered to any listener.
+     * Defaults to [onRender] without the damage.
+     */
+    fun onRender(bitmap: Bitmap, damage: Rect) = onRender(bitmap)
+
+    /**
+     * The decoder changed its sample size to [sampleSize], e.g. to release memory for
+     * [MemoryGovernor]. Later frames have the new size.
+     */
+    fun onSampleSizeChanged(sampleSize: Int) = Unit
+
     /**
      * End of Playback
      */
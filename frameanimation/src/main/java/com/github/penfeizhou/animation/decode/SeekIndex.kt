@@ -0,0 +1,100 @@
+package com.github.penfeizhou.animation.decode
+
+import java.nio.ByteBuffer
+import java.util.TreeMap
+
+/**
+ * Restore points for random access to frames.
+ *
+ * Key frames can be rendered onto a cleared canvas, so they need no storage. Between them, full
+ * canvas snapshots are recorded every [interval] frames while seeking, as long as they fit in the
+ * byte budget. The last frame sought is kept as well, so sequential access only renders one frame
+ * per call.
+ */
+internal class SeekIndex(
+    val sampleSize: Int,
+    val frameCount: Int,
+    private val keyFrames: IntArray,
+    private val frameSizeBytes: Int,
+    maxBytes: Int
+) {
+    private val snapshots = TreeMap<Int, ByteBuffer>()
+    private val maxSnapshots = if (frameSizeBytes > 0) maxBytes / frameSizeBytes else 0
+
+    private val interval: Int =
+        if (maxSnapshots <= 0) {
+            Int.MAX_VALUE
+        } else {
+            maxOf(MIN_INTERVAL, (frameCount + maxSnapshots - 1) / maxSnapshots)
+        }
+
+    private var cursorIndex = -1
+    private var cursor: ByteBuffer? = null
+
+    /**
+     * Returns the closest key frame at or before [index]. Frame 0 is always a key frame.
+     */
+    fun floorKeyFrame(index: Int): Int {
+        var low = 0
+        var high = keyFrames.size - 1
+        var result = 0
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (keyFrames[mid] <= index) {
+                result = keyFrames[mid]
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+        return result
+    }
+
+    /**
+     * Returns the closest snapshot at or before [index], or -1 if there is none.
+     */
+    fun floorSnapshot(index: Int): Int {
+        val periodic = snapshots.floorKey(index) ?: -1
+        return if (cursorIndex in (periodic + 1)..index) cursorIndex else periodic
+    }
+
+    fun snapshotAt(index: Int): ByteBuffer? =
+        if (index == cursorIndex) cursor else snapshots[index]
+
+    /**
+     * Returns a buffer to record the snapshot of frame [index] into, or null if the frame is not
+     * due for a periodic snapshot or the budget is used up.
+     */
+    fun bufferForRecord(index: Int): ByteBuffer? {
+        if (index % interval != 0 ||
+            snapshots.size >= maxSnapshots ||
+            snapshots.containsKey(index)
+        ) {
+            return null
+        }
+        return ByteBuffer.allocate(frameSizeBytes).also { snapshots[index] = it }
+    }
+
+    /**
+     * Returns the buffer to record the snapshot of the last frame sought, [index], into.
+     */
+    fun cursorBuffer(index: Int): ByteBuffer {
+        cursorIndex = index
+        return cursor ?: ByteBuffer.allocate(frameSizeBytes).also { cursor = it }
+    }
+
+    /**
+     * Drops all recorded snapshots. Key frames are kept.
+     */
+    fun dropSnapshots() {
+        snapshots.clear()
+        cursorIndex = -1
+        cursor = null
+    }
+
+    fun getMemorySize(): Int = (snapshots.size + if (cursor != null) 1 else 0) * frameSizeBytes
+
+    companion object {
+        private const val MIN_INTERVAL = 8
+    }
+}
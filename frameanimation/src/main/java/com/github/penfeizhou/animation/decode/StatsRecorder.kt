@@ -0,0 +1,42 @@
+package com.github.penfeizhou.animation.decode
+
+/**
+ * Cumulative measurements of a decoder. Written on the decoder's worker thread only, read from any
+ * thread by [BaseFrameSeqDecoder.getStats].
+ */
+internal class StatsRecorder {
+    @Volatile
+    var parseNanos = 0L
+
+    @Volatile
+    var renderedFrames = 0L
+
+    @Volatile
+    var renderNanos = 0L
+
+    @Volatile
+    var maxRenderNanos = 0L
+
+    @Volatile
+    var compositedFrames = 0L
+
+    @Volatile
+    var compositeNanos = 0L
+
+    @Volatile
+    var copyNanos = 0L
+
+    fun recordRender(nanos: Long) {
+        renderedFrames++
+        renderNanos += nanos
+        if (nanos > maxRenderNanos) {
+            maxRenderNanos = nanos
+        }
+    }
+
+    fun recordComposite(nanos: Long, copyNanos: Long) {
+        compositedFrames++
+        compositeNanos += nanos
+        this.copyNanos += copyNanos
+    }
+}
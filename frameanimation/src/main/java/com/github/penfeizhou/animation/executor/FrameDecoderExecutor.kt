@@ -2,32 +2,220 @@ package com.github.penfeizhou.animation.executor
 
 import android.os.HandlerThread
 import android.os.Looper
+import android.os.SystemClock
 import java.util.concurrent.atomic.AtomicInteger
 
+/**
+ * The pool of worker threads which decode frames.
+ *
+ * Decoders are assigned to the least loaded worker and may later migrate to another worker when
+ * theirs is much busier, see [migrate]. Each worker measures the time spent decoding
+ * and reports it as [WorkerStats.utilization].
+ */
 class FrameDecoderExecutor private constructor() {
-    private val handlerThreads = mutableMapOf<Int, HandlerThread>()
-    private val counter = AtomicInteger(0)
+    /**
+     * A worker thread and the decode time measured on it
+     */
+    class Worker internal constructor(val id: Int) {
+        private var handlerThread: HandlerThread? = null
+
+        // Guarded by this
+        private var windowStart = SystemClock.uptimeMillis()
+        private var windowBusyNanos = 0L
+
+        private var lastUtilization = 0f
+
+        /**
+         * Load moved onto this worker by migrations since [lastUtilization] was measured, negative
+         * if moved away
+         */
+        private var migratedLoad = 0f
+
+        /**
+         * The fraction of time spent decoding over the last complete measurement window
+         */
+        val utilization: Float
+            @Synchronized get() {
+                rollWindow()
+                return lastUtilization
+            }
 
-    var poolSize: Int = 4
+        /**
+         * [utilization] plus the load of decoders which migrated since it was measured
+         */
+        internal val projectedUtilization: Float
+            @Synchronized get() {
+                rollWindow()
+                return lastUtilization + migratedLoad
+            }
+
+        /**
+         * The number of decoders playing on this worker, counted between [attach] and [detach]
+         */
+        internal val decoderCount = AtomicInteger(0)
+
+        val looper: Looper
+            @Synchronized get() {
+                val looper = handlerThread?.looper
+                if (looper != null) {
+                    return looper
+                }
+                return HandlerThread("FrameDecoderExecutor-$id")
+                    .also {
+                        it.start()
+                        handlerThread = it
+                    }
+                    .looper ?: Looper.getMainLooper()
+            }
+
+        /**
+         * Records [nanos] nanoseconds spent decoding on this worker.
+         */
+        @Synchronized
+        internal fun recordBusy(nanos: Long) {
+            rollWindow()
+            windowBusyNanos += nanos
+        }
 
-    fun getLooper(taskId: Int): Looper {
-        val idx = taskId % poolSize
-        val handlerThread = handlerThreads.getOrPut(idx) { createAndStart(idx) }
-        if (handlerThread.looper == null) {
-            handlerThreads[idx] = createAndStart(idx)
+        @Synchronized
+        internal fun moveLoad(load: Float) {
+            rollWindow()
+            migratedLoad += load
         }
-        return handlerThreads[idx]?.looper ?: Looper.getMainLooper()
+
+        private fun rollWindow() {
+            val now = SystemClock.uptimeMillis()
+            val elapsedMillis = now - windowStart
+            if (elapsedMillis >= WINDOW_MS) {
+                lastUtilization = (windowBusyNanos / 1_000_000f / elapsedMillis).coerceAtMost(1f)
+                windowStart = now
+                windowBusyNanos = 0
+                migratedLoad = 0f
+            }
+        }
+
+        fun getStats(): WorkerStats = WorkerStats(
+            name = "FrameDecoderExecutor-$id",
+            utilization = utilization,
+            decoderCount = decoderCount.get()
+        )
     }
 
-    private fun createAndStart(id: Int): HandlerThread {
-        val handlerThread = HandlerThread("FrameDecoderExecutor-$id")
-        handlerThread.start()
-        return handlerThread
+    data class WorkerStats(
+        val name: String,
+        /**
+         * The fraction of time spent decoding, between 0 and 1
+         */
+        val utilization: Float,
+        val decoderCount: Int
+    )
+
+    // Guarded by this
+    private val workers = mutableMapOf<Int, Worker>()
+    private val counter = AtomicInteger(0)
+
+    /**
+     * The number of worker threads, by default one per core except one left for the UI thread,
+     * capped at [MAX_DEFAULT_POOL_SIZE]. A change only affects later assignments.
+     */
+    @Volatile
+    var poolSize: Int = defaultPoolSize()
+        set(value) {
+            field = value.coerceAtLeast(1)
+        }
+
+    private fun worker(index: Int): Worker = synchronized(this) {
+        workers.getOrPut(index) { Worker(index) }
+    }
+
+    /**
+     * Returns the looper of worker `taskId % poolSize`, a fixed assignment without load balancing.
+     */
+    fun getLooper(taskId: Int): Looper = worker(taskId % poolSize).looper
+
+    /**
+     * Picks the worker of a new decoder, the least utilized one, preferring the one with fewer
+     * decoders. The decoder is counted once it [attach]es.
+     */
+    internal fun acquireWorker(): Worker = synchronized(this) {
+        (0 until poolSize)
+            .map(::worker)
+            .minWithOrNull(compareBy({ it.projectedUtilization }, { it.decoderCount.get() }))
+            ?: worker(0)
+    }
+
+    /**
+     * Counts a decoder which starts playing on [worker]
+     */
+    internal fun attach(worker: Worker) {
+        worker.decoderCount.incrementAndGet()
+    }
+
+    /**
+     * Stops counting a decoder which stopped playing on [worker]
+     */
+    internal fun detach(worker: Worker) {
+        worker.decoderCount.decrementAndGet()
+    }
+
+    /**
+     * Moves a decoder which uses [load] of [current]'s time to a less utilized worker and returns
+     * it, or returns null if moving it would not lower the load of the busiest of both by a
+     * meaningful margin. The decoder is counted on the returned worker if [attached].
+     *
+     * Load moved during the current window counts on both workers, so decoders leaving the same
+     * busy worker spread out instead of all moving to the same target.
+     */
+    internal fun migrate(current: Worker, load: Float, attached: Boolean): Worker? =
+        synchronized(this) {
+            val currentUtilization = current.projectedUtilization
+            if (currentUtilization < MIGRATION_THRESHOLD) {
+                return null
+            }
+            val target = (0 until poolSize)
+                .map(::worker)
+                .filter { it !== current }
+                .minByOrNull { it.projectedUtilization }
+                ?.takeIf {
+                    it.projectedUtilization + load < currentUtilization - MIGRATION_MARGIN
+                }
+                ?: return null
+            current.moveLoad(-load)
+            target.moveLoad(load)
+            if (attached) {
+                detach(current)
+                attach(target)
+            }
+            target
+        }
+
+    /**
+     * Returns the stats of every worker started so far
+     */
+    fun getWorkerStats(): List<WorkerStats> = synchronized(this) {
+        workers.values.sortedBy { it.id }.map { it.getStats() }
     }
 
     fun generateTaskId(): Int = counter.getAndIncrement()
 
     companion object {
         val instance = FrameDecoderExecutor()
+
+        private const val MAX_DEFAULT_POOL_SIZE = 4
+
+        /**
+         * Utilization is measured over windows of this length
+         */
+        internal const val WINDOW_MS = 1000L
+
+        /**
+         * Workers less utilized than this never give decoders away
+         */
+        private const val MIGRATION_THRESHOLD = 0.5f
+
+        private const val MIGRATION_MARGIN = 0.1f
+
+        private fun defaultPoolSize(): Int =
+            (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, MAX_DEFAULT_POOL_SIZE)
     }
 }
@@ -0,0 +1,273 @@
+package com.github.penfeizhou.animation.io
+
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+
+/**
+ * A [SeekableReader] over a stream which does not need to support [InputStream.reset].
+ *
+ * Every byte read from [inputStream] is kept, in memory up to [maxMemoryBytes] and in a temporary
+ * file in [spillDirectory] beyond that, so rewinding and seeking over bytes already read never go
+ * back to the stream. Seeking forward reads the stream through.
+ */
+class BufferedStreamReader @JvmOverloads constructor(
+    private val inputStream: InputStream,
+    private val maxMemoryBytes: Int = DEFAULT_MAX_MEMORY_BYTES,
+    /**
+     * Where to spill the stream beyond [maxMemoryBytes], null for the default temporary directory
+     */
+    private val spillDirectory: File? = null
+) : SeekableReader {
+    private var memory = ByteArray(minOf(INITIAL_MEMORY_BYTES, maxMemoryBytes.coerceAtLeast(1)))
+    private var spillFile: File? = null
+    private var spill: RandomAccessFile? = null
+    private val chunk = ByteArray(CHUNK_BYTES)
+
+    /**
+     * Bytes of the spill file around the last small read, so that reading a field at a time does
+     * not seek the file for every byte
+     */
+    private val window = ByteArray(CHUNK_BYTES)
+    private var windowStart = 0
+    private var windowLength = 0
+
+    /**
+     * Bytes read from the stream so far, all of them kept
+     */
+    private var buffered = 0
+    private var position = 0
+    private var endOfStream = false
+
+    /**
+     * End of the furthest range read so far, anything read below it is read again
+     */
+    private var readHighWater = 0
+
+    /**
+     * Bytes read from [inputStream]
+     */
+    val sourceBytes: Long
+        get() = buffered.toLong()
+
+    /**
+     * Bytes read more than once, served from the kept copy instead of the stream
+     */
+    var reReadBytes: Long = 0
+        private set
+
+    /**
+     * Bytes of heap memory held, at most [maxMemoryBytes] plus two small buffers
+     */
+    val memorySize: Int
+        get() = memory.size + chunk.size + window.size
+
+    /**
+     * Whether the stream outgrew [maxMemoryBytes] and is kept in a file
+     */
+    val isSpilled: Boolean
+        get() = spill != null
+
+    @Throws(IOException::class)
+    override fun peek(): Byte {
+        if (position >= buffered && !fill(position + 1)) {
+            // Matches InputStream.read() at the end of the stream
+            return -1
+        }
+        val value = if (spill == null) memory[position] else readSpilled(position)
+        count(position, 1)
+        position++
+        return value
+    }
+
+    @Throws(IOException::class)
+    override fun read(buffer: ByteArray, start: Int, byteCount: Int): Int {
+        val count = read(position, buffer, start, byteCount)
+        if (count > 0) {
+            position += count
+        }
+        return count
+    }
+
+    @Throws(IOException::class)
+    override fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int {
+        if (byteCount <= 0) {
+            return 0
+        }
+        fill(position + byteCount)
+        val count = minOf(byteCount, buffered - position)
+        if (count <= 0) {
+            return -1
+        }
+        readStored(position, buffer, start, count)
+        count(position, count)
+        return count
+    }
+
+    @Throws(IOException::class)
+    override fun skip(total: Long): Long {
+        val target = (position + total.coerceAtLeast(0)).coerceAtMost(Int.MAX_VALUE.toLong())
+        fill(target.toInt())
+        val skipped = minOf(target.toInt(), buffered) - position
+        position += skipped
+        return skipped.toLong()
+    }
+
+    @Throws(IOException::class)
+    override fun seek(position: Int) {
+        fill(position)
+        this.position = position.coerceIn(0, buffered)
+    }
+
+    override fun reset() {
+        position = 0
+    }
+
+    override fun position(): Int = position
+
+    @Throws(IOException::class)
+    override fun available(): Int =
+        buffered - position + if (endOfStream) 0 else inputStream.available()
+
+    @Throws(IOException::class)
+    override fun close() {
+        try {
+            inputStream.close()
+        } finally {
+            spill?.close()
+            spill = null
+            spillFile?.delete()
+            spillFile = null
+        }
+    }
+
+    override fun toInputStream(): InputStream = object : InputStream() {
+        private var mark = 0
+
+        override fun read(): Int {
+            if (position >= buffered && !fill(position + 1)) {
+                return -1
+            }
+            return peek().toInt() and 0xff
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            this@BufferedStreamReader.read(b, off, len)
+
+        override fun skip(n: Long): Long = this@BufferedStreamReader.skip(n)
+
+        override fun available(): Int = this@BufferedStreamReader.available()
+
+        override fun markSupported(): Boolean = true
+
+        override fun mark(readlimit: Int) {
+            mark = position
+        }
+
+        override fun reset() {
+            position = mark
+        }
+
+        override fun close() = this@BufferedStreamReader.close()
+    }
+
+    /**
+     * Reads the stream until [end] bytes are kept, returns false if it ends before.
+     */
+    @Throws(IOException::class)
+    private fun fill(end: Int): Boolean {
+        while (buffered < end && !endOfStream) {
+            val count = inputStream.read(chunk, 0, minOf(chunk.size, end - buffered))
+            if (count < 0) {
+                endOfStream = true
+            } else if (count > 0) {
+                store(chunk, count)
+            }
+        }
+        return buffered >= end
+    }
+
+    @Throws(IOException::class)
+    private fun store(bytes: ByteArray, count: Int) {
+        val spill = spill ?: if (buffered + count > maxMemoryBytes) spillMemory() else null
+        if (spill != null) {
+            spill.seek(buffered.toLong())
+            spill.write(bytes, 0, count)
+        } else {
+            if (buffered + count > memory.size) {
+                val size = maxOf(buffered + count, minOf(memory.size * 2, maxMemoryBytes))
+                memory = memory.copyOf(size)
+            }
+            System.arraycopy(bytes, 0, memory, buffered, count)
+        }
+        buffered += count
+    }
+
+    /**
+     * Moves what is kept in memory to a temporary file
+     */
+    @Throws(IOException::class)
+    private fun spillMemory(): RandomAccessFile {
+        val file = File.createTempFile("stream", ".tmp", spillDirectory)
+        file.deleteOnExit()
+        val spill = RandomAccessFile(file, "rw")
+        spill.write(memory, 0, buffered)
+        spillFile = file
+        this.spill = spill
+        memory = ByteArray(0)
+        return spill
+    }
+
+    @Throws(IOException::class)
+    private fun readStored(position: Int, buffer: ByteArray, start: Int, count: Int) {
+        val spill = spill
+        when {
+            spill == null -> System.arraycopy(memory, position, buffer, start, count)
+            count >= window.size -> {
+                spill.seek(position.toLong())
+                spill.readFully(buffer, start, count)
+            }
+            else -> {
+                loadWindow(position, count)
+                System.arraycopy(window, position - windowStart, buffer, start, count)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun readSpilled(position: Int): Byte {
+        loadWindow(position, 1)
+        return window[position - windowStart]
+    }
+
+    /**
+     * Loads the spill file from [position] into [window], unless it already holds [count] bytes
+     * from there. Bytes kept are never rewritten, so the window never goes stale.
+     */
+    @Throws(IOException::class)
+    private fun loadWindow(position: Int, count: Int) {
+        if (position >= windowStart && position + count <= windowStart + windowLength) {
+            return
+        }
+        val spill = spill ?: return
+        windowStart = position
+        windowLength = minOf(window.size, buffered - position)
+        spill.seek(position.toLong())
+        spill.readFully(window, 0, windowLength)
+    }
+
+    private fun count(position: Int, count: Int) {
+        val end = position + count
+        if (position < readHighWater) {
+            reReadBytes += minOf(end, readHighWater) - position
+        }
+        readHighWater = maxOf(readHighWater, end)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_MEMORY_BYTES = 256 * 1024
+        private const val INITIAL_MEMORY_BYTES = 64 * 1024
+        private const val CHUNK_BYTES = 8 * 1024
+    }
+}
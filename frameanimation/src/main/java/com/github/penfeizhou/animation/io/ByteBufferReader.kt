@@ -1,15 +1,17 @@
 package com.github.penfeizhou.animation.io
 
 import java.io.ByteArrayInputStream
+import java.io.EOFException
 import java.io.InputStream
 import java.nio.ByteBuffer
+import java.nio.ByteOrder
 
 /**
  * @Description: APNG4Android
  * @Author: pengfei.zhou
  * @CreateDate: 2019-05-14
  */
-class ByteBufferReader(private val byteBuffer: ByteBuffer) : Reader {
+class ByteBufferReader(private val byteBuffer: ByteBuffer) : SeekableReader {
     init {
         byteBuffer.position(0)
     }
@@ -32,11 +34,98 @@ class ByteBufferReader(private val byteBuffer: ByteBuffer) : Reader {
         return byteCount
     }
 
+    override fun seek(position: Int) {
+        byteBuffer.position(position)
+    }
+
+    override fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int {
+        val current = byteBuffer.position()
+        byteBuffer.position(position)
+        val count = minOf(byteCount, byteBuffer.remaining())
+        byteBuffer.get(buffer, start, count)
+        byteBuffer.position(current)
+        return count
+    }
+
+    override fun asByteBuffer(): ByteBuffer = byteBuffer.duplicate()
+
     override fun available(): Int {
         return byteBuffer.limit() - byteBuffer.position()
     }
 
+    override fun readFully(buffer: ByteArray, start: Int, byteCount: Int) {
+        requireRemaining(byteCount)
+        byteBuffer.get(buffer, start, byteCount)
+    }
+
+    override fun readU16LE(): Int {
+        requireRemaining(2)
+        return byteBuffer.short.inOrder(ByteOrder.LITTLE_ENDIAN) and 0xffff
+    }
+
+    override fun readU16BE(): Int {
+        requireRemaining(2)
+        return byteBuffer.short.inOrder(ByteOrder.BIG_ENDIAN) and 0xffff
+    }
+
+    override fun readU32LE(): Int {
+        requireRemaining(4)
+        return byteBuffer.int.inOrder(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    override fun readU32BE(): Int {
+        requireRemaining(4)
+        return byteBuffer.int.inOrder(ByteOrder.BIG_ENDIAN)
+    }
+
+    override fun readFourCC(): Int = readU32LE()
+
+    private fun requireRemaining(byteCount: Int) {
+        if (byteBuffer.remaining() < byteCount) {
+            throw EOFException()
+        }
+    }
+
+    /**
+     * Reorders a value read in the buffer's byte order to [order]
+     */
+    private fun Short.inOrder(order: ByteOrder): Int =
+        (if (byteBuffer.order() == order) this else java.lang.Short.reverseBytes(this)).toInt()
+
+    private fun Int.inOrder(order: ByteOrder): Int =
+        if (byteBuffer.order() == order) this else Integer.reverseBytes(this)
+
     override fun close() = Unit
 
-    override fun toInputStream(): InputStream = ByteArrayInputStream(byteBuffer.array())
+    override fun toInputStream(): InputStream =
+        if (byteBuffer.hasArray()) {
+            ByteArrayInputStream(byteBuffer.array())
+        } else {
+            // Direct and memory-mapped buffers have no backing array
+            ByteBufferInputStream(byteBuffer.duplicate().apply { position(0) })
+        }
+
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xff else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) {
+                return 0
+            }
+            if (!buffer.hasRemaining()) {
+                return -1
+            }
+            val count = minOf(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun skip(n: Long): Long {
+            val count = minOf(n, buffer.remaining().toLong()).coerceAtLeast(0).toInt()
+            buffer.position(buffer.position() + count)
+            return count.toLong()
+        }
+
+        override fun available(): Int = buffer.remaining()
+    }
 }
@@ -1,21 +1,43 @@
 package com.github.penfeizhou.animation.io
 
 import java.io.File
+import java.io.FileInputStream
 import java.io.IOException
+import java.nio.ByteBuffer
 
 /**
  * @Description: FileReader
  * @Author: pengfei.zhou
  * @CreateDate: 2019-05-23
  */
-class FileReader(private val file: File) : FilterReader(file.toReader()) {
+class FileReader private constructor(
+    private val stream: FileInputStream
+) : FilterReader(StreamReader(stream)) {
+
+    constructor(file: File) : this(FileInputStream(file))
+
     @Throws(IOException::class)
-    override fun reset() {
-        reader.close()
-        reader = file.toReader()
+    override fun reset() = seek(0)
+
+    /**
+     * Moves the file channel, without reopening the file or reading through it
+     */
+    @Throws(IOException::class)
+    override fun seek(position: Int) {
+        stream.channel.position(position.toLong())
+        reader = StreamReader(stream, position)
     }
 
-    companion object {
-        private fun File.toReader(): Reader = StreamReader(inputStream())
+    @Throws(IOException::class)
+    override fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int {
+        val target = ByteBuffer.wrap(buffer, start, byteCount)
+        val channel = stream.channel
+        while (target.hasRemaining()) {
+            val count = channel.read(target, position.toLong() + target.position() - start)
+            if (count < 0) {
+                break
+            }
+        }
+        return target.position() - start
     }
 }
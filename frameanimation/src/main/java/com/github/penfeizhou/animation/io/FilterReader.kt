@@ -2,6 +2,7 @@ package com.github.penfeizhou.animation.io
 
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
 
 /**
  * @Description: FilterReader
@@ -10,7 +11,7 @@ import java.io.InputStream
  */
 open class FilterReader(
     protected var reader: Reader
-) : Reader {
+) : SeekableReader {
     @Throws(IOException::class)
     override fun skip(total: Long): Long = reader.skip(total)
 
@@ -26,9 +27,58 @@ open class FilterReader(
     override fun read(buffer: ByteArray, start: Int, byteCount: Int): Int =
         reader.read(buffer, start, byteCount)
 
+    /**
+     * Moves to [position] directly when the wrapped reader is a [SeekableReader], otherwise
+     * resets and skips forward.
+     */
+    @Throws(IOException::class)
+    override fun seek(position: Int) {
+        val reader = reader
+        if (reader is SeekableReader) {
+            reader.seek(position)
+        } else {
+            reset()
+            skip(position.toLong())
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int {
+        val reader = reader
+        if (reader is SeekableReader) {
+            return reader.read(position, buffer, start, byteCount)
+        }
+        val current = position()
+        seek(position)
+        val count = read(buffer, start, byteCount)
+        seek(current)
+        return count
+    }
+
+    override fun asByteBuffer(): ByteBuffer? = (reader as? SeekableReader)?.asByteBuffer()
+
     @Throws(IOException::class)
     override fun available(): Int = reader.available()
 
+    @Throws(IOException::class)
+    override fun readFully(buffer: ByteArray, start: Int, byteCount: Int) =
+        reader.readFully(buffer, start, byteCount)
+
+    @Throws(IOException::class)
+    override fun readU16LE(): Int = reader.readU16LE()
+
+    @Throws(IOException::class)
+    override fun readU16BE(): Int = reader.readU16BE()
+
+    @Throws(IOException::class)
+    override fun readU32LE(): Int = reader.readU32LE()
+
+    @Throws(IOException::class)
+    override fun readU32BE(): Int = reader.readU32BE()
+
+    @Throws(IOException::class)
+    override fun readFourCC(): Int = reader.readFourCC()
+
     @Throws(IOException::class)
     override fun close() = reader.close()
 
@@ -0,0 +1,9 @@
+package com.github.penfeizhou.animation.io
+
+import java.io.EOFException
+
+/**
+ * Thrown when reading past the bytes of a source which has not fully arrived yet, see
+ * [ProgressiveBuffer]. Parsers stop at it and keep what they parsed so far.
+ */
+class IncompleteSourceException : EOFException("The source has not fully arrived yet")
@@ -0,0 +1,210 @@
+package com.github.penfeizhou.animation.io
+
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.CopyOnWriteArraySet
+
+/**
+ * The bytes of a source which arrive over time, e.g. while it downloads.
+ *
+ * Readers obtained by [newReader] see the bytes arrived so far. Reading past them throws
+ * [IncompleteSourceException] until the source is complete, after which the reader ends there as
+ * any other reader would.
+ */
+class ProgressiveBuffer {
+    private val lock = Any()
+
+    /**
+     * Bytes are only ever appended, and a grown array holds all bytes of the previous one, so
+     * readers can use any array they see for the [size] they saw before it
+     */
+    @Volatile
+    private var data = ByteArray(INITIAL_BYTES)
+
+    /**
+     * Bytes arrived so far
+     */
+    @Volatile
+    var size = 0
+        private set
+
+    /**
+     * Whether all bytes arrived, or the source failed and no more will
+     */
+    @Volatile
+    var isComplete = false
+        private set
+
+    /**
+     * Why the source failed, if it did
+     */
+    @Volatile
+    var error: IOException? = null
+        private set
+
+    private val listeners = CopyOnWriteArraySet<Runnable>()
+
+    fun append(bytes: ByteArray, start: Int, byteCount: Int) {
+        synchronized(lock) {
+            check(!isComplete) { "The source is complete" }
+            if (size + byteCount > data.size) {
+                data = data.copyOf(maxOf(size + byteCount, data.size * 2))
+            }
+            System.arraycopy(bytes, start, data, size, byteCount)
+            size += byteCount
+        }
+        notifyListeners()
+    }
+
+    fun complete() {
+        synchronized(lock) {
+            if (isComplete) {
+                return
+            }
+            isComplete = true
+        }
+        notifyListeners()
+    }
+
+    /**
+     * Appends everything read from [inputStream] until it ends or fails, then completes and
+     * closes it. It blocks while waiting for the stream.
+     */
+    fun drain(inputStream: InputStream) {
+        val chunk = ByteArray(CHUNK_BYTES)
+        try {
+            while (true) {
+                val count = inputStream.read(chunk)
+                if (count < 0) {
+                    break
+                }
+                append(chunk, 0, count)
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            error = e
+        } finally {
+            try {
+                inputStream.close()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+            complete()
+        }
+    }
+
+    /**
+     * Runs [listener] on the thread appending bytes whenever bytes arrive or the source completes
+     */
+    fun addListener(listener: Runnable) {
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: Runnable) {
+        listeners.remove(listener)
+    }
+
+    private fun notifyListeners() {
+        for (listener in listeners) {
+            listener.run()
+        }
+    }
+
+    fun newReader(): SeekableReader = ProgressiveReader()
+
+    private inner class ProgressiveReader : SeekableReader {
+        private var position = 0
+
+        /**
+         * Returns how many of [byteCount] bytes from [position] arrived, throwing if none did and
+         * more may still arrive
+         */
+        @Throws(IncompleteSourceException::class)
+        private fun arrived(position: Int, byteCount: Int): Int {
+            val count = minOf(byteCount, size - position)
+            if (count <= 0 && byteCount > 0 && !isComplete) {
+                throw IncompleteSourceException()
+            }
+            return count
+        }
+
+        @Throws(IOException::class)
+        override fun peek(): Byte {
+            if (arrived(position, 1) <= 0) {
+                // Matches InputStream.read() at the end of the stream
+                return -1
+            }
+            return data[position++]
+        }
+
+        @Throws(IOException::class)
+        override fun read(buffer: ByteArray, start: Int, byteCount: Int): Int {
+            val count = read(position, buffer, start, byteCount)
+            if (count > 0) {
+                position += count
+            }
+            return count
+        }
+
+        @Throws(IOException::class)
+        override fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int {
+            val count = arrived(position, byteCount)
+            if (count <= 0) {
+                return if (byteCount > 0) -1 else 0
+            }
+            System.arraycopy(data, position, buffer, start, count)
+            return count
+        }
+
+        /**
+         * Skipping past the arrived bytes throws, so that a chunk is never taken as complete
+         * before its data arrived
+         */
+        @Throws(IOException::class)
+        override fun skip(total: Long): Long {
+            val size = size
+            if (position + total > size && !isComplete) {
+                throw IncompleteSourceException()
+            }
+            val skipped = minOf(total, (size - position).toLong()).coerceAtLeast(0)
+            position += skipped.toInt()
+            return skipped
+        }
+
+        @Throws(IOException::class)
+        override fun seek(position: Int) {
+            val size = size
+            if (position > size && !isComplete) {
+                throw IncompleteSourceException()
+            }
+            this.position = position.coerceIn(0, size)
+        }
+
+        override fun reset() {
+            position = 0
+        }
+
+        override fun position(): Int = position
+
+        override fun available(): Int = size - position
+
+        override fun asByteBuffer(): ByteBuffer {
+            val size = size
+            return ByteBuffer.wrap(data, 0, size)
+        }
+
+        override fun close() = Unit
+
+        override fun toInputStream(): InputStream {
+            val size = size
+            return ByteArrayInputStream(data, 0, size)
+        }
+    }
+
+    companion object {
+        private const val INITIAL_BYTES = 64 * 1024
+        private const val CHUNK_BYTES = 16 * 1024
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.penfeizhou.animation.io
 
+import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
 
@@ -26,6 +27,53 @@ interface Reader {
     @Throws(IOException::class)
     fun available(): Int
 
+    /**
+     * Reads exactly [byteCount] bytes into [buffer] from [start].
+     * Throws [EOFException] if the source ends before.
+     */
+    @Throws(IOException::class)
+    fun readFully(buffer: ByteArray, start: Int = 0, byteCount: Int = buffer.size - start) {
+        var offset = 0
+        while (offset < byteCount) {
+            val count = read(buffer, start + offset, byteCount - offset)
+            if (count <= 0) {
+                throw EOFException()
+            }
+            offset += count
+        }
+    }
+
+    /**
+     * Reads a 16-bit little-endian unsigned integer
+     */
+    @Throws(IOException::class)
+    fun readU16LE(): Int = (peek().toInt() and 0xff) or (peek().toInt() and 0xff shl 8)
+
+    /**
+     * Reads a 16-bit big-endian unsigned integer
+     */
+    @Throws(IOException::class)
+    fun readU16BE(): Int = (peek().toInt() and 0xff shl 8) or (peek().toInt() and 0xff)
+
+    /**
+     * Reads a 32-bit little-endian integer
+     */
+    @Throws(IOException::class)
+    fun readU32LE(): Int = readU16LE() or (readU16LE() shl 16)
+
+    /**
+     * Reads a 32-bit big-endian integer
+     */
+    @Throws(IOException::class)
+    fun readU32BE(): Int = (readU16BE() shl 16) or readU16BE()
+
+    /**
+     * Reads a FourCC, four ASCII characters packed into an integer with the first character in
+     * the lowest byte
+     */
+    @Throws(IOException::class)
+    fun readFourCC(): Int = readU32LE()
+
     /**
      * close io
      */
@@ -0,0 +1,29 @@
+package com.github.penfeizhou.animation.io
+
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * A [Reader] which can move to any position directly, instead of resetting to the start and
+ * skipping forward.
+ */
+interface SeekableReader : Reader {
+    /**
+     * Moves to [position], counted from the start of the source.
+     */
+    @Throws(IOException::class)
+    fun seek(position: Int)
+
+    /**
+     * Reads up to [byteCount] bytes at [position] into [buffer] from [start], without moving the
+     * current position. Returns the number of bytes read.
+     */
+    @Throws(IOException::class)
+    fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int
+
+    /**
+     * Returns the source as a buffer of its own, with positions counted from index 0, if it is
+     * held in memory. Native decoders read it directly instead of calling back into the reader.
+     */
+    fun asByteBuffer(): ByteBuffer? = null
+}
@@ -10,8 +10,17 @@ import kotlin.jvm.Synchronized
  * @Author: pengfei.zhou
  * @CreateDate: 2019-05-11
  */
-class StreamReader(inputStream: InputStream) : FilterInputStream(inputStream), Reader {
-    private var position = 0
+class StreamReader @JvmOverloads constructor(
+    inputStream: InputStream,
+    /**
+     * The position of [inputStream] in the source, when it does not start at the beginning
+     */
+    private var position: Int = 0
+) : FilterInputStream(inputStream), SeekableReader {
+    /**
+     * Scratch for typed reads
+     */
+    private val scratch = ByteArray(4)
 
     init {
         try {
@@ -51,5 +60,66 @@ class StreamReader(inputStream: InputStream) : FilterInputStream(inputStream), R
 
     override fun position(): Int = position
 
+    @Throws(IOException::class)
+    override fun readU16LE(): Int {
+        readFully(scratch, 0, 2)
+        return (scratch[0].toInt() and 0xff) or (scratch[1].toInt() and 0xff shl 8)
+    }
+
+    @Throws(IOException::class)
+    override fun readU16BE(): Int {
+        readFully(scratch, 0, 2)
+        return (scratch[0].toInt() and 0xff shl 8) or (scratch[1].toInt() and 0xff)
+    }
+
+    @Throws(IOException::class)
+    override fun readU32LE(): Int {
+        readFully(scratch, 0, 4)
+        return (scratch[0].toInt() and 0xff) or
+            (scratch[1].toInt() and 0xff shl 8) or
+            (scratch[2].toInt() and 0xff shl 16) or
+            (scratch[3].toInt() and 0xff shl 24)
+    }
+
+    @Throws(IOException::class)
+    override fun readU32BE(): Int {
+        readFully(scratch, 0, 4)
+        return (scratch[0].toInt() and 0xff shl 24) or
+            (scratch[1].toInt() and 0xff shl 16) or
+            (scratch[2].toInt() and 0xff shl 8) or
+            (scratch[3].toInt() and 0xff)
+    }
+
+    @Throws(IOException::class)
+    override fun readFourCC(): Int = readU32LE()
+
+    /**
+     * Skips forward, or resets and skips for a position behind, which needs a stream supporting
+     * [reset].
+     */
+    @Throws(IOException::class)
+    override fun seek(position: Int) {
+        if (position < this.position) {
+            reset()
+        }
+        var remaining = (position - this.position).toLong()
+        while (remaining > 0) {
+            val skipped = skip(remaining)
+            if (skipped <= 0) {
+                break
+            }
+            remaining -= skipped
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun read(position: Int, buffer: ByteArray, start: Int, byteCount: Int): Int {
+        val current = this.position
+        seek(position)
+        val count = read(buffer, start, byteCount)
+        seek(current)
+        return count
+    }
+
     override fun toInputStream(): InputStream = this
 }
@@ -14,8 +14,11 @@ import java.nio.ByteBuffer;
 public abstract class ByteBufferLoader implements Loader {
     public abstract ByteBuffer getByteBuffer();
 
+    /**
+     * Each reader gets its own view of the buffer, so that readers can be used at the same time
+     */
     @Override
     public Reader obtain() throws IOException {
-        return new ByteBufferReader(getByteBuffer());
+        return new ByteBufferReader(getByteBuffer().duplicate());
     }
 }
@@ -1,11 +1,16 @@
 package com.github.penfeizhou.animation.loader;
 
 
+import com.github.penfeizhou.animation.io.ByteBufferReader;
 import com.github.penfeizhou.animation.io.Reader;
 import com.github.penfeizhou.animation.io.FileReader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @Description: 从文件加载流
@@ -15,14 +20,42 @@ import java.io.IOException;
 public class FileLoader implements Loader {
 
     private final File mFile;
-    private Reader mReader;
+    private final boolean mMemoryMapped;
+    private MappedByteBuffer mMappedBuffer;
 
     public FileLoader(String path) {
+        this(path, false);
+    }
+
+    /**
+     * @param memoryMapped If true, the file is mapped into memory once and read through
+     *                     {@link ByteBufferReader}s, so that resetting and skipping are O(1)
+     *                     instead of reopening and reading through the file.
+     */
+    public FileLoader(String path, boolean memoryMapped) {
         mFile = new File(path);
+        mMemoryMapped = memoryMapped;
     }
 
     @Override
     public synchronized Reader obtain() throws IOException {
-        return new FileReader(mFile);
+        if (!mMemoryMapped) {
+            return new FileReader(mFile);
+        }
+        if (mMappedBuffer == null) {
+            // The mapping stays valid once the channel is closed
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "r");
+                 FileChannel channel = file.getChannel()) {
+                mMappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        // Each reader gets its own position
+        ByteBuffer buffer = mMappedBuffer.duplicate();
+        return new ByteBufferReader(buffer);
+    }
+
+    @Override
+    public String getSourceId() {
+        return "file:" + mFile.getAbsolutePath() + ":" + mFile.length() + ":" + mFile.lastModified();
     }
 }
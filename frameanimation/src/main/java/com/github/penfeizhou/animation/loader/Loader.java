@@ -11,4 +11,12 @@ import java.io.IOException;
  */
 public interface Loader {
     Reader obtain() throws IOException;
+
+    /**
+     * @return A stable identity of the source, equal for loaders reading the same content,
+     * or null if the source cannot be identified. Decoders use it to share decoded frames.
+     */
+    default String getSourceId() {
+        return null;
+    }
 }
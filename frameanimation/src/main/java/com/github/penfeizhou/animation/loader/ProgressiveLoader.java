@@ -0,0 +1,28 @@
+package com.github.penfeizhou.animation.loader;
+
+/**
+ * A loader whose source is still arriving, e.g. while it downloads.
+ * <p>
+ * Readers obtained from it see the bytes arrived so far and throw
+ * {@link com.github.penfeizhou.animation.io.IncompleteSourceException} when reading past them.
+ * Decoders start playing once the first frame arrived, and wait at the last arrived frame for
+ * more.
+ */
+public interface ProgressiveLoader extends Loader {
+    /**
+     * @return true once the whole source arrived, or it failed and nothing more will arrive
+     */
+    boolean isComplete();
+
+    /**
+     * @return The number of bytes arrived so far
+     */
+    int getAvailableSize();
+
+    /**
+     * Runs the listener whenever bytes arrive or the source completes, on the thread loading it
+     */
+    void addListener(Runnable listener);
+
+    void removeListener(Runnable listener);
+}
@@ -0,0 +1,50 @@
+package com.github.penfeizhou.animation.loader;
+
+import com.github.penfeizhou.animation.io.ProgressiveBuffer;
+import com.github.penfeizhou.animation.io.Reader;
+
+import java.io.InputStream;
+
+/**
+ * @Description: Reads a stream on a thread of its own, so that it can be decoded while it is still
+ * arriving, see {@link ProgressiveLoader}.
+ */
+public class ProgressiveStreamLoader implements ProgressiveLoader {
+    private final ProgressiveBuffer mBuffer = new ProgressiveBuffer();
+
+    public ProgressiveStreamLoader(final InputStream inputStream) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mBuffer.drain(inputStream);
+            }
+        }, "ProgressiveStreamLoader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public Reader obtain() {
+        return mBuffer.newReader();
+    }
+
+    @Override
+    public boolean isComplete() {
+        return mBuffer.isComplete();
+    }
+
+    @Override
+    public int getAvailableSize() {
+        return mBuffer.getSize();
+    }
+
+    @Override
+    public void addListener(Runnable listener) {
+        mBuffer.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(Runnable listener) {
+        mBuffer.removeListener(listener);
+    }
+}
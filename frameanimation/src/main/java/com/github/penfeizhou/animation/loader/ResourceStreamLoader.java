@@ -1,6 +1,8 @@
 package com.github.penfeizhou.animation.loader;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.util.TypedValue;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,4 +26,19 @@ public class ResourceStreamLoader extends StreamLoader {
     protected InputStream getInputStream() throws IOException {
         return mContext.getResources().openRawResource(mResId);
     }
+
+    @Override
+    public String getSourceId() {
+        // One id resolves to different files depending on the configuration, e.g. raw-night
+        TypedValue value = new TypedValue();
+        try {
+            mContext.getResources().getValue(mResId, value, true);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        if (value.string == null) {
+            return null;
+        }
+        return "res:" + value.assetCookie + ":" + value.string;
+    }
 }
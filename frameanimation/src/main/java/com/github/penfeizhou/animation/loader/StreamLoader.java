@@ -1,6 +1,9 @@
 package com.github.penfeizhou.animation.loader;
 
 
+import android.content.res.AssetManager;
+
+import com.github.penfeizhou.animation.io.BufferedStreamReader;
 import com.github.penfeizhou.animation.io.Reader;
 import com.github.penfeizhou.animation.io.StreamReader;
 
@@ -14,8 +17,16 @@ import java.io.InputStream;
 public abstract class StreamLoader implements Loader {
     protected abstract InputStream getInputStream() throws IOException;
 
-
+    /**
+     * Asset and resource streams seek within the asset for free and are read directly. Other
+     * streams are read through a {@link BufferedStreamReader}, so that rewinding and seeking do
+     * not depend on the stream supporting {@link InputStream#reset()}.
+     */
     public final synchronized Reader obtain() throws IOException {
-        return new StreamReader(getInputStream());
+        InputStream inputStream = getInputStream();
+        if (inputStream instanceof AssetManager.AssetInputStream) {
+            return new StreamReader(inputStream);
+        }
+        return new BufferedStreamReader(inputStream);
     }
 }
@@ -1,15 +1,95 @@
 #include <jni.h>
+#include <algorithm>
 #include <string>
-#include <vector>
+
+#include <android/bitmap.h>
 
 #include "common.h"
+#include "GifLZW.h"
 #include "Reader.h"
 
-struct Slice {
-    int *ptr_data;
-    size_t len_data;
+/**
+ * A canvas bitmap locked for compositing
+ */
+class LockedCanvas {
+public:
+    LockedCanvas(JNIEnv *env, jobject bitmap) : mEnv(env), mBitmap(bitmap) {
+        if (AndroidBitmap_getInfo(env, bitmap, &mInfo) != ANDROID_BITMAP_RESULT_SUCCESS ||
+            mInfo.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+            LOGE("Canvas is not an ARGB_8888 bitmap");
+            return;
+        }
+        void *pixels = nullptr;
+        if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+            LOGE("Failed to lock canvas pixels");
+            return;
+        }
+        mPixels = (int *) pixels;
+    }
+
+    ~LockedCanvas() {
+        if (mPixels) {
+            AndroidBitmap_unlockPixels(mEnv, mBitmap);
+        }
+    }
+
+    bool isLocked() const {
+        return mPixels != nullptr;
+    }
+
+    int width() const {
+        return mInfo.width;
+    }
+
+    int height() const {
+        return mInfo.height;
+    }
+
+    int stride() const {
+        return mInfo.stride / sizeof(int);
+    }
+
+    int *row(int y) const {
+        return mPixels + (size_t) y * stride();
+    }
+
+    /**
+     * Returns the target of compositing a width x height frame at left, top, clipped to the canvas
+     */
+    Target frameTarget(int left, int top, int width, int height) const {
+        Target target;
+        target.pixels = row(top) + left;
+        target.stride = stride();
+        target.width = std::max(0, std::min(width, this->width() - left));
+        target.height = std::max(0, std::min(height, this->height() - top));
+        target.blend = true;
+        return target;
+    }
+
+    /**
+     * Fills transparent pixels with background, as if it were drawn behind the canvas
+     */
+    void fillBehind(int background) const {
+        for (int y = 0; y < height(); y++) {
+            int *pixels = row(y);
+            for (int x = 0; x < width(); x++) {
+                if (((uint32_t) pixels[x] >> 24) == 0) {
+                    pixels[x] = background;
+                }
+            }
+        }
+    }
+
+private:
+    JNIEnv *mEnv;
+    jobject mBitmap;
+    AndroidBitmapInfo mInfo;
+    int *mPixels = nullptr;
 };
 
+/**
+ * Decodes image data read through the Java reader, one JNI call per sub-block
+ */
 void uncompressLZW(
         JNIEnv *env,
         jobject /* this */,
@@ -19,181 +99,222 @@ void uncompressLZW(
         jintArray pixels,
         jint width,
         jint height,
+        jint sampleSize,
         jint lzwMinCodeSize,
         jboolean interlace,
         jbyteArray buffer) {
     Reader reader(env, jReader, buffer);
-    char buf[0xff];
-    jboolean b = JNI_FALSE;
-    int *pixelsBuffer = env->GetIntArrayElements(pixels, &b);
-    size_t idx_pixel = 0;
-    size_t offset_data = 0;
-    size_t idx_data = 0;
-    size_t bits = 0;
-    size_t code_size = lzwMinCodeSize + 1;
-    size_t pixelsSize = width * height;
-    int datum = 0;
-    int code_clear = 1 << lzwMinCodeSize;
-    int code_end = code_clear + 1;
-    int code;
-
-    std::vector<Slice> table_string;
-
-    Slice prefix;
-    prefix.len_data = 0;
-    prefix.ptr_data = nullptr;
-    int table_max_size = (1 << 12) - code_end - 1;
-    while (idx_pixel < pixelsSize) {
-        if (offset_data == 0) {
-            offset_data = reader.peek() & 0xff;
-            if (offset_data <= 0) {
-                // DECODE ERROR
-                break;
-            }
-            reader.read(buf, offset_data);
-            idx_data = 0;
-        }
-        datum += (buf[idx_data] & 0xff) << bits;
-        bits += 8;
-        idx_data++;
-        offset_data--;
-        while (bits >= code_size) {
-            code = datum & ((1 << code_size) - 1);
-            datum >>= code_size;
-            bits -= code_size;
-            if (code == code_clear) {
-                table_string.clear();
-                code_size = lzwMinCodeSize + 1;
-                prefix.len_data = 0;
-                prefix.ptr_data = nullptr;
-                continue;
-            } else if (code == code_end) {
-                break;
-            } else {
-                if (prefix.len_data > 0 && prefix.ptr_data) {
-                    //Add to String Table
-                    Slice slice;
-                    int sufix;
-                    // Find suffix
-                    if (code > code_end) {
-                        if (code - code_end > table_string.size()) {
-                            sufix = *prefix.ptr_data;
-                            //output current slice to buffer
-                            memcpy(pixelsBuffer + idx_pixel, prefix.ptr_data,
-                                   prefix.len_data * sizeof(int));
-                            //update slice ptr,so that this continious memory includes sufix
-                            slice.ptr_data = pixelsBuffer + idx_pixel;
-                            idx_pixel += prefix.len_data;
-                            pixelsBuffer[idx_pixel++] = sufix;
-                            slice.len_data = prefix.len_data + 1;
-                            prefix.ptr_data = slice.ptr_data;
-                            prefix.len_data = slice.len_data;
-                        } else {
-                            // Get Prefix's first char as sufix
-                            Slice current = table_string.at(
-                                    code - code_end - 1);
-                            // sufix = *current.ptr_data;
-                            // update ptr so that new table item contain sufix
-                            slice.ptr_data = pixelsBuffer + idx_pixel - prefix.len_data;
-                            slice.len_data = prefix.len_data + 1;
-                            memcpy(pixelsBuffer + idx_pixel, current.ptr_data,
-                                   current.len_data *
-                                   sizeof(int));
-                            idx_pixel += current.len_data;
-
-                            prefix.ptr_data = current.ptr_data;
-                            prefix.len_data = current.len_data;
-                        }
-                    } else {
-                        sufix = code;
-                        pixelsBuffer[idx_pixel] = sufix;
-                        // It's been copied to pixelsBuffer,so just move forward so that sufix can be contained
-                        slice.len_data = prefix.len_data + 1;
-                        slice.ptr_data = pixelsBuffer + idx_pixel - prefix.len_data;
-                        // Set prefix to just one code
-                        prefix.len_data = 1;
-                        prefix.ptr_data = pixelsBuffer + idx_pixel;
-                        idx_pixel++;
-                    }
-                    if (table_string.size() < table_max_size) {
-                        //Add to string table
-                        table_string.push_back(slice);
-                        if (table_string.size() >= (1 << code_size) - code_end - 1
-                            && table_string.size() < table_max_size) {
-                            code_size++;
-                        }
-                    }
-                } else {
-                    pixelsBuffer[idx_pixel] = code & 0xff;
-                    prefix.ptr_data = pixelsBuffer + idx_pixel;
-                    prefix.len_data = 1;
-                    idx_pixel++;
-                }
-            }
-        }
+    int *pixelsBuffer = env->GetIntArrayElements(pixels, nullptr);
+    int *colors = env->GetIntArrayElements(colorTable, nullptr);
+    jsize colorCount = env->GetArrayLength(colorTable);
+    decodeFrame(reader, colors, colorCount, transparentColorIndex,
+                pixelsTarget(pixelsBuffer, width, height, sampleSize), width, height, sampleSize,
+                lzwMinCodeSize, interlace);
+    env->ReleaseIntArrayElements(pixels, pixelsBuffer, 0);
+    env->ReleaseIntArrayElements(colorTable, colors, JNI_ABORT);
+}
+
+/**
+ * Decodes image data from a pinned memory range into pixels, or onto the locked canvas if pixels
+ * is null. Only the arrays are pinned here, callers must not make other JNI calls meanwhile.
+ */
+static void decodeFrameFromMemory(
+        JNIEnv *env,
+        const uint8_t *data,
+        jint offset,
+        jint limit,
+        jintArray colorTable,
+        jsize colorCount,
+        jint transparentColorIndex,
+        jintArray pixels,
+        const Target *canvasTarget,
+        jint width,
+        jint height,
+        jint sampleSize,
+        jint lzwMinCodeSize,
+        jboolean interlace) {
+    MemoryReader reader(data, limit, offset);
+    int *pixelsBuffer = pixels ? (int *) env->GetPrimitiveArrayCritical(pixels, nullptr) : nullptr;
+    int *colors = (int *) env->GetPrimitiveArrayCritical(colorTable, nullptr);
+    if ((pixelsBuffer || canvasTarget) && colors) {
+        decodeFrame(reader, colors, colorCount, transparentColorIndex,
+                    canvasTarget ? *canvasTarget
+                                 : pixelsTarget(pixelsBuffer, width, height, sampleSize),
+                    width, height, sampleSize, lzwMinCodeSize, interlace);
+    }
+    if (colors) {
+        env->ReleasePrimitiveArrayCritical(colorTable, colors, JNI_ABORT);
+    }
+    if (pixelsBuffer) {
+        env->ReleasePrimitiveArrayCritical(pixels, pixelsBuffer, 0);
     }
+}
 
-    int *colors = env->GetIntArrayElements(colorTable, &b);
-    int idx;
-    for (int loop = 0; loop < idx_pixel; loop++) {
-        idx = pixelsBuffer[loop] & 0xff;
-        if (idx == transparentColorIndex) {
-            pixelsBuffer[loop] = 0;
-        } else {
-            pixelsBuffer[loop] = colors[idx];
-        }
+/**
+ * Decodes image data starting at offset of a direct ByteBuffer, such as a mapped file
+ */
+void uncompressLZWDirect(
+        JNIEnv *env,
+        jobject /* this */,
+        jobject byteBuffer,
+        jint offset,
+        jint limit,
+        jintArray colorTable,
+        jint transparentColorIndex,
+        jintArray pixels,
+        jint width,
+        jint height,
+        jint sampleSize,
+        jint lzwMinCodeSize,
+        jboolean interlace) {
+    auto *data = (const uint8_t *) env->GetDirectBufferAddress(byteBuffer);
+    if (!data) {
+        return;
     }
+    decodeFrameFromMemory(env, data, offset, limit, colorTable, env->GetArrayLength(colorTable),
+                          transparentColorIndex, pixels, nullptr, width, height, sampleSize,
+                          lzwMinCodeSize, interlace);
+}
 
-    while (idx_pixel < pixelsSize) {
-        pixelsBuffer[idx_pixel++] = 0;
-    }
-    if (interlace) {
-        // interlace flag
-        size_t i = 0;
-        int *pixels_copy = static_cast<int *>(malloc(sizeof(int) * pixelsSize));
-        size_t src_row = 0;
-        size_t pack = 1;
-        size_t step = 8;
-        size_t start = 8;
-        for (; pack <= 4 & src_row < height;) {
-            switch (pack) {
-                case 1:
-                    step = 8;
-                    start = 0;
-                    break;
-                case 2:
-                    step = 8;
-                    start = 4;
-                    break;
-                case 3:
-                    step = 4;
-                    start = 2;
-                    break;
-                case 4:
-                    step = 2;
-                    start = 1;
-                    break;
+/**
+ * Decodes image data starting at offset of a byte array, pinned for the duration of the decode
+ */
+void uncompressLZWArray(
+        JNIEnv *env,
+        jobject /* this */,
+        jbyteArray array,
+        jint offset,
+        jint limit,
+        jintArray colorTable,
+        jint transparentColorIndex,
+        jintArray pixels,
+        jint width,
+        jint height,
+        jint sampleSize,
+        jint lzwMinCodeSize,
+        jboolean interlace) {
+    jsize colorCount = env->GetArrayLength(colorTable);
+    auto *data = (const uint8_t *) env->GetPrimitiveArrayCritical(array, nullptr);
+    if (!data) {
+        return;
+    }
+    decodeFrameFromMemory(env, data, offset, limit, colorTable, colorCount,
+                          transparentColorIndex, pixels, nullptr, width, height, sampleSize,
+                          lzwMinCodeSize, interlace);
+    env->ReleasePrimitiveArrayCritical(array, (void *) data, JNI_ABORT);
+}
+
+/**
+ * Composites image data onto the canvas bitmap at left, top, then fills the pixels left transparent
+ * with background unless it is 0. Data is read from a direct ByteBuffer or a byte array starting at
+ * offset, or through the Java reader if both are null.
+ */
+void compositeLZW(
+        JNIEnv *env,
+        jobject /* this */,
+        jobject canvasBitmap,
+        jint left,
+        jint top,
+        jint background,
+        jobject jReader,
+        jbyteArray buffer,
+        jobject byteBuffer,
+        jbyteArray array,
+        jint offset,
+        jint limit,
+        jintArray colorTable,
+        jint transparentColorIndex,
+        jint width,
+        jint height,
+        jint sampleSize,
+        jint lzwMinCodeSize,
+        jboolean interlace) {
+    LockedCanvas canvas(env, canvasBitmap);
+    if (!canvas.isLocked() || sampleSize <= 0) {
+        return;
+    }
+    if (left < canvas.width() && top < canvas.height()) {
+        jsize colorCount = env->GetArrayLength(colorTable);
+        Target target = canvas.frameTarget(left, top, width / sampleSize, height / sampleSize);
+        if (byteBuffer) {
+            auto *data = (const uint8_t *) env->GetDirectBufferAddress(byteBuffer);
+            if (data) {
+                decodeFrameFromMemory(env, data, offset, limit, colorTable, colorCount,
+                                      transparentColorIndex, nullptr, &target, width, height,
+                                      sampleSize, lzwMinCodeSize, interlace);
+            }
+        } else if (array) {
+            auto *data = (const uint8_t *) env->GetPrimitiveArrayCritical(array, nullptr);
+            if (data) {
+                decodeFrameFromMemory(env, data, offset, limit, colorTable, colorCount,
+                                      transparentColorIndex, nullptr, &target, width, height,
+                                      sampleSize, lzwMinCodeSize, interlace);
+                env->ReleasePrimitiveArrayCritical(array, (void *) data, JNI_ABORT);
             }
-            i = start;
-            do {
-                // copy
-                memcpy(pixels_copy + i * width, pixelsBuffer + src_row * width,
-                       width * (sizeof(int)));
-                src_row++;
-                i += step;
-            } while (i < height);
-            pack++;
+        } else {
+            Reader reader(env, jReader, buffer);
+            int *colors = env->GetIntArrayElements(colorTable, nullptr);
+            decodeFrame(reader, colors, colorCount, transparentColorIndex, target, width, height,
+                        sampleSize, lzwMinCodeSize, interlace);
+            env->ReleaseIntArrayElements(colorTable, colors, JNI_ABORT);
         }
-        memcpy(pixelsBuffer, pixels_copy, pixelsSize * sizeof(int));
-        free(pixels_copy);
     }
-    env->ReleaseIntArrayElements(pixels, pixelsBuffer, 0);
-    env->ReleaseIntArrayElements(colorTable, colors, JNI_ABORT);
+    if (background != 0) {
+        canvas.fillBehind(background);
+    }
 }
 
+/**
+ * Disposes the area from left, top to right, bottom of the canvas bitmap, restoring it from the
+ * pixels of snapshot, which holds a copy of the whole canvas, or clearing it if snapshot is null
+ */
+void disposeArea(
+        JNIEnv *env,
+        jobject /* this */,
+        jobject canvasBitmap,
+        jint left,
+        jint top,
+        jint right,
+        jint bottom,
+        jbyteArray snapshot) {
+    LockedCanvas canvas(env, canvasBitmap);
+    if (!canvas.isLocked()) {
+        return;
+    }
+    left = std::max(0, left);
+    top = std::max(0, top);
+    right = std::min(canvas.width(), (int) right);
+    bottom = std::min(canvas.height(), (int) bottom);
+    if (left >= right || top >= bottom) {
+        return;
+    }
+    const size_t rowBytes = (right - left) * sizeof(int);
+    if (!snapshot) {
+        for (int y = top; y < bottom; y++) {
+            memset(canvas.row(y) + left, 0, rowBytes);
+        }
+        return;
+    }
+    if ((size_t) env->GetArrayLength(snapshot) <
+        (size_t) canvas.width() * canvas.height() * sizeof(int)) {
+        return;
+    }
+    auto *saved = (const int *) env->GetPrimitiveArrayCritical(snapshot, nullptr);
+    if (!saved) {
+        return;
+    }
+    for (int y = top; y < bottom; y++) {
+        memcpy(canvas.row(y) + left, saved + (size_t) y * canvas.width() + left, rowBytes);
+    }
+    env->ReleasePrimitiveArrayCritical(snapshot, (void *) saved, JNI_ABORT);
+}
 
 static JNINativeMethod methods[] = {
-        {"uncompressLZW", "(Lcom/github/penfeizhou/animation/io/FilterReader;[II[IIIIZ[B)V", (void *) &uncompressLZW},
+        {"uncompressLZW", "(Lcom/github/penfeizhou/animation/io/FilterReader;[II[IIIIIZ[B)V", (void *) &uncompressLZW},
+        {"uncompressLZWDirect", "(Ljava/nio/ByteBuffer;II[II[IIIIIZ)V", (void *) &uncompressLZWDirect},
+        {"uncompressLZWArray", "([BII[II[IIIIIZ)V", (void *) &uncompressLZWArray},
+        {"compositeLZW", "(Landroid/graphics/Bitmap;IIILcom/github/penfeizhou/animation/io/FilterReader;[BLjava/nio/ByteBuffer;[BII[IIIIIIZ)V", (void *) &compositeLZW},
+        {"disposeArea", "(Landroid/graphics/Bitmap;IIII[B)V", (void *) &disposeArea},
 };
 
 int jniRegisterNativeMethods(JNIEnv *env, const char *className, const JNINativeMethod *gMethods,
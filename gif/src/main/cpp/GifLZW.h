@@ -0,0 +1,428 @@
+//
+// The JNI-free core of the GIF decoder, shared by the JNI glue in GifDecoder.cpp and the host
+// benchmark in src/test/cpp.
+//
+
+#ifndef APNG4ANDROID_GIFLZW_H
+#define APNG4ANDROID_GIFLZW_H
+
+#include <algorithm>
+#include <stdint.h>
+#include <string.h>
+
+/**
+ * Reads data sub-blocks straight from memory, e.g. a direct ByteBuffer or a pinned byte array,
+ * without calling back into Java.
+ */
+class MemoryReader {
+public:
+    MemoryReader(const uint8_t* data, size_t length, size_t position):
+    mData(data),
+    mLength(length),
+    mPosition(position) {}
+
+    const uint8_t* nextBlock(size_t* size) {
+        if (mPosition >= mLength) {
+            *size = 0;
+            return nullptr;
+        }
+        size_t blockSize = mData[mPosition++];
+        if (blockSize > mLength - mPosition) {
+            // Truncated data, decode what there is
+            blockSize = mLength - mPosition;
+        }
+        const uint8_t* block = mData + mPosition;
+        mPosition += blockSize;
+        *size = blockSize;
+        return block;
+    }
+private:
+    const uint8_t* mData;
+    const size_t mLength;
+    size_t mPosition;
+};
+
+/**
+ * Largest number of codes in a GIF string table, codes are at most 12 bits
+ */
+static const int MAX_CODES = 1 << 12;
+
+/**
+ * Where decoded pixels go: width x height pixels, rows stride pixels apart. When blending, pixels
+ * are composited over what the target holds, so transparent pixels leave it as it is.
+ */
+struct Target {
+    int *pixels;
+    int stride;
+    int width;
+    int height;
+    bool blend;
+};
+
+/**
+ * Writes decoded pixels row by row. Rows of interlaced images are written straight to where they
+ * belong instead of being reordered afterwards. With a sample size above 1, only every sample-th
+ * pixel of every sample-th row is kept, so the frame is written at its sampled size. Pixels beyond
+ * the target are dropped.
+ */
+class RowWriter {
+public:
+    RowWriter(const Target &target, int width, int height, int sampleSize, bool interlace) :
+            RowWriter(target, width, height, sampleSize, interlace,
+                      !interlace && sampleSize == 1 && target.stride == width &&
+                      target.width >= width && target.height >= height) {}
+
+    /**
+     * Where the next pixel goes. Only valid when nothing is sampled out, dropped or blended.
+     */
+    inline int *cursor() const {
+        return mRowPixels + mColumn;
+    }
+
+    /**
+     * Pixels left in the current row
+     */
+    inline int room() const {
+        return mSourceWidth - mColumn;
+    }
+
+    /**
+     * Moves past count pixels written from cursor(), at most room(). Returns false once every row
+     * is written.
+     */
+    inline bool advance(int count) {
+        mColumn += count;
+        if (mColumn == mSourceWidth) {
+            return nextRow();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the colors of the count indices below top, last one first, as strings are decoded
+     * backwards. Returns false once every row is written.
+     */
+    bool putReversed(const uint8_t *top, int count, const int *palette) {
+        while (count > 0) {
+            int run = room();
+            if (run > count) {
+                run = count;
+            }
+            if (mRowPixels && mSample == 1 && !mBlend && run <= mKeptWidth - mColumn) {
+                int *out = cursor();
+                for (int i = 0; i < run; i++) {
+                    out[i] = palette[*--top];
+                }
+            } else {
+                if (mRowPixels) {
+                    const int end = std::min(mColumn + run, mKeptWidth);
+                    for (int column = firstKeptColumn(); column < end; column += mSample) {
+                        const int color = palette[*(top - 1 - (column - mColumn))];
+                        if (color || !mBlend) {
+                            mRowPixels[column / mSample] = color;
+                        }
+                    }
+                }
+                top -= run;
+            }
+            count -= run;
+            if (!advance(run)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Leaves the pixels not written yet transparent
+     */
+    void clearRest() {
+        do {
+            if (mRowPixels) {
+                for (int column = firstKeptColumn(); column < mKeptWidth; column += mSample) {
+                    mRowPixels[column / mSample] = 0;
+                }
+            }
+        } while (!isDone() && advance(room()));
+    }
+
+    bool isDone() const {
+        return mRowsDone >= mSourceHeight;
+    }
+
+private:
+    /**
+     * When contiguous, the rows of the frame follow each other in the target and are written as
+     * one long row, so that strings are not split at the end of each row.
+     */
+    RowWriter(const Target &target, int width, int height, int sampleSize, bool interlace,
+              bool contiguous) :
+            mPixels(target.pixels),
+            mStride(target.stride),
+            mSourceWidth(contiguous ? width * height : width),
+            mSourceHeight(contiguous ? 1 : height),
+            mSample(sampleSize),
+            mHeight(contiguous ? 1 : std::min(target.height, height / sampleSize)),
+            mKeptWidth(contiguous ? width * height
+                                  : std::min(target.width, width / sampleSize) * sampleSize),
+            mInterlace(interlace),
+            mBlend(target.blend) {
+        mRowPixels = keptRow(0);
+    }
+
+    bool nextRow() {
+        mColumn = 0;
+        if (++mRowsDone >= mSourceHeight) {
+            mRowPixels = nullptr;
+            return false;
+        }
+        if (mInterlace) {
+            // Passes start at rows 0, 4, 2, 1 and step 8, 8, 4, 2 rows
+            static const int PASS_START[] = {0, 4, 2, 1};
+            static const int PASS_STEP[] = {8, 8, 4, 2};
+            mRow += PASS_STEP[mPass];
+            while (mRow >= mSourceHeight && mPass < 3) {
+                mPass++;
+                mRow = PASS_START[mPass];
+            }
+        } else {
+            mRow++;
+        }
+        mRowPixels = keptRow(mRow);
+        return true;
+    }
+
+    /**
+     * Returns the output row of a source row, or null if the row is sampled out
+     */
+    int *keptRow(int row) const {
+        if (row % mSample != 0 || row / mSample >= mHeight) {
+            return nullptr;
+        }
+        return mPixels + (size_t) (row / mSample) * mStride;
+    }
+
+    /**
+     * The first column from the current one on which is kept
+     */
+    inline int firstKeptColumn() const {
+        return (mColumn + mSample - 1) / mSample * mSample;
+    }
+
+    int *const mPixels;
+    const int mStride;
+    const int mSourceWidth;
+    const int mSourceHeight;
+    const int mSample;
+    const int mHeight;
+    /**
+     * Source columns up to which pixels are kept, the last columns are dropped when the width is
+     * not a multiple of the sample size or the frame reaches past the target
+     */
+    const int mKeptWidth;
+    const bool mInterlace;
+    const bool mBlend;
+    int *mRowPixels;
+    int mColumn = 0;
+    int mRow = 0;
+    int mRowsDone = 0;
+    int mPass = 0;
+};
+
+/**
+ * The string table of an LZW stream, in fixed arrays indexed by code
+ */
+struct LZWTable {
+    uint16_t prefix[MAX_CODES];
+    uint8_t suffix[MAX_CODES];
+    uint8_t first[MAX_CODES];
+    uint16_t length[MAX_CODES];
+    /**
+     * Where the string of a code was written in one piece, so that it is copied from there, or
+     * null if it was split across rows
+     */
+    const int *written[MAX_CODES];
+    uint8_t stack[MAX_CODES + 1];
+};
+
+/**
+ * Decodes the LZW image data read from reader through writer, mapped to colors by palette. Reader
+ * is any type with nextBlock(), so that the data can come from Java or straight from memory.
+ *
+ * The string table lives in fixed arrays on the stack, and every decoded index is written as its
+ * color to its final row, so nothing is allocated and each pixel is written once. When direct, a
+ * string already written in one piece is copied from the pixels instead of walking its prefixes.
+ */
+template<typename DataReader>
+static void decodeLZW(
+        DataReader &reader,
+        RowWriter &writer,
+        const int *palette,
+        bool direct,
+        int lzwMinCodeSize) {
+    LZWTable table;
+    if (lzwMinCodeSize >= 1 && lzwMinCodeSize < 12) {
+        const int code_clear = 1 << lzwMinCodeSize;
+        const int code_end = code_clear + 1;
+        for (int code = 0; code < code_clear; code++) {
+            table.prefix[code] = 0;
+            table.suffix[code] = (uint8_t) code;
+            table.first[code] = (uint8_t) code;
+            table.length[code] = 1;
+            table.written[code] = nullptr;
+        }
+        int available = code_clear + 2;
+        int code_size = lzwMinCodeSize + 1;
+        int code_mask = (1 << code_size) - 1;
+        int old_code = -1;
+        // Where the string of old_code was just written, null if it was split across rows
+        const int *old_written = nullptr;
+
+        const uint8_t *block = nullptr;
+        size_t block_size = 0;
+        uint32_t datum = 0;
+        int bits = 0;
+        bool decoding = true;
+        while (decoding) {
+            if (block_size == 0) {
+                block = reader.nextBlock(&block_size);
+                if (block_size == 0) {
+                    // DECODE ERROR, or data shorter than the frame
+                    break;
+                }
+            }
+            datum |= (uint32_t) *block++ << bits;
+            bits += 8;
+            block_size--;
+            while (bits >= code_size) {
+                int code = datum & code_mask;
+                datum >>= code_size;
+                bits -= code_size;
+                if (code == code_clear) {
+                    code_size = lzwMinCodeSize + 1;
+                    code_mask = (1 << code_size) - 1;
+                    available = code_clear + 2;
+                    old_code = -1;
+                    continue;
+                }
+                if (code == code_end || code > available ||
+                    (old_code == -1 && code >= code_clear)) {
+                    decoding = false;
+                    break;
+                }
+                int *out = direct ? writer.cursor() : nullptr;
+                const int room = writer.room();
+                // The code being defined is the previous string followed by its first index
+                const bool defining = code == available;
+                const int source = defining ? old_code : code;
+                const int length = table.length[source] + (defining ? 1 : 0);
+                const uint8_t first = table.first[source];
+                const bool fits = direct && length <= room;
+                if (fits && table.written[source]) {
+                    memcpy(out, table.written[source], table.length[source] * sizeof(int));
+                    if (defining) {
+                        out[length - 1] = palette[first];
+                    }
+                    decoding = writer.advance(length);
+                } else if (length == 1 && direct) {
+                    *out = palette[code];
+                    decoding = writer.advance(1);
+                } else {
+                    uint8_t *top = table.stack;
+                    if (defining) {
+                        *top++ = first;
+                    }
+                    int walk = source;
+                    while (walk >= code_clear) {
+                        *top++ = table.suffix[walk];
+                        walk = table.prefix[walk];
+                    }
+                    *top++ = (uint8_t) walk;
+                    decoding = writer.putReversed(top, length, palette);
+                }
+                const int *current_written = fits ? out : nullptr;
+                if (code < available && !table.written[code]) {
+                    table.written[code] = current_written;
+                }
+                if (old_code != -1 && available < MAX_CODES) {
+                    table.prefix[available] = (uint16_t) old_code;
+                    table.suffix[available] = first;
+                    table.first[available] = table.first[old_code];
+                    table.length[available] = table.length[old_code] + 1;
+                    // The new string is the previous one followed by the first pixel just written
+                    if (defining) {
+                        table.written[available] = current_written;
+                    } else if (old_written && current_written &&
+                               old_written + table.length[old_code] == current_written) {
+                        table.written[available] = old_written;
+                    } else {
+                        table.written[available] = nullptr;
+                    }
+                    available++;
+                    if ((available & code_mask) == 0 && available < MAX_CODES) {
+                        code_size++;
+                        code_mask += available;
+                    }
+                }
+                old_code = code;
+                old_written = current_written;
+                if (!decoding) {
+                    break;
+                }
+            }
+        }
+    }
+
+}
+
+/**
+ * Decodes a width x height frame into target, mapped to the colors of the color table and sampled
+ * down by sampleSize.
+ */
+template<typename DataReader>
+static void decodeFrame(
+        DataReader &reader,
+        const int *colors,
+        int colorCount,
+        int transparentColorIndex,
+        const Target &target,
+        int width,
+        int height,
+        int sampleSize,
+        int lzwMinCodeSize,
+        bool interlace) {
+    if (width <= 0 || height <= 0 || sampleSize <= 0) {
+        return;
+    }
+    // Indices outside the color table and the transparent index are both written as 0
+    int palette[256];
+    bool transparent = false;
+    for (int i = 0; i < 256; i++) {
+        palette[i] = i < colorCount && i != transparentColorIndex ? colors[i] : 0;
+        transparent |= i < (1 << lzwMinCodeSize) && palette[i] == 0;
+    }
+    RowWriter writer(target, width, height, sampleSize, interlace);
+    // Strings are only written in one piece when no pixel is sampled out, dropped or blended
+    const bool direct = sampleSize == 1 && target.width >= width && target.height >= height &&
+                        !(target.blend && transparent);
+    decodeLZW(reader, writer, palette, direct, lzwMinCodeSize);
+    // Pixels missing from truncated data are left transparent
+    if (!target.blend && !writer.isDone()) {
+        writer.clearRest();
+    }
+}
+
+/**
+ * Returns the target of decoding a width x height frame into its own pixel array
+ */
+static Target pixelsTarget(int *pixels, int width, int height, int sampleSize) {
+    Target target;
+    target.pixels = pixels;
+    target.stride = width / sampleSize;
+    target.width = width / sampleSize;
+    target.height = height / sampleSize;
+    target.blend = false;
+    return target;
+}
+
+#endif //APNG4ANDROID_GIFLZW_H
@@ -63,6 +63,16 @@ size_t Reader::read(char *in, size_t size) {
     return totalBytesRead;
 }
 
+const uint8_t* Reader::nextBlock(size_t* size) {
+    size_t blockSize = peek() & 0xff;
+    if (blockSize == 0 || mEnv->ExceptionCheck()) {
+        *size = 0;
+        return nullptr;
+    }
+    *size = read((char *) mBlock, blockSize);
+    return mBlock;
+}
+
 char Reader::peek() {
     jbyte bytesRead = mEnv->CallByteMethod(mJavaReader,
                                            gReaderClassInfo.peekMethodId);
@@ -7,6 +7,7 @@
 
 #include <jni.h>
 #include "common.h"
+#include <stdint.h>
 #include <stdio.h>
 #include <string.h>
 
@@ -21,11 +22,18 @@ public:
     char peek();
 
     size_t read(char* in, size_t size);
+
+    /**
+     * Reads the next data sub-block through the Java reader, returns its bytes and sets size to
+     * its length, 0 at the block terminator or the end of the data.
+     */
+    const uint8_t* nextBlock(size_t* size);
 private:
     JNIEnv* mEnv;
     const jobject mJavaReader;
     const jbyteArray mByteArray;
     const size_t mByteArrayLength;
+    uint8_t mBlock[0xff];
 };
 
 jint JavaReader_OnLoad(JNIEnv* env);
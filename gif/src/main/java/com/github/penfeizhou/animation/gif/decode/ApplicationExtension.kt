@@ -15,12 +15,9 @@ class ApplicationExtension : ExtensionBlock() {
 
     @Throws(IOException::class)
     override fun receive(reader: FilterReader) {
-        val blockSize = reader.peek().toInt()
-        val stringBuilder = StringBuilder()
-        for (i in 0 until blockSize) {
-            stringBuilder.append(Char(reader.peek().toUShort()))
-        }
-        identifier = stringBuilder.toString()
+        val bytes = ByteArray(reader.peek().toInt() and 0xff)
+        reader.readFully(bytes)
+        identifier = String(bytes, Charsets.ISO_8859_1)
         if ("NETSCAPE2.0" == identifier) {
             val size = reader.peek().toInt() and 0xff
             if (size == 3 && reader.peek().toInt() and 0xff == 1) {
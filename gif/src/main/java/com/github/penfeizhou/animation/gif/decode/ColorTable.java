@@ -1,6 +1,5 @@
 package com.github.penfeizhou.animation.gif.decode;
 
-import com.github.penfeizhou.animation.gif.io.GifReader;
 import com.github.penfeizhou.animation.io.FilterReader;
 
 import java.io.IOException;
@@ -64,12 +63,12 @@ public class ColorTable implements Block {
 
     @Override
     public void receive(FilterReader reader) throws IOException {
-        for (int i = 0; i < this.colorTable.length; i++) {
-            byte red = reader.peek();
-            byte green = reader.peek();
-            byte blue = reader.peek();
+        byte[] rgb = new byte[this.colorTable.length * 3];
+        reader.readFully(rgb, 0, rgb.length);
+        for (int i = 0, j = 0; i < this.colorTable.length; i++, j += 3) {
             // store in RGBA order,in case use for byte buffer
-            this.colorTable[i] = 0xff000000 | ((blue & 0xff) << 16) | ((green & 0xff) << 8) | (red & 0xff);
+            this.colorTable[i] = 0xff000000 | ((rgb[j + 2] & 0xff) << 16)
+                    | ((rgb[j + 1] & 0xff) << 8) | (rgb[j] & 0xff);
         }
     }
 
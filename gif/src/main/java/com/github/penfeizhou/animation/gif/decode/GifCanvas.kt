@@ -0,0 +1,47 @@
+package com.github.penfeizhou.animation.gif.decode
+
+/**
+ * A canvas held in an int array, onto which GIF frames are composited on the JVM, without
+ * Android bitmaps or the native library, e.g. off Android or in tests.
+ *
+ * [pixels] are laid out as in bitmap memory, with red in the lowest byte like the colors of
+ * [ColorTable]. Frames are drawn in order: the first onto a canvas erased with its background,
+ * each next one after [GifFrame.dispose] of the previous one, then [GifFrame.composite].
+ */
+class GifCanvas(val width: Int, val height: Int) {
+    val pixels = IntArray(width * height)
+
+    fun erase(color: Int) = pixels.fill(color)
+
+    /**
+     * Clears the area from [left], [top] to [right], [bottom], or restores it from [snapshot], a
+     * copy of [pixels]
+     */
+    internal fun disposeArea(left: Int, top: Int, right: Int, bottom: Int, snapshot: IntArray?) {
+        val areaLeft = left.coerceAtLeast(0)
+        val areaRight = right.coerceAtMost(width)
+        if (areaLeft >= areaRight) {
+            return
+        }
+        for (y in top.coerceAtLeast(0) until bottom.coerceAtMost(height)) {
+            val start = y * width + areaLeft
+            if (snapshot == null) {
+                pixels.fill(0, start, start + areaRight - areaLeft)
+            } else {
+                System.arraycopy(snapshot, start, pixels, start, areaRight - areaLeft)
+            }
+        }
+    }
+
+    /**
+     * Fills transparent pixels with [background], as if it were drawn behind the canvas
+     */
+    internal fun fillBehind(background: Int) {
+        val pixels = pixels
+        for (i in pixels.indices) {
+            if (pixels[i] ushr 24 == 0) {
+                pixels[i] = background
+            }
+        }
+    }
+}
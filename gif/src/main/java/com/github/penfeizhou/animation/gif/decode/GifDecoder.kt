@@ -1,17 +1,19 @@
 package com.github.penfeizhou.animation.gif.decode
 
+import android.graphics.Bitmap
 import android.graphics.Color
-import android.graphics.Paint
-import android.graphics.PorterDuff
 import android.util.Size
 import com.github.penfeizhou.animation.decode.FrameSeqDecoder2
 import com.github.penfeizhou.animation.decode.ImageInfo
 import com.github.penfeizhou.animation.decode.Frame
-import com.github.penfeizhou.animation.gif.io.GifWriter
 import com.github.penfeizhou.animation.io.FilterReader
 import com.github.penfeizhou.animation.loader.Loader
+import java.io.DataInput
+import java.io.DataOutput
 import java.io.IOException
 import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.IntBuffer
 
 /**
  * @Description: GifDecoder
@@ -19,23 +21,29 @@ import java.nio.ByteBuffer
  * @CreateDate: 2019-05-16
  */
 class GifDecoder(loader: Loader) : FrameSeqDecoder2(loader) {
-    private val paint = Paint().apply { isAntiAlias = true }
     private var bgColor = Color.TRANSPARENT
     private val snapShot = SnapShot()
 
-    private class SnapShot {
-        var byteBuffer: ByteBuffer? = null
-    }
+    /**
+     * Where frames are decoded and composited, see [Engine]. Falls back to [Engine.JVM] when the
+     * native decoder cannot be loaded.
+     */
+    @Volatile
+    var engine: Engine = if (GifFrame.isNativeAvailable) Engine.NATIVE else Engine.JVM
 
-    private val writer: GifWriter by lazy { GifWriter() }
+    // The canvas and snapshot pixels of the JVM engine, kept across frames
+    private var jvmCanvas: GifCanvas? = null
+    private var jvmSnapshot: IntArray? = null
 
-    override fun release() {
-        snapShot.byteBuffer = null
+    private class SnapShot {
+        var byteBuffer: ByteBuffer? = null
     }
 
-    @Throws(IOException::class)
-    override fun read(reader: FilterReader, sampleSize: Int): ImageInfo {
-        val blocks = GifParser.parse(reader)
+    /**
+     * The blocks parsed so far, kept between parses of a progressive source. A Graphic Control
+     * Extension applies until the next one.
+     */
+    private class GifParseState : ParseState() {
         var canvasWidth = 0
         var canvasHeight = 0
         var globalColorTable: ColorTable? = null
@@ -43,99 +51,260 @@ class GifDecoder(loader: Loader) : FrameSeqDecoder2(loader) {
         var bgColorIndex = -1
         var loopCount = 0
         val frames = mutableListOf<Frame>()
+    }
 
+    enum class Engine {
+        /**
+         * Frames are decoded natively, straight onto the canvas bitmap.
+         */
+        NATIVE,
+
+        /**
+         * Frames are decoded in Kotlin onto a [GifCanvas], whose pixels are copied from and back
+         * to the canvas bitmap. Slower, but needs no native library.
+         */
+        JVM
+    }
+
+    override fun release() {
+        snapShot.byteBuffer = null
+        jvmCanvas = null
+        jvmSnapshot = null
+    }
+
+    @Throws(IOException::class)
+    override fun read(reader: FilterReader, sampleSize: Int): ImageInfo {
+        val state = GifParseState()
+        collect(reader, GifParser.parse(reader), state)
+        return imageInfoOf(state, sampleSize)
+    }
+
+    override fun newParseState(): ParseState = GifParseState()
+
+    override fun readIncrementally(
+        reader: FilterReader,
+        sampleSize: Int,
+        state: ParseState
+    ): ImageInfo {
+        val gifState = state as GifParseState
+        val blocks = mutableListOf<Block>()
+        if (state.offset == 0) {
+            GifParser.parseHeader(reader, blocks)
+        } else {
+            reader.seek(state.offset)
+        }
+        state.offset = GifParser.parseBlocks(reader, blocks)
+        collect(reader, blocks, gifState)
+        return imageInfoOf(gifState, sampleSize)
+    }
+
+    /**
+     * Adds [blocks], in the order they were parsed, to what [state] collected so far
+     */
+    private fun collect(reader: FilterReader, blocks: List<Block>, state: GifParseState) {
         for (block in blocks) {
             if (block is LogicalScreenDescriptor) {
-                canvasWidth = block.screenWidth
-                canvasHeight = block.screenHeight
+                state.canvasWidth = block.screenWidth
+                state.canvasHeight = block.screenHeight
                 if (block.gColorTableFlag()) {
-                    bgColorIndex = block.bgColorIndex.toInt() and 0xff
+                    state.bgColorIndex = block.bgColorIndex.toInt() and 0xff
                 }
             } else if (block is ColorTable) {
-                globalColorTable = block
+                state.globalColorTable = block
             } else if (block is GraphicControlExtension) {
-                graphicControlExtension = block
+                state.graphicControlExtension = block
             } else if (block is ImageDescriptor) {
-                val gifFrame = GifFrame(reader, globalColorTable, graphicControlExtension, block)
-                frames.add(gifFrame)
+                val gifFrame = GifFrame(
+                    reader,
+                    state.globalColorTable,
+                    state.graphicControlExtension,
+                    block
+                )
+                state.frames.add(gifFrame)
             } else if (block is ApplicationExtension && "NETSCAPE2.0" == block.identifier) {
-                loopCount = block.loopCount
+                state.loopCount = block.loopCount
             }
         }
-        snapShot.byteBuffer =
-            ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4)
+    }
+
+    private fun imageInfoOf(state: GifParseState, sampleSize: Int): ImageInfo {
+        allocateSnapshot(state.canvasWidth, state.canvasHeight, sampleSize)
+        val globalColorTable = state.globalColorTable
+        val bgColorIndex = state.bgColorIndex
         if (globalColorTable != null && bgColorIndex >= 0 && bgColorIndex < globalColorTable.colorTable.size) {
             val abgr = globalColorTable.colorTable[bgColorIndex]
             bgColor = Color.rgb(abgr and 0xff, abgr shr 8 and 0xff, abgr shr 16 and 0xff)
         }
-        return ImageInfo(loopCount, Size(canvasWidth, canvasHeight), frames)
+        return ImageInfo(
+            state.loopCount,
+            Size(state.canvasWidth, state.canvasHeight),
+            state.frames.toList()
+        )
     }
 
-    override fun getDesiredSample(desiredWidth: Int, desiredHeight: Int): Int = 1
+    override fun writeIndex(imageInfo: ImageInfo, output: DataOutput): Boolean {
+        GifIndex.write(imageInfo, bgColor, output)
+        return true
+    }
+
+    override fun readIndex(reader: FilterReader, input: DataInput, sampleSize: Int): ImageInfo {
+        val (imageInfo, bgColor) = GifIndex.read(reader, input)
+        this.bgColor = bgColor
+        allocateSnapshot(imageInfo.viewport.width, imageInfo.viewport.height, sampleSize)
+        return imageInfo
+    }
 
+    private fun allocateSnapshot(canvasWidth: Int, canvasHeight: Int, sampleSize: Int) {
+        val bufferSizeBytes = ((canvasWidth / sampleSize) * (canvasHeight / sampleSize) + 1) * 4
+        // Kept when a progressive source is parsed again, the playback may still need it
+        if (snapShot.byteBuffer?.capacity() != bufferSizeBytes) {
+            snapShot.byteBuffer = ByteBuffer.allocate(bufferSizeBytes)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun readViewport(reader: FilterReader): Size = GifParser.parseViewport(reader)
+
+    /**
+     * Composites the frame natively, straight onto the canvas bitmap: the previous frame is
+     * disposed and the frame is decoded over the canvas in place, without drawing through a Canvas
+     * or intermediate bitmaps. With [Engine.JVM] the same is done in Kotlin, see
+     * [renderFrameOnJvm].
+     */
     override fun renderFrame(
         imageInfo: ImageInfo,
         frame: Frame,
-        frameBuffer: ByteBuffer,
+        canvasBitmap: Bitmap,
         sampleSize: Int
     ) {
         val gifFrame = frame as GifFrame
-        val bitmap = obtainBitmap(
-            imageInfo.viewport.width / sampleSize,
-            imageInfo.viewport.height / sampleSize
-        ) ?: return
-        val canvas = getCanvas(bitmap)
-
-        frameBuffer.rewind()
-        bitmap.copyPixelsFromBuffer(frameBuffer)
+
         var backgroundColor = Color.TRANSPARENT
         if (!gifFrame.transparencyFlag()) {
             backgroundColor = bgColor
         }
+        if (engine == Engine.JVM || !GifFrame.isNativeAvailable) {
+            renderFrameOnJvm(imageInfo, gifFrame, canvasBitmap, sampleSize, backgroundColor)
+            return
+        }
         if (frameIndex == 0) {
-            bitmap.eraseColor(backgroundColor)
+            canvasBitmap.eraseColor(backgroundColor)
         } else {
             val preFrame = imageInfo.frames[frameIndex - 1] as GifFrame
-            canvas.save()
-            canvas.clipRect(
-                preFrame.x / sampleSize,
-                preFrame.y / sampleSize,
-                (preFrame.x + preFrame.width) / sampleSize,
-                (preFrame.y + preFrame.height) / sampleSize
-            )
+            saveSnapshotIfNeeded(preFrame, gifFrame, canvasBitmap)
             when (preFrame.disposalMethod) {
-                0 -> {}
-                1 -> {}
-                2 -> canvas.drawColor(bgColor, PorterDuff.Mode.CLEAR)
-                3 -> {
-                    snapShot.byteBuffer!!.rewind()
-                    canvas.drawColor(bgColor, PorterDuff.Mode.CLEAR)
-                    val preBitmap = obtainBitmap(
-                        imageInfo.viewport.width / sampleSize,
-                        imageInfo.viewport.height / sampleSize
-                    )
-                    preBitmap!!.copyPixelsFromBuffer(snapShot.byteBuffer)
-                    canvas.drawBitmap(preBitmap, 0f, 0f, paint)
-                    recycleBitmap(preBitmap)
-                }
+                2 -> preFrame.dispose(canvasBitmap, sampleSize, null)
+                3 -> preFrame.dispose(canvasBitmap, sampleSize, snapShot.byteBuffer!!.array())
             }
-            canvas.restore()
-            if (gifFrame.disposalMethod == 3) {
-                if (preFrame.disposalMethod != 3) {
-                    frameBuffer.rewind()
-                    snapShot.byteBuffer!!.rewind()
-                    snapShot.byteBuffer!!.put(frameBuffer)
-                }
+        }
+        try {
+            gifFrame.composite(canvasBitmap, sampleSize, backgroundColor.toPixel())
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * Same as [renderFrame] with the JVM engine, on a [GifCanvas] holding the canvas bitmap
+     */
+    private fun renderFrameOnJvm(
+        imageInfo: ImageInfo,
+        gifFrame: GifFrame,
+        canvasBitmap: Bitmap,
+        sampleSize: Int,
+        backgroundColor: Int
+    ) {
+        val canvas = jvmCanvas?.takeIf {
+            it.width == canvasBitmap.width && it.height == canvasBitmap.height
+        } ?: GifCanvas(canvasBitmap.width, canvasBitmap.height).also { jvmCanvas = it }
+        if (frameIndex == 0) {
+            canvas.erase(backgroundColor.toPixel())
+        } else {
+            canvasBitmap.copyPixelsToBuffer(IntBuffer.wrap(canvas.pixels))
+            val preFrame = imageInfo.frames[frameIndex - 1] as GifFrame
+            saveSnapshotIfNeeded(preFrame, gifFrame, canvasBitmap)
+            when (preFrame.disposalMethod) {
+                2 -> preFrame.dispose(canvas, sampleSize, null)
+                3 -> preFrame.dispose(canvas, sampleSize, snapshotPixels(canvas))
             }
         }
-        val reused =
-            obtainBitmap(frame.width / sampleSize, frame.height / sampleSize)
-                ?: return
-        gifFrame.draw(canvas, paint, sampleSize, reused, writer)
-        canvas.drawColor(backgroundColor, PorterDuff.Mode.DST_OVER)
-        recycleBitmap(reused)
-        frameBuffer.rewind()
-        bitmap.copyPixelsToBuffer(frameBuffer)
-        recycleBitmap(bitmap)
+        try {
+            gifFrame.composite(canvas, sampleSize, backgroundColor.toPixel())
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+        canvasBitmap.copyPixelsFromBuffer(IntBuffer.wrap(canvas.pixels))
+    }
+
+    /**
+     * Returns the snapshot as pixels of [canvas]
+     */
+    private fun snapshotPixels(canvas: GifCanvas): IntArray {
+        val pixels = jvmSnapshot?.takeIf { it.size == canvas.pixels.size }
+            ?: IntArray(canvas.pixels.size).also { jvmSnapshot = it }
+        val buffer = snapShot.byteBuffer!!.duplicate()
+        buffer.rewind()
+        // Bitmap pixels were copied into the snapshot in memory order
+        buffer.order(ByteOrder.nativeOrder()).asIntBuffer().get(pixels)
+        return pixels
+    }
+
+    override fun restoreFrame(
+        imageInfo: ImageInfo,
+        frame: Frame,
+        canvasBitmap: Bitmap,
+        sampleSize: Int,
+        pixels: ByteBuffer
+    ) {
+        if (frameIndex > 0) {
+            val preFrame = imageInfo.frames[frameIndex - 1] as GifFrame
+            saveSnapshotIfNeeded(preFrame, frame as GifFrame, canvasBitmap)
+        }
+        super.restoreFrame(imageInfo, frame, canvasBitmap, sampleSize, pixels)
+    }
+
+    // An opaque frame fills the background behind the whole canvas, not only its own area
+    override fun isFullRedraw(imageInfo: ImageInfo, index: Int): Boolean {
+        if (super.isFullRedraw(imageInfo, index)) {
+            return true
+        }
+        val frame = imageInfo.frames[index] as? GifFrame ?: return true
+        return !frame.transparencyFlag() && Color.alpha(bgColor) != 0
+    }
+
+    override fun isKeyFrame(imageInfo: ImageInfo, index: Int): Boolean {
+        if (index == 0) {
+            return true
+        }
+        val frame = imageInfo.frames[index] as GifFrame
+        if (frame.disposalMethod == 3) {
+            return false
+        }
+        if (frame.covers(imageInfo.viewport) && !frame.transparencyFlag()) {
+            return true
+        }
+        // The canvas is fully cleared before this frame
+        val preFrame = imageInfo.frames[index - 1] as GifFrame
+        return preFrame.covers(imageInfo.viewport) && preFrame.disposalMethod == 2
     }
+
+    override fun canResumeAfter(imageInfo: ImageInfo, index: Int): Boolean =
+        (imageInfo.frames[index] as GifFrame).disposalMethod != 3
+
+    /**
+     * Keeps the canvas as it was before disposing [preFrame] if [frame] restores to previous
+     */
+    private fun saveSnapshotIfNeeded(preFrame: GifFrame, frame: GifFrame, canvasBitmap: Bitmap) {
+        if (frame.disposalMethod == 3 && preFrame.disposalMethod != 3) {
+            snapShot.byteBuffer!!.rewind()
+            canvasBitmap.copyPixelsToBuffer(snapShot.byteBuffer)
+        }
+    }
+
+    /**
+     * Returns a color as laid out in bitmap memory, with red in the lowest byte like the colors of
+     * [ColorTable]
+     */
+    private fun Int.toPixel(): Int =
+        (this and 0xff00ff00.toInt()) or (this shr 16 and 0xff) or (this and 0xff shl 16)
 }
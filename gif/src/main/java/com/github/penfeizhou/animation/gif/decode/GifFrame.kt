@@ -8,39 +8,54 @@ import com.github.penfeizhou.animation.decode.Frame
 import com.github.penfeizhou.animation.io.FilterReader
 import com.github.penfeizhou.animation.io.Writer
 import java.io.IOException
+import java.nio.ByteBuffer
 
 /**
  * @Description: GifFrame
  * @Author: pengfei.zhou
  * @CreateDate: 2019-05-16
  */
-class GifFrame(
+class GifFrame internal constructor(
     private val reader: FilterReader,
-    globalColorTable: ColorTable?,
-    graphicControlExtension: GraphicControlExtension?,
-    imageDescriptor: ImageDescriptor
-) : Frame(
-    x = imageDescriptor.frameX,
-    y = imageDescriptor.frameY,
-    width = imageDescriptor.frameWidth,
-    height = imageDescriptor.frameHeight,
-    duration = graphicControlExtension?.getDuration() ?: 0
-) {
-    val disposalMethod: Int = graphicControlExtension?.disposalMethod() ?: 0
-    private val transparentColorIndex: Int =
-        graphicControlExtension?.getTransparentColorIndex() ?: -1
-    private var colorTable: ColorTable? =
-        if (imageDescriptor.localColorTableFlag()) {
+    x: Int,
+    y: Int,
+    width: Int,
+    height: Int,
+    duration: Int,
+    val disposalMethod: Int,
+    internal val transparentColorIndex: Int,
+    internal val colorTable: ColorTable?,
+    internal val imageDataOffset: Int,
+    internal val lzwMinCodeSize: Int,
+    internal val interlace: Boolean
+) : Frame(x = x, y = y, width = width, height = height, duration = duration) {
+    constructor(
+        reader: FilterReader,
+        globalColorTable: ColorTable?,
+        graphicControlExtension: GraphicControlExtension?,
+        imageDescriptor: ImageDescriptor
+    ) : this(
+        reader = reader,
+        x = imageDescriptor.frameX,
+        y = imageDescriptor.frameY,
+        width = imageDescriptor.frameWidth,
+        height = imageDescriptor.frameHeight,
+        duration = graphicControlExtension?.getDuration() ?: 0,
+        disposalMethod = graphicControlExtension?.disposalMethod() ?: 0,
+        transparentColorIndex = graphicControlExtension?.getTransparentColorIndex() ?: -1,
+        colorTable = if (imageDescriptor.localColorTableFlag()) {
             imageDescriptor.localColorTable
         } else {
             globalColorTable
-        }
-    private val imageDataOffset: Int = imageDescriptor.imageDataOffset
-    private val lzwMinCodeSize: Int = imageDescriptor.lzwMinimumCodeSize
-    private val interlace: Boolean = imageDescriptor.interlaceFlag()
+        },
+        imageDataOffset = imageDescriptor.imageDataOffset,
+        lzwMinCodeSize = imageDescriptor.lzwMinimumCodeSize,
+        interlace = imageDescriptor.interlaceFlag()
+    )
 
-    private val srcRect = Rect()
-    private val dstRect = Rect()
+    // Created on first draw, so that frames can be decoded where android.graphics is missing
+    private val srcRect by lazy(LazyThreadSafetyMode.NONE) { Rect() }
+    private val dstRect by lazy(LazyThreadSafetyMode.NONE) { Rect() }
 
     fun transparencyFlag(): Boolean = transparentColorIndex >= 0
 
@@ -71,28 +86,136 @@ class GifFrame(
         return reusedBitmap
     }
 
+    /**
+     * Decodes the frame into [pixels] at its size divided by [sampleSize], keeping every
+     * [sampleSize]-th pixel of every [sampleSize]-th row
+     */
     @Throws(IOException::class)
     fun encode(pixels: IntArray, sampleSize: Int) {
-        reader.reset()
-        reader.skip(imageDataOffset.toLong())
-        var dataBlock = sDataBlock.get()
-        if (dataBlock == null) {
-            dataBlock = ByteArray(0xff)
-            sDataBlock.set(dataBlock)
+        if (!isNativeAvailable) {
+            val sampledWidth = width / sampleSize
+            GifLZWDecoder.obtain().decode(
+                this, reader, pixels, 0, sampledWidth, sampledWidth, height / sampleSize,
+                sampleSize, false
+            )
+            return
+        }
+        val colors = colorTable!!.colorTable
+        // In-memory sources are decoded in place, without calling back into the reader per block
+        val buffer = reader.asByteBuffer()
+        if (buffer != null && buffer.isDirect) {
+            uncompressLZWDirect(
+                buffer, imageDataOffset, buffer.limit(), colors, transparentColorIndex, pixels,
+                width, height, sampleSize, lzwMinCodeSize, interlace
+            )
+            return
+        }
+        if (buffer != null && buffer.hasArray()) {
+            uncompressLZWArray(
+                buffer.array(), buffer.arrayOffset() + imageDataOffset,
+                buffer.arrayOffset() + buffer.limit(), colors, transparentColorIndex, pixels,
+                width, height, sampleSize, lzwMinCodeSize, interlace
+            )
+            return
         }
+        reader.seek(imageDataOffset)
         uncompressLZW(
             reader,
-            colorTable!!.colorTable,
+            colors,
             transparentColorIndex,
             pixels,
-            width / sampleSize,
-            height / sampleSize,
+            width,
+            height,
+            sampleSize,
             lzwMinCodeSize,
             interlace,
-            dataBlock
+            dataBlock()
+        )
+    }
+
+    /**
+     * Decodes the frame at its sampled size straight onto [canvas], the sampled canvas, leaving it
+     * as it is under transparent pixels. Then fills what is still transparent on the whole canvas
+     * with [background], a pixel laid out like the colors of [ColorTable], unless it is 0.
+     * Needs the native library, see [composite] onto a [GifCanvas] otherwise.
+     */
+    @Throws(IOException::class)
+    fun composite(canvas: Bitmap, sampleSize: Int, background: Int) {
+        val buffer = reader.asByteBuffer()
+        val direct = buffer?.takeIf { it.isDirect }
+        val heap = buffer?.takeIf { !it.isDirect && it.hasArray() }
+        val arrayOffset = heap?.arrayOffset() ?: 0
+        if (direct == null && heap == null) {
+            reader.seek(imageDataOffset)
+        }
+        compositeLZW(
+            canvas,
+            x / sampleSize,
+            y / sampleSize,
+            background,
+            reader,
+            dataBlock(),
+            direct,
+            heap?.array(),
+            arrayOffset + imageDataOffset,
+            arrayOffset + (buffer?.limit() ?: 0),
+            colorTable!!.colorTable,
+            transparentColorIndex,
+            width,
+            height,
+            sampleSize,
+            lzwMinCodeSize,
+            interlace
         )
     }
 
+    /**
+     * Disposes the area of this frame on [canvas], the sampled canvas, restoring it from
+     * [snapshot], the pixels of the whole canvas, or clearing it if [snapshot] is null.
+     */
+    fun dispose(canvas: Bitmap, sampleSize: Int, snapshot: ByteArray?) = disposeArea(
+        canvas,
+        x / sampleSize,
+        y / sampleSize,
+        (x + width) / sampleSize,
+        (y + height) / sampleSize,
+        snapshot
+    )
+
+    /**
+     * Composites the frame onto [canvas] on the JVM, like [composite] does onto a bitmap. Frames
+     * of a GIF go onto the same canvas in order, see [GifCanvas].
+     */
+    @Throws(IOException::class)
+    fun composite(canvas: GifCanvas, sampleSize: Int, background: Int) {
+        val left = x / sampleSize
+        val top = y / sampleSize
+        if (left < canvas.width && top < canvas.height) {
+            GifLZWDecoder.obtain().decode(
+                this, reader, canvas.pixels, top * canvas.width + left, canvas.width,
+                canvas.width - left, canvas.height - top, sampleSize, true
+            )
+        }
+        if (background != 0) {
+            canvas.fillBehind(background)
+        }
+    }
+
+    /**
+     * Disposes the area of this frame on [canvas] on the JVM, like [dispose] does on a bitmap,
+     * restoring it from [snapshot], a copy of the pixels of [canvas], if not null
+     */
+    fun dispose(canvas: GifCanvas, sampleSize: Int, snapshot: IntArray?) = canvas.disposeArea(
+        x / sampleSize,
+        y / sampleSize,
+        (x + width) / sampleSize,
+        (y + height) / sampleSize,
+        snapshot
+    )
+
+    private fun dataBlock(): ByteArray =
+        sDataBlock.get() ?: ByteArray(0xff).also { sDataBlock.set(it) }
+
     private external fun uncompressLZW(
         gifReader: FilterReader,
         colorTable: IntArray,
@@ -100,14 +223,79 @@ class GifFrame(
         pixels: IntArray,
         width: Int,
         height: Int,
+        sampleSize: Int,
         lzwMinCodeSize: Int,
         interlace: Boolean,
         buffer: ByteArray
     )
 
+    private external fun uncompressLZWDirect(
+        data: ByteBuffer,
+        offset: Int,
+        limit: Int,
+        colorTable: IntArray,
+        transparentColorIndex: Int,
+        pixels: IntArray,
+        width: Int,
+        height: Int,
+        sampleSize: Int,
+        lzwMinCodeSize: Int,
+        interlace: Boolean
+    )
+
+    private external fun uncompressLZWArray(
+        data: ByteArray,
+        offset: Int,
+        limit: Int,
+        colorTable: IntArray,
+        transparentColorIndex: Int,
+        pixels: IntArray,
+        width: Int,
+        height: Int,
+        sampleSize: Int,
+        lzwMinCodeSize: Int,
+        interlace: Boolean
+    )
+
+    private external fun compositeLZW(
+        canvas: Bitmap,
+        left: Int,
+        top: Int,
+        background: Int,
+        gifReader: FilterReader,
+        buffer: ByteArray,
+        data: ByteBuffer?,
+        dataArray: ByteArray?,
+        offset: Int,
+        limit: Int,
+        colorTable: IntArray,
+        transparentColorIndex: Int,
+        width: Int,
+        height: Int,
+        sampleSize: Int,
+        lzwMinCodeSize: Int,
+        interlace: Boolean
+    )
+
+    private external fun disposeArea(
+        canvas: Bitmap,
+        left: Int,
+        top: Int,
+        right: Int,
+        bottom: Int,
+        snapshot: ByteArray?
+    )
+
     companion object {
-        init {
+        /**
+         * Whether the native decoder is loaded, frames are decoded on the JVM otherwise
+         */
+        internal val isNativeAvailable: Boolean = try {
             System.loadLibrary("animation-decoder-gif")
+            true
+        } catch (e: UnsatisfiedLinkError) {
+            e.printStackTrace()
+            false
         }
 
         private val sDataBlock = ThreadLocal<ByteArray>()
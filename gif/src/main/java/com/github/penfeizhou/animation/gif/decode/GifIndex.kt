@@ -0,0 +1,86 @@
+package com.github.penfeizhou.animation.gif.decode
+
+import android.util.Size
+import com.github.penfeizhou.animation.decode.ImageInfo
+import com.github.penfeizhou.animation.io.FilterReader
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.IOException
+import java.util.IdentityHashMap
+
+/**
+ * Writes and reads the frame index of a GIF: the image data offsets, graphic control parameters
+ * and color tables needed to rebuild the frames without parsing the file. A color table shared by
+ * several frames, such as the global one, is written once.
+ */
+internal object GifIndex {
+    @Throws(IOException::class)
+    fun write(imageInfo: ImageInfo, bgColor: Int, output: DataOutput) {
+        output.writeInt(imageInfo.loopCount)
+        output.writeInt(imageInfo.viewport.width)
+        output.writeInt(imageInfo.viewport.height)
+        output.writeInt(bgColor)
+
+        val frames = imageInfo.frames.map { it as GifFrame }
+        val tableIndexes = IdentityHashMap<ColorTable, Int>()
+        for (frame in frames) {
+            val colorTable = frame.colorTable ?: continue
+            tableIndexes.getOrPut(colorTable) { tableIndexes.size }
+        }
+        output.writeInt(tableIndexes.size)
+        for (colorTable in tableIndexes.entries.sortedBy { it.value }.map { it.key }) {
+            output.writeInt(colorTable.colorTable.size)
+            colorTable.colorTable.forEach(output::writeInt)
+        }
+
+        output.writeInt(frames.size)
+        for (frame in frames) {
+            output.writeInt(frame.x)
+            output.writeInt(frame.y)
+            output.writeInt(frame.width)
+            output.writeInt(frame.height)
+            output.writeInt(frame.duration)
+            output.writeByte(frame.disposalMethod)
+            output.writeInt(frame.transparentColorIndex)
+            output.writeInt(frame.colorTable?.let(tableIndexes::get) ?: -1)
+            output.writeInt(frame.imageDataOffset)
+            output.writeByte(frame.lzwMinCodeSize)
+            output.writeBoolean(frame.interlace)
+        }
+    }
+
+    /**
+     * Returns the frames and the background color
+     */
+    @Throws(IOException::class)
+    fun read(reader: FilterReader, input: DataInput): Pair<ImageInfo, Int> {
+        val loopCount = input.readInt()
+        val viewport = Size(input.readInt(), input.readInt())
+        val bgColor = input.readInt()
+        val colorTables = List(input.readInt()) {
+            ColorTable(input.readInt()).also { table ->
+                val colors = table.colorTable
+                for (i in colors.indices) {
+                    colors[i] = input.readInt()
+                }
+            }
+        }
+        val frames = List(input.readInt()) {
+            GifFrame(
+                reader = reader,
+                x = input.readInt(),
+                y = input.readInt(),
+                width = input.readInt(),
+                height = input.readInt(),
+                duration = input.readInt(),
+                disposalMethod = input.readUnsignedByte(),
+                transparentColorIndex = input.readInt(),
+                colorTable = colorTables.getOrNull(input.readInt()),
+                imageDataOffset = input.readInt(),
+                lzwMinCodeSize = input.readUnsignedByte(),
+                interlace = input.readBoolean()
+            )
+        }
+        return ImageInfo(loopCount, viewport, frames) to bgColor
+    }
+}
@@ -0,0 +1,410 @@
+package com.github.penfeizhou.animation.gif.decode
+
+import com.github.penfeizhou.animation.io.FilterReader
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Decodes GIF LZW image data on the JVM, the counterpart of decodeLZW in GifDecoder.cpp.
+ *
+ * The string table lives in fixed arrays kept per thread, and every decoded index is written as
+ * its color straight to its final row of the target, sampled down and clipped, so decoding a
+ * frame allocates nothing. Strings already written in one piece are copied from the target
+ * instead of walking their prefixes.
+ */
+internal class GifLZWDecoder private constructor() {
+    private val prefix = ShortArray(MAX_CODES)
+    private val suffix = ByteArray(MAX_CODES)
+    private val first = ByteArray(MAX_CODES)
+    private val length = ShortArray(MAX_CODES)
+
+    /**
+     * Where the string of a code was written in one piece in [pixels], -1 if it was split
+     */
+    private val written = IntArray(MAX_CODES)
+    private val stack = ByteArray(MAX_CODES + 1)
+    private val palette = IntArray(256)
+
+    // Where data sub-blocks are read from, a backing array, a direct buffer or the reader
+    private val block = ByteArray(0xff)
+    private var buffer: ByteBuffer? = null
+    private var reader: FilterReader? = null
+    private var data = block
+    private var dataPosition = 0
+    private var dataLimit = 0
+    private var blockPosition = 0
+
+    // The target, and where the next pixel goes in the source frame
+    private var pixels = EMPTY
+    private var baseOffset = 0
+    private var stride = 0
+    private var sourceWidth = 0
+    private var sourceHeight = 0
+    private var sample = 1
+    private var keptWidth = 0
+    private var keptHeight = 0
+    private var interlace = false
+    private var blend = false
+    private var rowOffset = -1
+    private var column = 0
+    private var row = 0
+    private var rowsDone = 0
+    private var pass = 0
+
+    /**
+     * Decodes the width x height [frame] into [pixels], starting at [offset] with rows [stride]
+     * apart, sampled down by [sampleSize]. At most [targetWidth] x [targetHeight] pixels are
+     * written. When [blend] is set, transparent pixels leave the target as it is, otherwise they
+     * and pixels missing from truncated data are written as 0.
+     */
+    @Throws(IOException::class)
+    fun decode(
+        frame: GifFrame,
+        reader: FilterReader,
+        pixels: IntArray,
+        offset: Int,
+        stride: Int,
+        targetWidth: Int,
+        targetHeight: Int,
+        sampleSize: Int,
+        blend: Boolean
+    ) {
+        val width = frame.width
+        val height = frame.height
+        val colors = frame.colorTable?.colorTable ?: return
+        if (width <= 0 || height <= 0 || sampleSize <= 0) {
+            return
+        }
+        val codeCount = 1 shl frame.lzwMinCodeSize.coerceIn(0, 8)
+        // Indices outside the color table and the transparent index are both written as 0
+        var transparent = false
+        for (i in 0 until 256) {
+            val color = if (i < colors.size && i != frame.transparentColorIndex) colors[i] else 0
+            palette[i] = color
+            transparent = transparent || (i < codeCount && color == 0)
+        }
+        try {
+            openData(reader, frame.imageDataOffset)
+            this.pixels = pixels
+            baseOffset = offset
+            this.stride = stride
+            sourceWidth = width
+            sourceHeight = height
+            sample = sampleSize
+            keptWidth = minOf(targetWidth, width / sampleSize).coerceAtLeast(0) * sampleSize
+            keptHeight = minOf(targetHeight, height / sampleSize).coerceAtLeast(0)
+            interlace = frame.interlace
+            this.blend = blend
+            column = 0
+            row = 0
+            rowsDone = 0
+            pass = 0
+            rowOffset = keptRow(0)
+            // Strings are only written in one piece when no pixel is sampled out, dropped or
+            // blended
+            val direct = sampleSize == 1 && targetWidth >= width && targetHeight >= height &&
+                !(blend && transparent)
+            decodeLZW(direct, frame.lzwMinCodeSize)
+            if (!blend && rowsDone < sourceHeight) {
+                clearRest()
+            }
+        } finally {
+            // Nothing of the frame is kept by the thread
+            buffer = null
+            this.reader = null
+            this.pixels = EMPTY
+            data = block
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun openData(reader: FilterReader, imageDataOffset: Int) {
+        val buffer = reader.asByteBuffer()
+        if (buffer != null && buffer.hasArray()) {
+            // Held in memory, sub-blocks are read in place
+            this.buffer = null
+            this.reader = null
+            data = buffer.array()
+            dataPosition = buffer.arrayOffset() + imageDataOffset
+            dataLimit = buffer.arrayOffset() + buffer.limit()
+        } else if (buffer != null) {
+            // Direct, sub-blocks are copied out without going through the reader
+            buffer.position(imageDataOffset.coerceAtMost(buffer.limit()))
+            this.buffer = buffer
+            this.reader = null
+            data = block
+        } else {
+            reader.seek(imageDataOffset)
+            this.buffer = null
+            this.reader = reader
+            data = block
+        }
+    }
+
+    /**
+     * Moves to the next data sub-block, returns its length, 0 at the block terminator or the end
+     * of the data. Truncated blocks are returned as far as they go.
+     */
+    @Throws(IOException::class)
+    private fun nextBlock(): Int {
+        val buffer = buffer
+        val reader = reader
+        if (buffer != null) {
+            if (!buffer.hasRemaining()) {
+                return 0
+            }
+            val size = minOf(buffer.get().toInt() and 0xff, buffer.remaining())
+            buffer.get(block, 0, size)
+            blockPosition = 0
+            return size
+        }
+        if (reader == null) {
+            if (dataPosition >= dataLimit) {
+                return 0
+            }
+            val size = minOf(data[dataPosition++].toInt() and 0xff, dataLimit - dataPosition)
+            blockPosition = dataPosition
+            dataPosition += size
+            return size
+        }
+        // Read rather than peeked, peek() cannot tell the end of a stream from a 255 byte block.
+        // available() is no hint either, a stream may have none available before its end.
+        if (reader.read(block, 0, 1) <= 0) {
+            return 0
+        }
+        val size = block[0].toInt() and 0xff
+        var count = 0
+        while (count < size) {
+            val read = reader.read(block, count, size - count)
+            if (read <= 0) {
+                break
+            }
+            count += read
+        }
+        blockPosition = 0
+        return count
+    }
+
+    @Throws(IOException::class)
+    private fun decodeLZW(direct: Boolean, lzwMinCodeSize: Int) {
+        if (lzwMinCodeSize < 1 || lzwMinCodeSize >= 12) {
+            return
+        }
+        val pixels = pixels
+        val palette = palette
+        val codeClear = 1 shl lzwMinCodeSize
+        val codeEnd = codeClear + 1
+        for (code in 0 until codeClear) {
+            prefix[code] = 0
+            suffix[code] = code.toByte()
+            first[code] = code.toByte()
+            length[code] = 1
+            written[code] = -1
+        }
+        var available = codeClear + 2
+        var codeSize = lzwMinCodeSize + 1
+        var codeMask = (1 shl codeSize) - 1
+        var oldCode = -1
+        // Where the string of oldCode was just written, -1 if it was split across rows
+        var oldWritten = -1
+
+        var blockSize = 0
+        var position = 0
+        var datum = 0
+        var bits = 0
+        while (true) {
+            if (blockSize == 0) {
+                blockSize = nextBlock()
+                if (blockSize == 0) {
+                    // Data shorter than the frame
+                    return
+                }
+                position = blockPosition
+            }
+            datum = datum or ((data[position++].toInt() and 0xff) shl bits)
+            bits += 8
+            blockSize--
+            while (bits >= codeSize) {
+                val code = datum and codeMask
+                datum = datum ushr codeSize
+                bits -= codeSize
+                if (code == codeClear) {
+                    codeSize = lzwMinCodeSize + 1
+                    codeMask = (1 shl codeSize) - 1
+                    available = codeClear + 2
+                    oldCode = -1
+                    continue
+                }
+                if (code == codeEnd || code > available || (oldCode == -1 && code >= codeClear)) {
+                    return
+                }
+                val out = if (direct) rowOffset + column else -1
+                // The code being defined is the previous string followed by its first index
+                val defining = code == available
+                val source = if (defining) oldCode else code
+                val sourceLength = length[source].toInt()
+                val stringLength = if (defining) sourceLength + 1 else sourceLength
+                val firstIndex = first[source]
+                val fits = direct && stringLength <= sourceWidth - column
+                val more = if (fits && written[source] >= 0) {
+                    System.arraycopy(pixels, written[source], pixels, out, sourceLength)
+                    if (defining) {
+                        pixels[out + sourceLength] = palette[firstIndex.toInt() and 0xff]
+                    }
+                    advance(stringLength)
+                } else if (stringLength == 1 && direct) {
+                    pixels[out] = palette[code]
+                    advance(1)
+                } else {
+                    var top = 0
+                    if (defining) {
+                        stack[top++] = firstIndex
+                    }
+                    var walk = source
+                    while (walk >= codeClear) {
+                        stack[top++] = suffix[walk]
+                        walk = prefix[walk].toInt()
+                    }
+                    stack[top++] = walk.toByte()
+                    putReversed(top, stringLength)
+                }
+                val currentWritten = if (fits) out else -1
+                if (written[code] < 0 && code < available) {
+                    written[code] = currentWritten
+                }
+                if (oldCode != -1 && available < MAX_CODES) {
+                    val oldLength = length[oldCode].toInt()
+                    prefix[available] = oldCode.toShort()
+                    suffix[available] = firstIndex
+                    first[available] = first[oldCode]
+                    length[available] = (oldLength + 1).toShort()
+                    // The new string is the previous one followed by the first pixel just written
+                    written[available] = when {
+                        defining -> currentWritten
+                        oldWritten >= 0 && currentWritten >= 0 &&
+                            oldWritten + oldLength == currentWritten -> oldWritten
+                        else -> -1
+                    }
+                    available++
+                    if (available and codeMask == 0 && available < MAX_CODES) {
+                        codeSize++
+                        codeMask += available
+                    }
+                }
+                oldCode = code
+                oldWritten = currentWritten
+                if (!more) {
+                    return
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves past [count] pixels written from the current column, at most to the end of the row.
+     * Returns false once every row is written.
+     */
+    private fun advance(count: Int): Boolean {
+        column += count
+        return column < sourceWidth || nextRow()
+    }
+
+    /**
+     * Writes the colors of the [count] indices below [top] in [stack], last one first, as strings
+     * are decoded backwards. Returns false once every row is written.
+     */
+    private fun putReversed(top: Int, count: Int): Boolean {
+        val pixels = pixels
+        val palette = palette
+        var index = top
+        var remaining = count
+        while (remaining > 0) {
+            val run = minOf(sourceWidth - column, remaining)
+            if (rowOffset >= 0) {
+                val end = minOf(column + run, keptWidth)
+                var keptColumn = firstKeptColumn()
+                while (keptColumn < end) {
+                    val color = palette[stack[index - 1 - (keptColumn - column)].toInt() and 0xff]
+                    if (color != 0 || !blend) {
+                        pixels[rowOffset + keptColumn / sample] = color
+                    }
+                    keptColumn += sample
+                }
+            }
+            index -= run
+            remaining -= run
+            if (!advance(run)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Leaves the pixels not written yet transparent
+     */
+    private fun clearRest() {
+        do {
+            if (rowOffset >= 0) {
+                var keptColumn = firstKeptColumn()
+                while (keptColumn < keptWidth) {
+                    pixels[rowOffset + keptColumn / sample] = 0
+                    keptColumn += sample
+                }
+            }
+        } while (rowsDone < sourceHeight && advance(sourceWidth - column))
+    }
+
+    private fun nextRow(): Boolean {
+        column = 0
+        if (++rowsDone >= sourceHeight) {
+            rowOffset = -1
+            return false
+        }
+        if (interlace) {
+            // Passes start at rows 0, 4, 2, 1 and step 8, 8, 4, 2 rows
+            row += PASS_STEP[pass]
+            while (row >= sourceHeight && pass < 3) {
+                pass++
+                row = PASS_START[pass]
+            }
+        } else {
+            row++
+        }
+        rowOffset = keptRow(row)
+        return true
+    }
+
+    /**
+     * Returns where a source row goes in [pixels], or -1 if the row is sampled out or dropped
+     */
+    private fun keptRow(row: Int): Int = if (row % sample != 0 || row / sample >= keptHeight) {
+        -1
+    } else {
+        baseOffset + row / sample * stride
+    }
+
+    /**
+     * The first column from the current one on which is kept
+     */
+    private fun firstKeptColumn(): Int = (column + sample - 1) / sample * sample
+
+    companion object {
+        /**
+         * Largest number of codes in a GIF string table, codes are at most 12 bits
+         */
+        private const val MAX_CODES = 1 shl 12
+
+        private val PASS_START = intArrayOf(0, 4, 2, 1)
+        private val PASS_STEP = intArrayOf(8, 8, 4, 2)
+        private val EMPTY = IntArray(0)
+
+        private val sDecoder = ThreadLocal<GifLZWDecoder>()
+
+        /**
+         * Returns the decoder of the calling thread
+         */
+        fun obtain(): GifLZWDecoder =
+            sDecoder.get() ?: GifLZWDecoder().also { sDecoder.set(it) }
+    }
+}
@@ -1,8 +1,10 @@
 package com.github.penfeizhou.animation.gif.decode;
 
 import android.content.Context;
+import android.util.Size;
 
 import com.github.penfeizhou.animation.io.FilterReader;
+import com.github.penfeizhou.animation.io.IncompleteSourceException;
 import com.github.penfeizhou.animation.io.Reader;
 import com.github.penfeizhou.animation.io.StreamReader;
 
@@ -92,8 +94,18 @@ public class GifParser {
     }
 
     public static List<Block> parse(FilterReader reader) throws IOException {
-        checkHeader(reader);
         List<Block> blocks = new ArrayList<>();
+        parseHeader(reader, blocks);
+        parseBlocks(reader, blocks);
+        return blocks;
+    }
+
+    /**
+     * Parses the header, the Logical Screen Descriptor and the Global Color Table into
+     * {@code blocks}.
+     */
+    static void parseHeader(FilterReader reader, List<Block> blocks) throws IOException {
+        checkHeader(reader);
         // Logical Screen Descriptor
         LogicalScreenDescriptor logicalScreenDescriptor = new LogicalScreenDescriptor();
         logicalScreenDescriptor.receive(reader);
@@ -103,6 +115,15 @@ public class GifParser {
             globalColorTable.receive(reader);
             blocks.add(globalColorTable);
         }
+    }
+
+    /**
+     * Parses the blocks from the position of {@code reader} up to the trailer, or up to what
+     * arrived of a source still arriving, into {@code blocks}. Returns the position after the
+     * last block parsed in full, where parsing continues once more arrived.
+     */
+    static int parseBlocks(FilterReader reader, List<Block> blocks) throws IOException {
+        int end = reader.position();
         byte flag;
         try {
             while ((flag = reader.peek()) != 0x3B) {
@@ -118,19 +139,31 @@ public class GifParser {
                 if (block != null) {
                     block.receive(reader);
                     blocks.add(block);
+                    end = reader.position();
                 } else {
                     throw new FormatException();
                 }
             }
+        } catch (IncompleteSourceException e) {
+            // The rest has not arrived yet, keep the blocks so far
         } catch (Exception e) {
             // https://github.com/penfeizhou/APNG4Android/issues/119 To compat with this situation.
             e.printStackTrace();
         }
-
-
-        return blocks;
+        return end;
     }
 
+    /**
+     * Reads the logical screen size from the Logical Screen Descriptor, which directly follows
+     * the header, without parsing the rest of the file.
+     */
+    static Size parseViewport(FilterReader reader) throws IOException {
+        checkHeader(reader);
+        LogicalScreenDescriptor logicalScreenDescriptor = new LogicalScreenDescriptor();
+        logicalScreenDescriptor.receive(reader);
+        return new Size(logicalScreenDescriptor.getScreenWidth(),
+                logicalScreenDescriptor.getScreenHeight());
+    }
 
     private static void checkHeader(FilterReader reader) throws IOException {
         byte a;
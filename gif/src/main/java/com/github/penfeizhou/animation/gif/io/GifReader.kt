@@ -10,19 +10,5 @@ import java.io.IOException
  */
 object GifReader {
     @Throws(IOException::class)
-    fun FilterReader.readUInt16(): Int {
-        val buf = ensureBytes()
-        read(buf, 0, 2)
-        return buf[0].toInt() and 0xff or (buf[1].toInt() and 0xff shl 8)
-    }
-
-    private val THREAD_LOCAL_BYTE_BUFFERS = ThreadLocal<ByteArray>()
-    private fun ensureBytes(): ByteArray {
-        var bytes = THREAD_LOCAL_BYTE_BUFFERS.get()
-        if (bytes == null) {
-            bytes = ByteArray(4)
-            THREAD_LOCAL_BYTE_BUFFERS.set(bytes)
-        }
-        return bytes
-    }
+    fun FilterReader.readUInt16(): Int = readU16LE()
 }
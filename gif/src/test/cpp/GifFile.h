@@ -0,0 +1,154 @@
+//
+// A GIF read whole into memory and the frames found in it, for the host tools in this directory.
+//
+
+#ifndef APNG4ANDROID_GIFFILE_H
+#define APNG4ANDROID_GIFFILE_H
+
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+
+/**
+ * The image data of a frame and what decoding and compositing it needs
+ */
+struct Frame {
+    /**
+     * Where the Image Descriptor starts, after its separator
+     */
+    size_t descriptor;
+    int left;
+    int top;
+    int width;
+    int height;
+    std::vector<int> colors;
+    int transparentColorIndex;
+    int disposalMethod;
+    int lzwMinCodeSize;
+    bool interlace;
+    size_t offset;
+    /**
+     * End of the image data, after its block terminator
+     */
+    size_t limit;
+};
+
+struct GifFile {
+    std::vector<uint8_t> data;
+    int width = 0;
+    int height = 0;
+    /**
+     * The background color as a pixel, 0 if there is none
+     */
+    int background = 0;
+    std::vector<Frame> frames;
+};
+
+static bool readFile(const char *path, std::vector<uint8_t> &data) {
+    FILE *file = fopen(path, "rb");
+    if (!file) {
+        return false;
+    }
+    fseek(file, 0, SEEK_END);
+    long length = ftell(file);
+    rewind(file);
+    data.resize(length > 0 ? length : 0);
+    bool read = fread(data.data(), 1, data.size(), file) == data.size();
+    fclose(file);
+    return read;
+}
+
+/**
+ * Reads the GIF at path and collects its frames as GifDecoder.read does, returns false if it is
+ * missing or malformed
+ */
+static bool readGif(const char *path, GifFile &gif) {
+    std::vector<uint8_t> &data = gif.data;
+    size_t position = 13;
+    if (!readFile(path, data) || data.size() < position || memcmp(data.data(), "GIF8", 4) != 0) {
+        return false;
+    }
+    gif.width = data[6] | data[7] << 8;
+    gif.height = data[8] | data[9] << 8;
+    auto colorTable = [&](int flags, std::vector<int> &colors) {
+        int size = 2 << (flags & 7);
+        if (position + size * 3 > data.size()) {
+            return false;
+        }
+        colors.resize(size);
+        for (int i = 0; i < size; i++, position += 3) {
+            // As in ColorTable, red in the lowest byte
+            colors[i] = (int) (0xff000000 | data[position + 2] << 16 | data[position + 1] << 8 |
+                               data[position]);
+        }
+        return true;
+    };
+    auto skipSubBlocks = [&]() {
+        while (position < data.size() && data[position] != 0) {
+            position += data[position] + 1;
+        }
+        position++;
+        return position <= data.size();
+    };
+    std::vector<int> globalColors;
+    if (data[10] & 0x80) {
+        if (!colorTable(data[10], globalColors)) {
+            return false;
+        }
+        if (data[11] < globalColors.size()) {
+            gif.background = globalColors[data[11]];
+        }
+    }
+    // As in GifDecoder.read, a Graphic Control Extension applies until the next one
+    int transparentColorIndex = -1;
+    int disposalMethod = 0;
+    while (position < data.size()) {
+        uint8_t introducer = data[position++];
+        if (introducer == 0x3b) {
+            return true;
+        }
+        if (introducer == 0x21) {
+            if (position + 6 <= data.size() && data[position] == 0xf9) {
+                transparentColorIndex = (data[position + 2] & 1) ? data[position + 5] : -1;
+                disposalMethod = data[position + 2] >> 2 & 7;
+            }
+            position++;
+            if (!skipSubBlocks()) {
+                return false;
+            }
+            continue;
+        }
+        if (introducer != 0x2c || position + 10 > data.size()) {
+            return false;
+        }
+        Frame frame;
+        frame.descriptor = position;
+        frame.left = data[position] | data[position + 1] << 8;
+        frame.top = data[position + 2] | data[position + 3] << 8;
+        frame.width = data[position + 4] | data[position + 5] << 8;
+        frame.height = data[position + 6] | data[position + 7] << 8;
+        int flags = data[position + 8];
+        position += 9;
+        if (flags & 0x80) {
+            if (!colorTable(flags, frame.colors)) {
+                return false;
+            }
+        } else {
+            frame.colors = globalColors;
+        }
+        frame.transparentColorIndex = transparentColorIndex;
+        frame.disposalMethod = disposalMethod;
+        frame.interlace = (flags & 0x40) != 0;
+        frame.lzwMinCodeSize = data[position++];
+        frame.offset = position;
+        if (!skipSubBlocks()) {
+            return false;
+        }
+        frame.limit = position;
+        gif.frames.push_back(frame);
+    }
+    return true;
+}
+
+#endif //APNG4ANDROID_GIFFILE_H
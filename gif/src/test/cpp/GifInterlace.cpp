@@ -0,0 +1,171 @@
+//
+// Rewrites a GIF with every frame interlaced, for the interlaced fixtures in src/test/resources,
+// which none of the sample GIFs is:
+//
+//   build/gif-host/gif_interlace app/src/main/assets/5.gif gif/src/test/resources/interlaced/5.gif
+//
+// Frames are decoded to their color indices with the native core, their rows reordered into the
+// four interlace passes and encoded again. Everything else is copied as it is, so the result
+// renders the same as the original.
+//
+
+#include <algorithm>
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+
+#include "GifFile.h"
+#include "GifLZW.h"
+
+/**
+ * Packs codes into data sub-blocks, least significant bit first
+ */
+class CodeWriter {
+public:
+    explicit CodeWriter(std::vector<uint8_t> &out) : mOut(out) {}
+
+    void write(int code, int size) {
+        mDatum |= (uint32_t) code << mBits;
+        mBits += size;
+        while (mBits >= 8) {
+            put((uint8_t) mDatum);
+            mDatum >>= 8;
+            mBits -= 8;
+        }
+    }
+
+    void finish() {
+        if (mBits > 0) {
+            put((uint8_t) mDatum);
+        }
+        flushBlock();
+        mOut.push_back(0);
+    }
+
+private:
+    void put(uint8_t byte) {
+        mBlock.push_back(byte);
+        if (mBlock.size() == 0xff) {
+            flushBlock();
+        }
+    }
+
+    void flushBlock() {
+        if (!mBlock.empty()) {
+            mOut.push_back((uint8_t) mBlock.size());
+            mOut.insert(mOut.end(), mBlock.begin(), mBlock.end());
+            mBlock.clear();
+        }
+    }
+
+    std::vector<uint8_t> &mOut;
+    std::vector<uint8_t> mBlock;
+    uint32_t mDatum = 0;
+    int mBits = 0;
+};
+
+/**
+ * Encodes indices as LZW image data. Code sizes grow as decodeLZW expects, which adds a code to
+ * its table one code later than the encoder does.
+ */
+static void encodeLZW(const std::vector<uint8_t> &indices, int lzwMinCodeSize,
+                      std::vector<uint8_t> &out) {
+    const int codeClear = 1 << lzwMinCodeSize;
+    const int codeEnd = codeClear + 1;
+    std::vector<int> table((size_t) MAX_CODES << 8);
+    CodeWriter writer(out);
+    int codeSize = 0;
+    int next = 0;
+    int decoderAvailable = 0;
+    bool cleared = false;
+    auto reset = [&]() {
+        std::fill(table.begin(), table.end(), 0);
+        codeSize = lzwMinCodeSize + 1;
+        next = codeClear + 2;
+        decoderAvailable = codeClear + 2;
+        cleared = true;
+    };
+    auto emit = [&](int code) {
+        writer.write(code, codeSize);
+        if (cleared) {
+            // The first code after a clear code defines nothing
+            cleared = false;
+        } else if (decoderAvailable < MAX_CODES) {
+            decoderAvailable++;
+            if ((decoderAvailable & ((1 << codeSize) - 1)) == 0 && decoderAvailable < MAX_CODES) {
+                codeSize++;
+            }
+        }
+    };
+    reset();
+    writer.write(codeClear, codeSize);
+    int prefix = indices.empty() ? -1 : indices[0];
+    for (size_t i = 1; i < indices.size(); i++) {
+        const int key = prefix << 8 | indices[i];
+        if (table[key]) {
+            prefix = table[key];
+            continue;
+        }
+        emit(prefix);
+        if (next < MAX_CODES) {
+            table[key] = next++;
+        } else {
+            writer.write(codeClear, codeSize);
+            reset();
+        }
+        prefix = indices[i];
+    }
+    if (prefix >= 0) {
+        emit(prefix);
+    }
+    writer.write(codeEnd, codeSize);
+    writer.finish();
+}
+
+int main(int argc, char **argv) {
+    GifFile gif;
+    if (argc != 3 || !readGif(argv[1], gif)) {
+        fprintf(stderr, "Usage: %s in.gif out.gif\n", argv[0]);
+        return 2;
+    }
+    const std::vector<uint8_t> &data = gif.data;
+    std::vector<uint8_t> out;
+    size_t copied = 0;
+    for (const Frame &frame: gif.frames) {
+        // Color indices, decoded through a table mapping every index to itself
+        int identity[256];
+        for (int i = 0; i < 256; i++) {
+            identity[i] = i;
+        }
+        std::vector<int> decoded((size_t) frame.width * frame.height);
+        MemoryReader reader(data.data(), frame.limit, frame.offset);
+        decodeFrame(reader, identity, 256, -1,
+                    pixelsTarget(decoded.data(), frame.width, frame.height, 1), frame.width,
+                    frame.height, 1, frame.lzwMinCodeSize, frame.interlace);
+        // Rows in the order of the passes, starting at rows 0, 4, 2, 1 and 8, 8, 4, 2 rows apart
+        static const int PASS_START[] = {0, 4, 2, 1};
+        static const int PASS_STEP[] = {8, 8, 4, 2};
+        std::vector<uint8_t> indices;
+        indices.reserve(decoded.size());
+        for (int pass = 0; pass < 4; pass++) {
+            for (int row = PASS_START[pass]; row < frame.height; row += PASS_STEP[pass]) {
+                const int *pixels = decoded.data() + (size_t) row * frame.width;
+                indices.insert(indices.end(), pixels, pixels + frame.width);
+            }
+        }
+        const size_t flags = frame.descriptor + 8;
+        out.insert(out.end(), data.begin() + copied, data.begin() + frame.offset);
+        out[out.size() - (frame.offset - flags)] |= 0x40;
+        encodeLZW(indices, frame.lzwMinCodeSize, out);
+        copied = frame.limit;
+    }
+    out.insert(out.end(), data.begin() + copied, data.end());
+    FILE *file = fopen(argv[2], "wb");
+    if (!file || fwrite(out.data(), 1, out.size(), file) != out.size()) {
+        fprintf(stderr, "%s: cannot write\n", argv[2]);
+        return 1;
+    }
+    fclose(file);
+    return 0;
+}
@@ -0,0 +1,146 @@
+//
+// Renders every frame of a GIF with the native core as GifDecoder.renderFrame does with the
+// native engine, and prints the CRC32 of the canvas after each frame. The output is checked in
+// as src/test/resources/reference/<file>.txt, which the JVM engine is tested against:
+//
+//   cmake -S gif/src/test/cpp -B build/gif-host && cmake --build build/gif-host
+//   for f in app/src/main/assets/*.gif; do
+//       build/gif-host/gif_reference $f > gif/src/test/resources/reference/${f##*/}.txt
+//   done
+//
+// Each line is a variant, the sample size and one CRC32 per frame. The canvas is hashed as bitmap
+// memory, 4 bytes per pixel in the order of the colors of ColorTable. Variants are "full", and
+// "truncated", where the image data of every frame is cut in half.
+//
+
+#include <algorithm>
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+
+#include "GifFile.h"
+#include "GifLZW.h"
+
+static const int MAX_SAMPLE_SIZE = 3;
+
+/**
+ * A canvas in memory, composited and disposed like the bitmap of LockedCanvas in GifDecoder.cpp
+ */
+struct Canvas {
+    int width;
+    int height;
+    std::vector<int> pixels;
+
+    Canvas(int width, int height) : width(width), height(height), pixels(width * height) {}
+
+    void composite(const GifFile &gif, const Frame &frame, size_t limit, int sampleSize,
+                   int background) {
+        const int left = frame.left / sampleSize;
+        const int top = frame.top / sampleSize;
+        if (left < width && top < height) {
+            Target target;
+            target.pixels = pixels.data() + (size_t) top * width + left;
+            target.stride = width;
+            target.width = std::max(0, std::min(frame.width / sampleSize, width - left));
+            target.height = std::max(0, std::min(frame.height / sampleSize, height - top));
+            target.blend = true;
+            MemoryReader reader(gif.data.data(), limit, frame.offset);
+            decodeFrame(reader, frame.colors.data(), (int) frame.colors.size(),
+                        frame.transparentColorIndex, target, frame.width, frame.height,
+                        sampleSize, frame.lzwMinCodeSize, frame.interlace);
+        }
+        if (background != 0) {
+            for (int &pixel: pixels) {
+                if (((uint32_t) pixel >> 24) == 0) {
+                    pixel = background;
+                }
+            }
+        }
+    }
+
+    void dispose(const Frame &frame, int sampleSize, const std::vector<int> *snapshot) {
+        const int left = std::max(0, frame.left / sampleSize);
+        const int top = std::max(0, frame.top / sampleSize);
+        const int right = std::min(width, (frame.left + frame.width) / sampleSize);
+        const int bottom = std::min(height, (frame.top + frame.height) / sampleSize);
+        for (int y = top; y < bottom && left < right; y++) {
+            int *row = pixels.data() + (size_t) y * width;
+            if (snapshot) {
+                memcpy(row + left, snapshot->data() + (size_t) y * width + left,
+                       (right - left) * sizeof(int));
+            } else {
+                memset(row + left, 0, (right - left) * sizeof(int));
+            }
+        }
+    }
+};
+
+/**
+ * The CRC32 of pixels as bitmap memory, the same as java.util.zip.CRC32 over those bytes
+ */
+static uint32_t crc32(const std::vector<int> &pixels) {
+    static uint32_t table[256];
+    if (!table[1]) {
+        for (uint32_t i = 0; i < 256; i++) {
+            uint32_t c = i;
+            for (int k = 0; k < 8; k++) {
+                c = c & 1 ? 0xedb88320 ^ (c >> 1) : c >> 1;
+            }
+            table[i] = c;
+        }
+    }
+    uint32_t crc = 0xffffffff;
+    for (int pixel: pixels) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            crc = table[(crc ^ ((uint32_t) pixel >> shift)) & 0xff] ^ (crc >> 8);
+        }
+    }
+    return crc ^ 0xffffffff;
+}
+
+static void printRendering(const GifFile &gif, int sampleSize, bool truncated) {
+    Canvas canvas(gif.width / sampleSize, gif.height / sampleSize);
+    // Starts cleared, as the snapshot buffer of GifDecoder
+    std::vector<int> snapshot(canvas.pixels.size(), 0);
+    printf("%s %d", truncated ? "truncated" : "full", sampleSize);
+    for (size_t i = 0; i < gif.frames.size(); i++) {
+        const Frame &frame = gif.frames[i];
+        const int background = frame.transparentColorIndex >= 0 ? 0 : gif.background;
+        if (i == 0) {
+            std::fill(canvas.pixels.begin(), canvas.pixels.end(), background);
+        } else {
+            const Frame &preFrame = gif.frames[i - 1];
+            if (frame.disposalMethod == 3 && preFrame.disposalMethod != 3) {
+                snapshot = canvas.pixels;
+            }
+            if (preFrame.disposalMethod == 2) {
+                canvas.dispose(preFrame, sampleSize, nullptr);
+            } else if (preFrame.disposalMethod == 3) {
+                canvas.dispose(preFrame, sampleSize, &snapshot);
+            }
+        }
+        const size_t limit = truncated ? frame.offset + (frame.limit - frame.offset) / 2
+                                       : frame.limit;
+        canvas.composite(gif, frame, limit, sampleSize, background);
+        printf(" %08x", crc32(canvas.pixels));
+    }
+    printf("\n");
+}
+
+int main(int argc, char **argv) {
+    GifFile gif;
+    if (argc != 2 || !readGif(argv[1], gif)) {
+        fprintf(stderr, "Usage: %s file.gif\n", argv[0]);
+        return 2;
+    }
+    const char *name = strrchr(argv[1], '/');
+    printf("# %s, generated by gif_reference, see src/test/cpp/GifReference.cpp\n",
+           name ? name + 1 : argv[1]);
+    for (int truncated = 0; truncated <= 1; truncated++) {
+        for (int sampleSize = 1; sampleSize <= MAX_SAMPLE_SIZE; sampleSize++) {
+            printRendering(gif, sampleSize, truncated != 0);
+        }
+    }
+    return 0;
+}
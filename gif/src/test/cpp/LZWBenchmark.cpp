@@ -0,0 +1,129 @@
+//
+// Checks the LZW decoder of GifLZW.h against the one it replaced in LegacyLZW.h and times both on
+// the host, without a device or the JNI glue:
+//
+//   cmake -S gif/src/test/cpp -B build/gif-host -DCMAKE_BUILD_TYPE=Release
+//   cmake --build build/gif-host
+//   build/gif-host/lzw_benchmark app/src/main/assets/*.gif
+//
+// Every frame is decoded by both at sample size 1, as it is, with interlacing forced and with its
+// data cut in half, and the pixels must be identical. Then all frames of each file are decoded
+// repeatedly by each, and the best time per pass is reported.
+//
+
+#include <algorithm>
+#include <chrono>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+
+#include "GifFile.h"
+#include "GifLZW.h"
+#include "LegacyLZW.h"
+
+static void decodeLegacy(const std::vector<uint8_t> &data, const Frame &frame, int *pixels) {
+    MemoryReader reader(data.data(), frame.limit, frame.offset);
+    legacyDecodeLZW(reader, frame.colors.data(), frame.transparentColorIndex, pixels, frame.width,
+                    frame.height, frame.lzwMinCodeSize, frame.interlace);
+}
+
+static void decodeCurrent(const std::vector<uint8_t> &data, const Frame &frame, int *pixels) {
+    MemoryReader reader(data.data(), frame.limit, frame.offset);
+    decodeFrame(reader, frame.colors.data(), (int) frame.colors.size(),
+                frame.transparentColorIndex, pixelsTarget(pixels, frame.width, frame.height, 1),
+                frame.width, frame.height, 1, frame.lzwMinCodeSize, frame.interlace);
+}
+
+/**
+ * Decodes frame with both decoders and returns whether the pixels are identical
+ */
+static bool sameOutput(const std::vector<uint8_t> &data, const Frame &frame) {
+    const size_t size = (size_t) frame.width * frame.height;
+    // The legacy decoder may run past the frame on corrupt data, leave it some room
+    std::vector<int> legacy(size + MAX_CODES, 0);
+    std::vector<int> current(size, -1);
+    decodeLegacy(data, frame, legacy.data());
+    decodeCurrent(data, frame, current.data());
+    return memcmp(legacy.data(), current.data(), size * sizeof(int)) == 0;
+}
+
+/**
+ * Returns the best time of decoding all frames, in microseconds
+ */
+template<typename Decode>
+static double bestPass(const std::vector<uint8_t> &data, const std::vector<Frame> &frames,
+                       int passes, Decode decode, std::vector<int> &pixels, uint32_t &checksum) {
+    double best = -1;
+    for (int pass = 0; pass < passes; pass++) {
+        auto start = std::chrono::steady_clock::now();
+        for (const Frame &frame: frames) {
+            decode(data, frame, pixels.data());
+            checksum += pixels[pixels.size() / 2];
+        }
+        double micros = std::chrono::duration<double, std::micro>(
+                std::chrono::steady_clock::now() - start).count();
+        if (best < 0 || micros < best) {
+            best = micros;
+        }
+    }
+    return best;
+}
+
+int main(int argc, char **argv) {
+    int passes = 50;
+    int first = 1;
+    if (argc > 2 && strcmp(argv[1], "--passes") == 0) {
+        passes = std::max(1, atoi(argv[2]));
+        first = 3;
+    }
+    if (first >= argc) {
+        fprintf(stderr, "Usage: %s [--passes n] file.gif...\n", argv[0]);
+        return 2;
+    }
+    int mismatches = 0;
+    double legacyTotal = 0;
+    double currentTotal = 0;
+    uint32_t checksum = 0;
+    printf("%-24s %7s %12s %12s %8s\n", "file", "frames", "legacy us", "current us", "speedup");
+    for (int i = first; i < argc; i++) {
+        GifFile gif;
+        if (!readGif(argv[i], gif) || gif.frames.empty()) {
+            fprintf(stderr, "%s: not a readable GIF\n", argv[i]);
+            return 2;
+        }
+        const std::vector<uint8_t> &data = gif.data;
+        const std::vector<Frame> &frames = gif.frames;
+        size_t maxSize = 0;
+        for (const Frame &frame: frames) {
+            maxSize = std::max(maxSize, (size_t) frame.width * frame.height);
+            Frame interlaced = frame;
+            interlaced.interlace = !frame.interlace;
+            Frame truncated = frame;
+            truncated.limit = frame.offset + (frame.limit - frame.offset) / 2;
+            for (const Frame &variant: {frame, interlaced, truncated}) {
+                if (!sameOutput(data, variant)) {
+                    mismatches++;
+                }
+            }
+        }
+        std::vector<int> pixels(maxSize + MAX_CODES);
+        double legacy = bestPass(data, frames, passes, decodeLegacy, pixels, checksum);
+        double current = bestPass(data, frames, passes, decodeCurrent, pixels, checksum);
+        legacyTotal += legacy;
+        currentTotal += current;
+        const char *name = strrchr(argv[i], '/');
+        printf("%-24s %7zu %12.0f %12.0f %7.2fx\n", name ? name + 1 : argv[i], frames.size(),
+               legacy, current, legacy / current);
+    }
+    printf("%-24s %7s %12.0f %12.0f %7.2fx\n", "total", "", legacyTotal, currentTotal,
+           legacyTotal / currentTotal);
+    // Keeps the decoded pixels observable so that decoding is not optimized away
+    fprintf(stderr, "checksum %08x\n", checksum);
+    if (mismatches) {
+        fprintf(stderr, "%d frame variants differ from the legacy decoder\n", mismatches);
+        return 1;
+    }
+    return 0;
+}
@@ -0,0 +1,220 @@
+package com.github.penfeizhou.animation.gif.decode
+
+import com.github.penfeizhou.animation.io.BufferedStreamReader
+import com.github.penfeizhou.animation.io.ByteBufferReader
+import com.github.penfeizhou.animation.io.FilterReader
+import com.github.penfeizhou.animation.io.StreamReader
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.CRC32
+
+/**
+ * Renders the sample GIFs of the app with the JVM engine, [GifFrame.composite] and
+ * [GifFrame.dispose] on a [GifCanvas] in the order GifDecoder.renderFrame uses, and checks the
+ * canvas after every frame against the native rendering.
+ *
+ * References are in src/test/resources/reference, one CRC32 of the canvas per frame, made with the
+ * native core by src/test/cpp/GifReference.cpp. The interlaced fixtures in
+ * src/test/resources/interlaced are sample GIFs interlaced by src/test/cpp/GifInterlace.cpp, and
+ * render the same as the originals.
+ */
+class GifCanvasTest {
+    /**
+     * Where frames read their image data from, each taking its own path through GifLZWDecoder
+     */
+    enum class Source {
+        HEAP_BUFFER,
+        DIRECT_BUFFER,
+        STREAM,
+        BUFFERED_STREAM
+    }
+
+    @Test
+    fun rendersLikeNative() {
+        for (name in assetNames()) {
+            val data = File(assetsDir, name).readBytes()
+            for (sampleSize in SAMPLE_SIZES) {
+                val expected = reference(name, "full", sampleSize)
+                for (source in Source.values()) {
+                    assertEquals(
+                        "$name at sample size $sampleSize from $source",
+                        expected,
+                        render(data, sampleSize, source, false)
+                    )
+                }
+            }
+        }
+    }
+
+    @Test
+    fun rendersTruncatedDataLikeNative() {
+        for (name in assetNames()) {
+            val data = File(assetsDir, name).readBytes()
+            for (sampleSize in SAMPLE_SIZES) {
+                val expected = reference(name, "truncated", sampleSize)
+                for (source in Source.values()) {
+                    assertEquals(
+                        "$name truncated at sample size $sampleSize from $source",
+                        expected,
+                        render(data, sampleSize, source, true)
+                    )
+                }
+            }
+        }
+    }
+
+    @Test
+    fun rendersInterlacedLikeOriginal() {
+        for (name in INTERLACED_NAMES) {
+            val data = resource("/interlaced/$name").readBytes()
+            for (sampleSize in SAMPLE_SIZES) {
+                val expected = reference(name, "full", sampleSize)
+                for (source in Source.values()) {
+                    assertEquals(
+                        "Interlaced $name at sample size $sampleSize from $source",
+                        expected,
+                        render(data, sampleSize, source, false)
+                    )
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders every frame of [data] and returns the CRC32 of the canvas after each. When
+     * [truncated], each frame reads from a source cut in the middle of its image data.
+     */
+    private fun render(
+        data: ByteArray,
+        sampleSize: Int,
+        source: Source,
+        truncated: Boolean
+    ): List<String> {
+        val direct = if (source == Source.DIRECT_BUFFER) {
+            ByteBuffer.allocateDirect(data.size).put(data)
+        } else {
+            null
+        }
+        val reader = reader(data, data.size, source, direct)
+        var screen: LogicalScreenDescriptor? = null
+        var globalColorTable: ColorTable? = null
+        var graphicControlExtension: GraphicControlExtension? = null
+        val frames = mutableListOf<GifFrame>()
+        for (block in GifParser.parse(reader(data, data.size, Source.HEAP_BUFFER, null))) {
+            when (block) {
+                is LogicalScreenDescriptor -> screen = block
+                is ColorTable -> globalColorTable = block
+                is GraphicControlExtension -> graphicControlExtension = block
+                is ImageDescriptor -> {
+                    val frameReader = if (truncated) {
+                        val offset = block.imageDataOffset
+                        val cut = offset + (dataEnd(data, offset) - offset) / 2
+                        reader(data, cut, source, direct)
+                    } else {
+                        reader
+                    }
+                    frames +=
+                        GifFrame(frameReader, globalColorTable, graphicControlExtension, block)
+                }
+            }
+        }
+        val logicalScreen = screen!!
+        val bgColor = globalColorTable?.colorTable
+            ?.getOrNull(logicalScreen.bgColorIndex.toInt() and 0xff)
+            ?.takeIf { logicalScreen.gColorTableFlag() } ?: 0
+        val canvas = GifCanvas(
+            logicalScreen.screenWidth / sampleSize,
+            logicalScreen.screenHeight / sampleSize
+        )
+        // Starts cleared, as the snapshot buffer of GifDecoder
+        var snapshot = IntArray(canvas.pixels.size)
+        return frames.mapIndexed { index, frame ->
+            val background = if (frame.transparencyFlag()) 0 else bgColor
+            if (index == 0) {
+                canvas.erase(background)
+            } else {
+                val preFrame = frames[index - 1]
+                if (frame.disposalMethod == 3 && preFrame.disposalMethod != 3) {
+                    snapshot = canvas.pixels.copyOf()
+                }
+                when (preFrame.disposalMethod) {
+                    2 -> preFrame.dispose(canvas, sampleSize, null)
+                    3 -> preFrame.dispose(canvas, sampleSize, snapshot)
+                }
+            }
+            frame.composite(canvas, sampleSize, background)
+            checksum(canvas.pixels)
+        }
+    }
+
+    /**
+     * Returns a reader of the first [length] bytes of [data]
+     */
+    private fun reader(
+        data: ByteArray,
+        length: Int,
+        source: Source,
+        direct: ByteBuffer?
+    ): FilterReader = FilterReader(
+        when (source) {
+            Source.HEAP_BUFFER -> ByteBufferReader(ByteBuffer.wrap(data, 0, length))
+            Source.DIRECT_BUFFER -> ByteBufferReader(direct!!.duplicate().apply { limit(length) })
+            Source.STREAM -> StreamReader(ByteArrayInputStream(data, 0, length))
+            Source.BUFFERED_STREAM -> BufferedStreamReader(ByteArrayInputStream(data, 0, length))
+        }
+    )
+
+    /**
+     * Returns the end of the image data starting at [offset], after its block terminator
+     */
+    private fun dataEnd(data: ByteArray, offset: Int): Int {
+        var position = offset
+        while (position < data.size && data[position].toInt() != 0) {
+            position += (data[position].toInt() and 0xff) + 1
+        }
+        return (position + 1).coerceAtMost(data.size)
+    }
+
+    /**
+     * The CRC32 of [pixels] as bitmap memory, as GifReference.cpp computes it
+     */
+    private fun checksum(pixels: IntArray): String {
+        val bytes = ByteBuffer.allocate(pixels.size * 4).order(ByteOrder.LITTLE_ENDIAN)
+        bytes.asIntBuffer().put(pixels)
+        val crc = CRC32()
+        crc.update(bytes.array())
+        return "%08x".format(crc.value)
+    }
+
+    private fun reference(name: String, variant: String, sampleSize: Int): List<String> =
+        resource("/reference/$name.txt").bufferedReader().useLines { lines ->
+            lines.map { it.split(' ') }
+                .firstOrNull { it[0] == variant && it.getOrNull(1) == sampleSize.toString() }
+                ?.drop(2)
+        } ?: throw AssertionError("No $variant reference of $name at sample size $sampleSize")
+
+    private fun resource(path: String) = javaClass.getResourceAsStream(path)
+        ?: throw AssertionError("Missing test resource $path")
+
+    private fun assetNames(): List<String> {
+        val names = assetsDir.list { _, name -> name.endsWith(".gif") }?.sorted().orEmpty()
+        assertTrue("No GIFs in $assetsDir", names.isNotEmpty())
+        return names
+    }
+
+    companion object {
+        private val SAMPLE_SIZES = 1..3
+        private val INTERLACED_NAMES = listOf("5.gif", "world-cup.gif")
+
+        /**
+         * The sample GIFs of the app, set by the build
+         */
+        private val assetsDir =
+            File(System.getProperty("gifAssetsDir") ?: "../app/src/main/assets")
+    }
+}
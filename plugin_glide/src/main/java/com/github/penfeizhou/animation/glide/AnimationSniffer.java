@@ -0,0 +1,214 @@
+package com.github.penfeizhou.animation.glide;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+import com.github.penfeizhou.animation.apng.decode.APNGParser;
+import com.github.penfeizhou.animation.io.ByteBufferReader;
+import com.github.penfeizhou.animation.io.StreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @Description: Tells animated formats apart from at most {@link #WINDOW_SIZE} bytes of the header,
+ * read once. The result is remembered for the source, so that {@code decode()} does not sniff it
+ * again after {@code handles()}. A PNG whose chunks before acTL or IDAT outgrow the window, e.g.
+ * behind a large iCCP or iTXt, is scanned in full by {@link APNGParser#isAPNG}.
+ */
+final class AnimationSniffer {
+    /**
+     * Bytes read at most. APNG puts acTL before the first IDAT and extended WebP puts VP8X first,
+     * so animated files are told within the first chunks.
+     */
+    static final int WINDOW_SIZE = 64 * 1024;
+
+    private static final int PNG_ACTL = fourCC('a', 'c', 'T', 'L');
+    private static final int PNG_IDAT = fourCC('I', 'D', 'A', 'T');
+    private static final int WEBP_VP8X = fourCC('V', 'P', '8', 'X');
+    private static final int WEBP_FLAG_ANIMATION = 0x02;
+
+    enum Format {
+        APNG, WEBP, GIF, NONE
+    }
+
+    /**
+     * The last source sniffed on this thread. Glide calls {@code decode()} right after
+     * {@code handles()} with the same source on the same thread.
+     */
+    private static final ThreadLocal<Sniffed> LAST_SNIFFED = new ThreadLocal<>();
+
+    private static final class Sniffed {
+        final WeakReference<Object> source;
+        final Format format;
+
+        Sniffed(Object source, Format format) {
+            this.source = new WeakReference<>(source);
+            this.format = format;
+        }
+    }
+
+    private AnimationSniffer() {
+    }
+
+    /**
+     * Sniffs {@code source} without moving its position.
+     */
+    @NonNull
+    static Format sniff(@NonNull ByteBuffer source) {
+        Format format = recall(source);
+        if (format == null) {
+            ByteBuffer window = source.duplicate();
+            window.position(0);
+            window.limit(Math.min(window.limit(), WINDOW_SIZE));
+            format = classify(window.slice(), window.limit() == source.limit());
+            if (format == null) {
+                format = APNGParser.isAPNG(new ByteBufferReader(source.duplicate()))
+                        ? Format.APNG : Format.NONE;
+            }
+            LAST_SNIFFED.set(new Sniffed(source, format));
+        }
+        return format;
+    }
+
+    /**
+     * Sniffs {@code source} from its current position, reading at most {@link #WINDOW_SIZE} bytes
+     * into a buffer borrowed from {@code arrayPool}. The caller rewinds the stream.
+     */
+    @NonNull
+    static Format sniff(@NonNull InputStream source, @NonNull ArrayPool arrayPool) throws IOException {
+        Format format = recall(source);
+        if (format != null) {
+            return format;
+        }
+        byte[] window = arrayPool.get(WINDOW_SIZE, byte[].class);
+        try {
+            int length = 0;
+            while (length < WINDOW_SIZE) {
+                int count = source.read(window, length, WINDOW_SIZE - length);
+                if (count < 0) {
+                    break;
+                }
+                length += count;
+            }
+            format = classify(ByteBuffer.wrap(window, 0, length).slice(), length < WINDOW_SIZE);
+        } finally {
+            arrayPool.put(window);
+        }
+        if (format == null) {
+            // Read from the start again, the stream is rewound to where Glide marked it
+            format = APNGParser.isAPNG(new StreamReader(source)) ? Format.APNG : Format.NONE;
+        }
+        LAST_SNIFFED.set(new Sniffed(source, format));
+        return format;
+    }
+
+    /**
+     * @return Whether a decoder for {@code format} exists and is not disabled by {@code options}
+     */
+    static boolean isEnabled(@NonNull Format format, @NonNull Options options) {
+        switch (format) {
+            case APNG:
+                return !options.get(AnimationDecoderOption.DISABLE_ANIMATION_APNG_DECODER);
+            case WEBP:
+                return !options.get(AnimationDecoderOption.DISABLE_ANIMATION_WEBP_DECODER);
+            case GIF:
+                return !options.get(AnimationDecoderOption.DISABLE_ANIMATION_GIF_DECODER);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The format {@code source} was last sniffed as on this thread, or null
+     */
+    @Nullable
+    static Format recall(@NonNull Object source) {
+        Sniffed sniffed = LAST_SNIFFED.get();
+        if (sniffed != null && sniffed.source.get() == source) {
+            return sniffed.format;
+        }
+        return null;
+    }
+
+    /**
+     * @param complete Whether {@code header} holds the whole source
+     * @return The format of the source, or null if it is a PNG undecided within {@code header}
+     */
+    @Nullable
+    private static Format classify(ByteBuffer header, boolean complete) {
+        int length = header.limit();
+        if (length >= 6 && header.get(0) == 'G' && header.get(1) == 'I' && header.get(2) == 'F'
+                && header.get(3) == '8' && (header.get(4) == '7' || header.get(4) == '9')
+                && header.get(5) == 'a') {
+            return Format.GIF;
+        }
+        if (length >= 8 && (header.get(0) & 0xff) == 0x89 && header.get(1) == 'P'
+                && header.get(2) == 'N' && header.get(3) == 'G') {
+            Boolean apng = isAPNG(header);
+            if (apng == null) {
+                return complete ? Format.NONE : null;
+            }
+            return apng ? Format.APNG : Format.NONE;
+        }
+        if (length >= 12 && header.order(ByteOrder.LITTLE_ENDIAN).getInt(0) == fourCC('R', 'I', 'F', 'F')
+                && header.getInt(8) == fourCC('W', 'E', 'B', 'P')) {
+            return isAnimatedWebP(header) ? Format.WEBP : Format.NONE;
+        }
+        return Format.NONE;
+    }
+
+    /**
+     * Walks the chunks until acTL, or IDAT, before which acTL must appear
+     *
+     * @return Null if {@code header} ends before either
+     */
+    @Nullable
+    private static Boolean isAPNG(ByteBuffer header) {
+        header.order(ByteOrder.BIG_ENDIAN);
+        long offset = 8;
+        while (offset + 8 <= header.limit()) {
+            long length = header.getInt((int) offset) & 0xffffffffL;
+            int type = Integer.reverseBytes(header.getInt((int) offset + 4));
+            if (type == PNG_ACTL) {
+                return true;
+            }
+            if (type == PNG_IDAT) {
+                return false;
+            }
+            // Length, type, data and CRC
+            offset += 12 + length;
+        }
+        return null;
+    }
+
+    /**
+     * Walks the chunks until VP8X, which tells whether the file is animated
+     */
+    private static boolean isAnimatedWebP(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        long offset = 12;
+        while (offset + 9 <= header.limit()) {
+            int type = header.getInt((int) offset);
+            long size = header.getInt((int) offset + 4) & 0xffffffffL;
+            if (type == WEBP_VP8X) {
+                return (header.get((int) offset + 8) & WEBP_FLAG_ANIMATION) != 0;
+            }
+            // Chunks are padded to an even size
+            offset += 8 + size + (size & 1);
+        }
+        return false;
+    }
+
+    /**
+     * Packs four characters with the first in the lowest byte, as a little-endian read does
+     */
+    private static int fourCC(char a, char b, char c, char d) {
+        return (a & 0xff) | (b & 0xff) << 8 | (c & 0xff) << 16 | (d & 0xff) << 24;
+    }
+}
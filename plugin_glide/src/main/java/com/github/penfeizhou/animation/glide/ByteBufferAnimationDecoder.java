@@ -7,15 +7,11 @@ import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
 import com.github.penfeizhou.animation.apng.decode.APNGDecoder;
-import com.github.penfeizhou.animation.apng.decode.APNGParser;
 import com.github.penfeizhou.animation.decode.FrameSeqDecoder2;
 import com.github.penfeizhou.animation.gif.decode.GifDecoder;
-import com.github.penfeizhou.animation.gif.decode.GifParser;
-import com.github.penfeizhou.animation.io.ByteBufferReader;
 import com.github.penfeizhou.animation.loader.ByteBufferLoader;
 import com.github.penfeizhou.animation.loader.Loader;
 import com.github.penfeizhou.animation.webp.decode.WebPDecoder;
-import com.github.penfeizhou.animation.webp.decode.WebPParser;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -29,14 +25,20 @@ public class ByteBufferAnimationDecoder implements ResourceDecoder<ByteBuffer, F
 
     @Override
     public boolean handles(@NonNull ByteBuffer source, @NonNull Options options) {
-        return (!options.get(AnimationDecoderOption.DISABLE_ANIMATION_WEBP_DECODER) && WebPParser.isAWebP(new ByteBufferReader(source)))
-                || (!options.get(AnimationDecoderOption.DISABLE_ANIMATION_APNG_DECODER) && APNGParser.isAPNG(new ByteBufferReader(source)))
-                || (!options.get(AnimationDecoderOption.DISABLE_ANIMATION_GIF_DECODER) && GifParser.isGif(new ByteBufferReader(source)));
+        return AnimationSniffer.isEnabled(AnimationSniffer.sniff(source), options);
     }
 
     @Nullable
     @Override
     public Resource<FrameSeqDecoder2> decode(@NonNull final ByteBuffer source, int width, int height, @NonNull Options options) throws IOException {
+        return decode(source, AnimationSniffer.sniff(source));
+    }
+
+    /**
+     * Decodes {@code source} as {@code format}, already sniffed by the caller
+     */
+    @Nullable
+    Resource<FrameSeqDecoder2> decode(@NonNull final ByteBuffer source, @NonNull AnimationSniffer.Format format) {
         Loader loader = new ByteBufferLoader() {
             @Override
             public ByteBuffer getByteBuffer() {
@@ -45,14 +47,18 @@ public class ByteBufferAnimationDecoder implements ResourceDecoder<ByteBuffer, F
             }
         };
         final FrameSeqDecoder2 decoder;
-        if (WebPParser.isAWebP(new ByteBufferReader(source))) {
-            decoder = new WebPDecoder(loader);
-        } else if (APNGParser.isAPNG(new ByteBufferReader(source))) {
-            decoder = new APNGDecoder(loader);
-        } else if (GifParser.isGif(new ByteBufferReader(source))) {
-            decoder = new GifDecoder(loader);
-        } else {
-            return null;
+        switch (format) {
+            case WEBP:
+                decoder = new WebPDecoder(loader);
+                break;
+            case APNG:
+                decoder = new APNGDecoder(loader);
+                break;
+            case GIF:
+                decoder = new GifDecoder(loader);
+                break;
+            default:
+                return null;
         }
         return new FrameSeqDecoderResource(decoder, source.limit());
     }
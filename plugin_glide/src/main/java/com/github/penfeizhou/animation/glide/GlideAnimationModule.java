@@ -25,7 +25,7 @@ public class GlideAnimationModule extends LibraryGlideModule {
     public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
         super.registerComponents(context, glide, registry);
         ByteBufferAnimationDecoder byteBufferAnimationDecoder = new ByteBufferAnimationDecoder();
-        StreamAnimationDecoder streamAnimationDecoder = new StreamAnimationDecoder(byteBufferAnimationDecoder);
+        StreamAnimationDecoder streamAnimationDecoder = new StreamAnimationDecoder(byteBufferAnimationDecoder, glide.getArrayPool());
         registry.prepend(InputStream.class, FrameSeqDecoder2.class, streamAnimationDecoder);
         registry.prepend(ByteBuffer.class, FrameSeqDecoder2.class, byteBufferAnimationDecoder);
         registry.register(FrameSeqDecoder2.class, Drawable.class, new FrameDrawableTranscoder());
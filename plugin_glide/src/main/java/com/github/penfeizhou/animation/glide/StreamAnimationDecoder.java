@@ -6,16 +6,15 @@ import androidx.annotation.Nullable;
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
-import com.github.penfeizhou.animation.apng.decode.APNGParser;
+import com.bumptech.glide.load.engine.bitmap_recycle.ArrayPool;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruArrayPool;
 import com.github.penfeizhou.animation.decode.FrameSeqDecoder2;
-import com.github.penfeizhou.animation.gif.decode.GifParser;
-import com.github.penfeizhou.animation.io.StreamReader;
-import com.github.penfeizhou.animation.webp.decode.WebPParser;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @Description: StreamAnimationDecoder
@@ -24,44 +23,80 @@ import java.nio.ByteBuffer;
  */
 public class StreamAnimationDecoder implements ResourceDecoder<InputStream, FrameSeqDecoder2> {
 
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
     private final ResourceDecoder<ByteBuffer, FrameSeqDecoder2> byteBufferDecoder;
+    private final ArrayPool arrayPool;
 
     public StreamAnimationDecoder(ResourceDecoder<ByteBuffer, FrameSeqDecoder2> byteBufferDecoder) {
+        this(byteBufferDecoder, new LruArrayPool());
+    }
+
+    /**
+     * @param arrayPool Lends the buffers the stream is read into, usually {@link com.bumptech.glide.Glide#getArrayPool()}
+     */
+    public StreamAnimationDecoder(ResourceDecoder<ByteBuffer, FrameSeqDecoder2> byteBufferDecoder, ArrayPool arrayPool) {
         this.byteBufferDecoder = byteBufferDecoder;
+        this.arrayPool = arrayPool;
     }
 
     @Override
-    public boolean handles(@NonNull InputStream source, @NonNull Options options) {
-        return (!options.get(AnimationDecoderOption.DISABLE_ANIMATION_WEBP_DECODER) && WebPParser.isAWebP(new StreamReader(source)))
-                || (!options.get(AnimationDecoderOption.DISABLE_ANIMATION_APNG_DECODER) && APNGParser.isAPNG(new StreamReader(source)))
-                || (!options.get(AnimationDecoderOption.DISABLE_ANIMATION_GIF_DECODER) && GifParser.isGif(new StreamReader(source)));
+    public boolean handles(@NonNull InputStream source, @NonNull Options options) throws IOException {
+        return AnimationSniffer.isEnabled(AnimationSniffer.sniff(source, arrayPool), options);
     }
 
     @Nullable
     @Override
     public Resource<FrameSeqDecoder2> decode(@NonNull final InputStream source, int width, int height, @NonNull Options options) throws IOException {
-        byte[] data = inputStreamToBytes(source);
-        if (data == null) {
+        AnimationSniffer.Format format = AnimationSniffer.recall(source);
+        ByteBuffer byteBuffer = inputStreamToBuffer(source);
+        if (byteBuffer == null) {
             return null;
         }
-        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        if (byteBufferDecoder instanceof ByteBufferAnimationDecoder && format != null) {
+            // Already sniffed by handles()
+            return ((ByteBufferAnimationDecoder) byteBufferDecoder).decode(byteBuffer, format);
+        }
         return byteBufferDecoder.decode(byteBuffer, width, height, options);
     }
 
-
-    private static byte[] inputStreamToBytes(InputStream is) {
-        final int bufferSize = 16384;
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bufferSize);
+    /**
+     * Reads the stream into segments borrowed from the array pool, then copies them once into a
+     * buffer of the exact size, which the decoder keeps.
+     */
+    private ByteBuffer inputStreamToBuffer(InputStream is) {
+        List<byte[]> segments = new ArrayList<>();
+        int total = 0;
         try {
-            int nRead;
-            byte[] data = new byte[bufferSize];
-            while ((nRead = is.read(data)) != -1) {
-                buffer.write(data, 0, nRead);
+            byte[] segment = null;
+            int offset = 0;
+            while (true) {
+                if (segment == null || offset == segment.length) {
+                    segment = arrayPool.get(SEGMENT_SIZE, byte[].class);
+                    segments.add(segment);
+                    offset = 0;
+                }
+                int count = is.read(segment, offset, segment.length - offset);
+                if (count < 0) {
+                    break;
+                }
+                offset += count;
+                total += count;
+            }
+            byte[] data = new byte[total];
+            int copied = 0;
+            for (byte[] s : segments) {
+                int count = Math.min(s.length, total - copied);
+                System.arraycopy(s, 0, data, copied, count);
+                copied += count;
             }
-            buffer.flush();
+            return ByteBuffer.wrap(data);
         } catch (IOException e) {
             return null;
+        } finally {
+            for (byte[] s : segments) {
+                arrayPool.put(s);
+            }
         }
-        return buffer.toByteArray();
     }
 }